@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import com.zoomdata.gen.edc.request.DataResponse;
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.FieldType;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Status polls, fetches and the idle reaper hitting a single open query at once, as when many clients poll
+ * status of a long running query. Fetches of the query alone are the baseline of the fetcher's throughput.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComputeTaskHolderBenchmark {
+
+    private static final int FETCH_SIZE = 100;
+    private static final long FETCH_TIMEOUT_MILLIS = 10_000;
+
+    private ExecutorService executor;
+    private ComputeTaskHolder holder;
+
+    @Setup
+    public void setUp() throws TimeoutException {
+        executor = Executors.newFixedThreadPool(2);
+        holder = new ComputeTaskHolder("benchmark", executor, executor, new EndlessQueryFactory(),
+                ComputeTaskOptions.newComputeTaskOptions()
+                        .idleTimeoutMillis(TimeUnit.HOURS.toMillis(1))
+                        .build());
+        // executes the query
+        holder.fetch(FETCH_TIMEOUT_MILLIS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        holder.close(false);
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @Group("polled")
+    @GroupThreads(8)
+    public double progress() {
+        return holder.progress();
+    }
+
+    @Benchmark
+    @Group("polled")
+    @GroupThreads(1)
+    public DataResponse fetch() throws TimeoutException {
+        return holder.fetch(FETCH_TIMEOUT_MILLIS);
+    }
+
+    @Benchmark
+    @Group("polled")
+    @GroupThreads(1)
+    public boolean reap() {
+        return holder.idleDeadline() < System.currentTimeMillis() && holder.checkLostAndClose();
+    }
+
+    @Benchmark
+    @Group("alone")
+    @GroupThreads(1)
+    public DataResponse fetchAlone() throws TimeoutException {
+        return holder.fetch(FETCH_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Query whose cursor never ends, so every fetch returns a full page.
+     */
+    private static final class EndlessQueryFactory implements IComputeTaskFactory {
+
+        @Override
+        public IComputeTask create() {
+            return new IComputeTask() {
+                private volatile long returned;
+
+                @Override
+                public Cursor compute() {
+                    return new Cursor() {
+                        @Override
+                        public List<ResponseMetadata> getMetadata() {
+                            return Collections.singletonList(new ResponseMetadata("value", FieldType.INTEGER));
+                        }
+
+                        @Override
+                        public boolean hasNextBatch() {
+                            return false;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return true;
+                        }
+
+                        @Override
+                        public Record next() {
+                            return new Record().setRecord(Collections.singletonList(
+                                    new Field().setValue(Long.toString(returned++))));
+                        }
+                    };
+                }
+
+                @Override
+                public double progress() {
+                    return returned % 100;
+                }
+
+                @Override
+                public void cancel() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public String getRawQuery() {
+            return "select value from endless";
+        }
+
+        @Override
+        public int getFetchSize() {
+            return FETCH_SIZE;
+        }
+    }
+}
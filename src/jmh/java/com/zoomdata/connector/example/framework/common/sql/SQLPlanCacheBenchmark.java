@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.common.sql;
+
+import com.google.common.collect.ImmutableMap;
+import com.querydsl.sql.PostgreSQLTemplates;
+import com.querydsl.sql.SQLTemplates;
+import com.zoomdata.connector.example.framework.common.sql.impl.DefaultSQLQueryBuilder;
+import com.zoomdata.gen.edc.metric.Metric;
+import com.zoomdata.gen.edc.metric.MetricAvg;
+import com.zoomdata.gen.edc.metric.MetricSum;
+import com.zoomdata.gen.edc.metric.MetricType;
+import com.zoomdata.gen.edc.request.AggDataRequest;
+import com.zoomdata.gen.edc.request.CollectionInfo;
+import com.zoomdata.gen.edc.request.DataReadRequest;
+import com.zoomdata.gen.edc.request.RequestType;
+import com.zoomdata.gen.edc.request.StructuredRequest;
+import com.zoomdata.gen.edc.request.StructuredRequestType;
+import com.zoomdata.gen.edc.types.FieldMetadata;
+import com.zoomdata.gen.edc.types.FieldType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.eqStr;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.geDate;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.geDouble;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.inStr;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.leDouble;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Groups.group;
+
+/**
+ * Build time of SQL of a dashboard-like AGG request whose filter values change with every request.
+ * Compares the query builder alone, a hit of the plan cache, and a miss, which builds the request and compiles
+ * its plan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLPlanCacheBenchmark {
+
+    private static final SQLTemplates TEMPLATES = new PostgreSQLTemplates();
+    private static final int VALUES = 64;
+
+    private SQLPlanCache cache;
+    private int invocation;
+
+    @Setup
+    public void setUp() {
+        cache = new SQLPlanCache(VALUES);
+        cache.transform(request(0, 0), DefaultSQLQueryBuilder::new, TEMPLATES);
+    }
+
+    @Benchmark
+    public ParametrizedQuery builder() {
+        return StructuredToSQLTransformer.transform(request(next(), 0), new DefaultSQLQueryBuilder(), TEMPLATES);
+    }
+
+    @Benchmark
+    public ParametrizedQuery hit() {
+        return cache.transform(request(next(), 0), DefaultSQLQueryBuilder::new, TEMPLATES);
+    }
+
+    /**
+     * Every request has a limit of its own, so its shape is never cached.
+     */
+    @Benchmark
+    public ParametrizedQuery miss() {
+        int value = next();
+        return cache.transform(request(value, invocation), DefaultSQLQueryBuilder::new, TEMPLATES);
+    }
+
+    private int next() {
+        invocation++;
+        return invocation % VALUES;
+    }
+
+    private static DataReadRequest request(int value, int limit) {
+        AggDataRequest aggRequest = new AggDataRequest()
+                .setGroups(Arrays.asList(group("category"), group("region")))
+                .setMetrics(Arrays.asList(
+                        new Metric(MetricType.SUM).setSum(new MetricSum().setField("qty")),
+                        new Metric(MetricType.AVG).setAvg(new MetricAvg().setField("price"))))
+                .setFilters(Arrays.asList(
+                        eqStr("region", "region-" + value),
+                        inStr("category", "category-" + value, "category-" + (value + 1), "category-" + (value + 2)),
+                        geDouble("price", value),
+                        leDouble("price", value + 100.5),
+                        geDate("ts", String.format("2017-01-%02dT00:00:00.000Z", value % 28 + 1))))
+                .setLimit(limit);
+        return new DataReadRequest()
+                .setType(RequestType.STRUCTURED)
+                .setStructured(new StructuredRequest()
+                        .setType(StructuredRequestType.AGG)
+                        .setCollectionInfo(new CollectionInfo("doc", "sales"))
+                        .setFieldMetadata(ImmutableMap.<String, FieldMetadata>builder()
+                                .put("category", new FieldMetadata().setName("category").setType(FieldType.STRING))
+                                .put("region", new FieldMetadata().setName("region").setType(FieldType.STRING))
+                                .put("price", new FieldMetadata().setName("price").setType(FieldType.DOUBLE))
+                                .put("qty", new FieldMetadata().setName("qty").setType(FieldType.INTEGER))
+                                .put("ts", new FieldMetadata().setName("ts").setType(FieldType.DATE))
+                                .build())
+                        .setAggDataRequest(aggRequest));
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.zoomdata.connector.example.framework.api.ITypesMapping;
+import com.zoomdata.connector.example.provider.cratedb.CrateDBTypesMapping;
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.Record;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a row of a synthetic result set with columns of typical CrateDB types, every fifth value is null.
+ * Compares the compiled {@link RowDecoder} with resolving the types mapping for every cell.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowDecoderBenchmark {
+
+    private static final List<String> COLUMN_TYPES = Arrays.asList("varchar", "int8", "float8", "timestamptz",
+            "int4", "VARCHAR", "float4", "int2");
+    private static final int ROWS = 1024;
+
+    private final ITypesMapping typesMapping = new CrateDBTypesMapping();
+    private RowDecoder rowDecoder;
+    private ResultSet resultSet;
+
+    @Setup
+    public void setUp() {
+        rowDecoder = RowDecoder.compile(typesMapping, COLUMN_TYPES);
+        resultSet = syntheticResultSet();
+    }
+
+    @Benchmark
+    public Record compiled() throws SQLException {
+        return rowDecoder.decode(resultSet);
+    }
+
+    @Benchmark
+    public Record perCell() throws SQLException {
+        List<Field> fields = new ArrayList<>();
+        for (int i = 0; i < COLUMN_TYPES.size(); i++) {
+            fields.add(typesMapping.metaForType(COLUMN_TYPES.get(i)).getRsFunction().apply(resultSet, i + 1));
+        }
+        return new Record().setRecord(fields);
+    }
+
+    /**
+     * Each read moves to the next synthetic value, so values differ between invocations.
+     */
+    private static ResultSet syntheticResultSet() {
+        Object[][] rows = new Object[ROWS][COLUMN_TYPES.size()];
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMN_TYPES.size(); column++) {
+                rows[row][column] = (row + column) % 5 == 0 ? null : value(COLUMN_TYPES.get(column), row);
+            }
+        }
+        int[] cell = new int[1];
+        boolean[] wasNull = new boolean[1];
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    if ("wasNull".equals(method.getName())) {
+                        return wasNull[0];
+                    }
+                    int column = (Integer) args[0] - 1;
+                    Object value = rows[cell[0]++ / COLUMN_TYPES.size() % ROWS][column];
+                    wasNull[0] = value == null;
+                    switch (method.getName()) {
+                        case "getLong":
+                            return value == null ? 0L : ((Number) value).longValue();
+                        case "getDouble":
+                            return value == null ? 0D : ((Number) value).doubleValue();
+                        case "getString":
+                            return value == null ? null : value.toString();
+                        default:
+                            return value;
+                    }
+                });
+    }
+
+    private static Object value(String type, int row) {
+        switch (type.toLowerCase()) {
+            case "varchar":
+                return "value-" + row;
+            case "float4":
+            case "float8":
+                return row * 1.5;
+            case "timestamptz":
+                return new Timestamp(1483228800000L + row * 60000L);
+            default:
+                return (long) row;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import com.zoomdata.gen.edc.ConnectorService;
 import com.zoomdata.gen.edc.request.CollectionInfo;
 import com.zoomdata.gen.edc.types.Field;
 import com.zoomdata.gen.edc.types.FieldType;
+import com.zoomdata.gen.edc.types.Record;
 import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.THttpClient;
@@ -21,6 +22,7 @@ import org.joda.time.format.ISODateTimeFormat;
 
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 public final class ThriftUtils {
     public ThriftUtils() { }
@@ -84,6 +86,49 @@ public final class ThriftUtils {
         return FieldType.STRING;
     }
 
+    /**
+     * Cheap estimation of the number of bytes the record takes when serialized with {@link TCompactProtocol}.
+     * Lengths of values are taken in chars, so non-ASCII strings are slightly underestimated.
+     */
+    public static long estimateCompactSize(Record record) {
+        // field header of the list, list header and struct stop
+        long size = 3;
+        List<Field> fields = record.getRecord();
+        if (fields == null) {
+            return size;
+        }
+        size += varintSize(fields.size());
+        for (Field field : fields) {
+            // struct stop
+            size += 1;
+            if (field.isSetIsNull()) {
+                size += 1;
+            }
+            String value = field.getValue();
+            if (value != null) {
+                size += 1 + varintSize(value.length()) + value.length();
+            }
+        }
+        return size;
+    }
+
+    public static long estimateCompactSize(List<Record> records) {
+        long size = 0;
+        for (Record record : records) {
+            size += estimateCompactSize(record);
+        }
+        return size;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
     public static CollectionInfo getCollectionInfo(String schema, String tableName) {
         CollectionInfo ci = new CollectionInfo();
         ci.setSchema(schema);
@@ -6,7 +6,18 @@ package com.zoomdata.connector.example.framework.api;
 import com.google.common.collect.ImmutableList;
 import com.zoomdata.connector.example.common.utils.StructuredUtils;
 import com.zoomdata.connector.example.framework.async.AsyncProcessor;
+import com.zoomdata.connector.example.framework.async.AsyncException;
+import com.zoomdata.connector.example.framework.async.ComputeTaskOptions;
+import com.zoomdata.connector.example.framework.async.Deadline;
+import com.zoomdata.connector.example.framework.async.DeadlineExceededException;
+import com.zoomdata.connector.example.framework.async.DatasourceLimitedTaskScheduler;
+import com.zoomdata.connector.example.framework.async.FairTaskScheduler;
 import com.zoomdata.connector.example.framework.async.IComputeTaskFactory;
+import com.zoomdata.connector.example.framework.async.ITaskScheduler;
+import com.zoomdata.connector.example.framework.async.MemoryBudget;
+import com.zoomdata.connector.example.framework.async.RequestContext;
+import com.zoomdata.connector.example.framework.async.RequestLane;
+import com.zoomdata.connector.example.framework.async.TaskRejectedException;
 import com.zoomdata.connector.example.framework.provider.serverdescription.GenericDescriptionProvider;
 import com.zoomdata.gen.edc.request.DataReadRequest;
 import com.zoomdata.gen.edc.request.DataRequest;
@@ -16,26 +27,103 @@ import com.zoomdata.gen.edc.request.PrepareResponse;
 import com.zoomdata.gen.edc.request.RequestID;
 import com.zoomdata.gen.edc.request.RequestInfo;
 import com.zoomdata.gen.edc.request.RequestStatus;
+import com.zoomdata.gen.edc.request.RequestType;
 import com.zoomdata.gen.edc.request.ResponseInfo;
 import com.zoomdata.gen.edc.request.ResponseStatus;
 import com.zoomdata.gen.edc.request.StatusResponse;
+import com.zoomdata.gen.edc.request.StructuredRequestType;
 import com.zoomdata.gen.edc.request.serverdescription.ServerDescription;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 
 import static java.util.Optional.ofNullable;
 
-public abstract class AbstractDataProvider implements IDataProvider, BeanNameAware {
+public abstract class AbstractDataProvider implements IDataProvider, BeanNameAware, PublicMetrics {
 
     public static final int DEFAULT_TIMEOUT = 10_000;
     public static final int DEFAULT_FETCH_SIZE = 1_000;
     public static final String TIMEOUT_REQUEST_PARAMETER = "timeout";
     public static final String FETCH_SIZE_REQUEST_PARAMETER = "fetch_size";
+    public static final String PREFETCH_PAGES_REQUEST_PARAMETER = "prefetch_pages";
+    public static final String IDLE_TIMEOUT_REQUEST_PARAMETER = "idle_timeout";
+    public static final String FETCH_SIZE_AUTO = "auto";
+    public static final String STREAMING_REQUEST_PARAMETER = "streaming";
+    public static final String PRIORITY_REQUEST_PARAMETER = "priority";
+    public static final String QUERY_TIMEOUT_REQUEST_PARAMETER = "query_timeout";
+    public static final String ASYNC_MODE_FAIR = "fair";
+    public static final String ASYNC_MODE_DATASOURCE_LIMITED = "datasource-limited";
+
+    @Value("${async.mode:fair}")
+    protected String asyncMode = ASYNC_MODE_FAIR;
+
+    @Value("${async.datasource.permits:20}")
+    protected int asyncDatasourcePermits = 20;
+
+    @Value("${async.continuation.threads:50}")
+    protected int asyncContinuationThreads = AsyncProcessor.DEFAULT_WORKERS;
+
+    @Value("${async.workers:50}")
+    protected int asyncWorkers = AsyncProcessor.DEFAULT_WORKERS;
+
+    @Value("${async.interactive.workers:5}")
+    protected int asyncInteractiveWorkers = 5;
+
+    @Value("${async.queue.max:500}")
+    protected int asyncMaxQueued = AsyncProcessor.DEFAULT_MAX_QUEUED;
+
+    @Value("${async.query.timeout.ms:0}")
+    protected long queryTimeoutMillis = 0;
+
+    @Value("${async.idle.timeout.ms:60000}")
+    protected long idleTimeoutMillis = ComputeTaskOptions.DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    @Value("${async.adaptive.fetch:false}")
+    protected boolean adaptiveFetch = false;
+
+    @Value("${async.adaptive.page.bytes:1048576}")
+    protected long adaptivePageBytes = ComputeTaskOptions.DEFAULT_TARGET_PAGE_BYTES;
+
+    @Value("${async.adaptive.page.latency.ms:1000}")
+    protected long adaptivePageLatencyMillis = ComputeTaskOptions.DEFAULT_TARGET_PAGE_LATENCY_MILLIS;
+
+    @Value("${async.adaptive.fetch.latency.ms:100}")
+    protected long adaptiveFetchLatencyMillis = ComputeTaskOptions.DEFAULT_TARGET_FETCH_LATENCY_MILLIS;
+
+    @Value("${async.adaptive.fetch.max.rows:10000}")
+    protected int adaptiveFetchMaxRows = ComputeTaskOptions.DEFAULT_FETCH_MAX_ROWS;
+
+    @Value("${async.page.max.bytes:8388608}")
+    protected long pageMaxBytes = 8_388_608;
+
+    @Value("${async.pages.memory.max.bytes:268435456}")
+    protected long pagesMemoryMaxBytes = 268_435_456;
+
+    @Value("${async.streaming.pages:false}")
+    protected boolean streamingPages = false;
+
+    @Value("${async.single.flight:false}")
+    protected boolean singleFlight = false;
+
+    @Value("${async.prefetch.pages:0}")
+    protected int prefetchPages = 0;
+
+    @Value("${async.prefetch.max.bytes:16777216}")
+    protected long prefetchMaxBytes = 16_777_216;
 
     private AsyncProcessor asyncProcessor = new AsyncProcessor();
     protected String dataProviderBeanName;
@@ -43,7 +131,13 @@ public abstract class AbstractDataProvider implements IDataProvider, BeanNameAwa
 
     @PostConstruct
     public void postConstruct() {
-        asyncProcessor.initialize(this.getClass().getSimpleName());
+        ITaskScheduler scheduler = createTaskScheduler();
+        ITaskScheduler interactiveScheduler = asyncInteractiveWorkers > 0
+                ? new FairTaskScheduler(this.getClass().getSimpleName() + "-interactive", asyncInteractiveWorkers,
+                        asyncMaxQueued)
+                : scheduler;
+        asyncProcessor.initialize(this.getClass().getSimpleName(), scheduler, interactiveScheduler,
+                new MemoryBudget(pagesMemoryMaxBytes));
         descriptionProvider = createDescriptionProvider();
     }
 
@@ -56,14 +150,16 @@ public abstract class AbstractDataProvider implements IDataProvider, BeanNameAwa
     public PrepareResponse prepare(DataReadRequest request) throws ExecuteException {
         int fetchSize = ofNullable(request.getRequestInfo().getParams())
                 .map(params -> params.get(FETCH_SIZE_REQUEST_PARAMETER))
+                .filter(value -> !FETCH_SIZE_AUTO.equalsIgnoreCase(value))
                 .map(Integer::valueOf)
                 .orElse(DEFAULT_FETCH_SIZE);
 
-        IComputeTaskFactory computeTaskFactory = createComputeTaskFactory(request, fetchSize);
-        String rawQuery = computeTaskFactory.getRawQuery();
         String requestId = UUID.randomUUID().toString();
+        RequestContext context = new RequestContext(requestId, requestLane(request), requestDeadline(request));
+        IComputeTaskFactory computeTaskFactory = createComputeTaskFactory(request, fetchSize, context);
+        String rawQuery = computeTaskFactory.getRawQuery();
 
-        asyncProcessor.put(requestId, computeTaskFactory);
+        asyncProcessor.put(requestId, computeTaskFactory, createComputeTaskOptions(request, context));
 
         return new PrepareResponse(
                 ImmutableList.of(new RequestID(requestId).setRawQuery(rawQuery)),
@@ -78,7 +174,8 @@ public abstract class AbstractDataProvider implements IDataProvider, BeanNameAwa
                     response.setProgress(progress);
                     response.setRequestId(request.getRequestId());
                     response.setStatus(progress >= 100.0 ? RequestStatus.DONE : RequestStatus.PROGRESS);
-                    response.setResponseInfo(new ResponseInfo(ResponseStatus.SUCCESS, "OK"));
+                    response.setResponseInfo(new ResponseInfo(ResponseStatus.SUCCESS,
+                            asyncProcessor.queueStatus(request.getRequestId()).orElse("OK")));
                     return response;
                 }).orElseGet(() -> {
                     StatusResponse response = new StatusResponse();
@@ -108,6 +205,15 @@ public abstract class AbstractDataProvider implements IDataProvider, BeanNameAwa
         } catch (TimeoutException e) {
             ResponseInfo responseInfo = new ResponseInfo(ResponseStatus.TIMEOUT_ERROR, "Failed by timeout");
             return new DataResponse(Collections.emptyList(), Collections.emptyList(), true, responseInfo);
+        } catch (TaskRejectedException e) {
+            ResponseInfo responseInfo = new ResponseInfo(ResponseStatus.SERVER_ERROR, e.getMessage());
+            return new DataResponse(Collections.emptyList(), Collections.emptyList(), true, responseInfo);
+        } catch (AsyncException e) {
+            if (ExceptionUtils.indexOfType(e, DeadlineExceededException.class) < 0) {
+                throw new ExecuteException(e.getMessage());
+            }
+            ResponseInfo responseInfo = new ResponseInfo(ResponseStatus.TIMEOUT_ERROR, "Failed by query timeout");
+            return new DataResponse(Collections.emptyList(), Collections.emptyList(), false, responseInfo);
         } catch (Exception e) {
             throw new ExecuteException(e.getMessage());
         }
@@ -128,7 +234,142 @@ public abstract class AbstractDataProvider implements IDataProvider, BeanNameAwa
         this.dataProviderBeanName = name;
     }
 
-    protected abstract IComputeTaskFactory createComputeTaskFactory(DataReadRequest request, int fetchSize) throws ExecuteException;
+    @Override
+    public Collection<Metric<?>> metrics() {
+        String prefix = "async." + dataProviderBeanName + ".";
+        ITaskScheduler scheduler = asyncProcessor.getScheduler();
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>(prefix + "workers", scheduler.getWorkersCount()));
+        metrics.add(new Metric<>(prefix + "active", scheduler.getActiveCount()));
+        metrics.add(new Metric<>(prefix + "queue.depth", scheduler.getQueueDepth()));
+        metrics.add(new Metric<>(prefix + "queue.wait.avg", scheduler.getAverageWaitMillis()));
+        metrics.add(new Metric<>(prefix + "queue.wait.max", scheduler.getMaxWaitMillis()));
+        metrics.add(new Metric<>(prefix + "rejected", scheduler.getRejectedCount()));
+        ITaskScheduler interactiveScheduler = asyncProcessor.getScheduler(RequestLane.INTERACTIVE);
+        if (interactiveScheduler != scheduler) {
+            metrics.add(new Metric<>(prefix + "interactive.workers", interactiveScheduler.getWorkersCount()));
+            metrics.add(new Metric<>(prefix + "interactive.active", interactiveScheduler.getActiveCount()));
+            metrics.add(new Metric<>(prefix + "interactive.queue.depth", interactiveScheduler.getQueueDepth()));
+            metrics.add(new Metric<>(prefix + "interactive.queue.wait.avg",
+                    interactiveScheduler.getAverageWaitMillis()));
+            metrics.add(new Metric<>(prefix + "interactive.rejected", interactiveScheduler.getRejectedCount()));
+        }
+        MemoryBudget memoryBudget = asyncProcessor.getMemoryBudget();
+        metrics.add(new Metric<>(prefix + "pages.memory.used", memoryBudget.getUsedBytes()));
+        metrics.add(new Metric<>(prefix + "pages.memory.waiting", memoryBudget.getWaitingCount()));
+        return metrics;
+    }
+
+    /**
+     * @return executor for background work of already admitted requests
+     */
+    protected Executor continuationExecutor() {
+        return asyncProcessor.getScheduler().continuationExecutor();
+    }
+
+    protected ITaskScheduler createTaskScheduler() {
+        String name = this.getClass().getSimpleName();
+        switch (asyncMode) {
+            case ASYNC_MODE_FAIR:
+                return new FairTaskScheduler(name, asyncWorkers, asyncMaxQueued);
+            case ASYNC_MODE_DATASOURCE_LIMITED:
+                return new DatasourceLimitedTaskScheduler(name, asyncDatasourcePermits, asyncMaxQueued,
+                        asyncContinuationThreads);
+            default:
+                throw new IllegalStateException("Unknown async mode: " + asyncMode);
+        }
+    }
+
+    protected ComputeTaskOptions createComputeTaskOptions(DataReadRequest request, RequestContext context) {
+        return ComputeTaskOptions.newComputeTaskOptions()
+                .prefetchPages(StructuredUtils.retrieveAndTransformOrDefault(
+                        request.getRequestInfo().getParams(),
+                        PREFETCH_PAGES_REQUEST_PARAMETER,
+                        Integer::valueOf,
+                        prefetchPages))
+                .prefetchMaxBytes(prefetchMaxBytes)
+                .datasourceKey(datasourceKey(request))
+                .idleTimeoutMillis(StructuredUtils.retrieveAndTransformOrDefault(
+                        request.getRequestInfo().getParams(),
+                        IDLE_TIMEOUT_REQUEST_PARAMETER,
+                        Long::valueOf,
+                        idleTimeoutMillis))
+                .adaptiveFetch(isAdaptiveFetch(request))
+                .targetPageBytes(adaptivePageBytes)
+                .targetPageLatencyMillis(adaptivePageLatencyMillis)
+                .targetFetchLatencyMillis(adaptiveFetchLatencyMillis)
+                .fetchMaxRows(adaptiveFetchMaxRows)
+                .pageMaxBytes(pageMaxBytes)
+                .singleFlight(singleFlight)
+                .lane(context.getLane())
+                .deadline(context.getDeadline())
+                .streamingPages(StructuredUtils.retrieveAndTransformOrDefault(
+                        request.getRequestInfo().getParams(),
+                        STREAMING_REQUEST_PARAMETER,
+                        Boolean::valueOf,
+                        streamingPages))
+                .build();
+    }
+
+    /**
+     * Adaptive fetch is used when requested by <code>fetch_size=auto</code> or when it is enabled by default
+     * and request has no explicit fetch size.
+     */
+    protected boolean isAdaptiveFetch(DataReadRequest request) {
+        return ofNullable(request.getRequestInfo().getParams())
+                .map(params -> params.get(FETCH_SIZE_REQUEST_PARAMETER))
+                .map(FETCH_SIZE_AUTO::equalsIgnoreCase)
+                .orElse(adaptiveFetch);
+    }
+
+    /**
+     * Distinct values and stats requests are interactive, other data requests are bulk.
+     * Request parameter <code>priority=interactive|bulk</code> overrides the lane.
+     */
+    protected RequestLane requestLane(DataReadRequest request) {
+        Optional<RequestLane> requested = ofNullable(request.getRequestInfo().getParams())
+                .map(params -> params.get(PRIORITY_REQUEST_PARAMETER))
+                .flatMap(priority -> Arrays.stream(RequestLane.values())
+                        .filter(lane -> lane.name().equalsIgnoreCase(priority))
+                        .findFirst());
+        if (requested.isPresent()) {
+            return requested.get();
+        }
+        if (request.getType() == RequestType.STRUCTURED) {
+            StructuredRequestType type = request.getStructured().getType();
+            if (type == StructuredRequestType.DISTINCT_VALUES || type == StructuredRequestType.STATS) {
+                return RequestLane.INTERACTIVE;
+            }
+        }
+        return RequestLane.BULK;
+    }
+
+    /**
+     * Deadline starts when the request is prepared and covers queueing, execution and fetching of all pages.
+     * Request parameter <code>query_timeout</code> (ms) overrides <code>async.query.timeout.ms</code>,
+     * not positive timeout means no deadline.
+     */
+    protected Deadline requestDeadline(DataReadRequest request) {
+        return Deadline.after(StructuredUtils.retrieveAndTransformOrDefault(
+                request.getRequestInfo().getParams(),
+                QUERY_TIMEOUT_REQUEST_PARAMETER,
+                Long::valueOf,
+                queryTimeoutMillis));
+    }
+
+    /**
+     * @return key of the datasource the request is executed against, queued requests are scheduled
+     * fairly between datasources
+     */
+    protected Object datasourceKey(DataReadRequest request) {
+        return null;
+    }
+
+    /**
+     * @param context id, lane and deadline of the prepared request
+     */
+    protected abstract IComputeTaskFactory createComputeTaskFactory(DataReadRequest request, int fetchSize,
+                                                                    RequestContext context) throws ExecuteException;
 
     protected IDescriptionProvider createDescriptionProvider() {
         return new GenericDescriptionProvider(dataProviderBeanName);
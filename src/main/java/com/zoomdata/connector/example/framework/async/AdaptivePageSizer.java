@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+/**
+ * Tunes number of records per page and JDBC fetch size of a single query.
+ *
+ * Average encoded size and read time of a row are learned from pages already read, and the page is sized
+ * to stay within both target page size and target read latency. So narrow aggregated rows get big pages
+ * and wide raw rows get small ones.
+ *
+ * Fetch size is tuned separately, so that a single round trip to database stays within its own target latency
+ * and row cap, and never buffers more than a page in the driver. A page may take several round trips.
+ */
+class AdaptivePageSizer {
+
+    static final int MIN_ROWS = 10;
+    static final int MAX_ROWS = 100_000;
+
+    /**
+     * Weight of the last page in averages.
+     */
+    private static final double SMOOTHING = 0.5;
+
+    private final long targetBytes;
+    private final long targetNanos;
+    private final long targetFetchNanos;
+    private final int maxFetchRows;
+
+    private double rowBytes = -1;
+    private double rowNanos = -1;
+    private int pageRows;
+    private int fetchRows;
+
+    AdaptivePageSizer(int initialRows, long targetBytes, long targetLatencyMillis,
+                      long targetFetchLatencyMillis, int maxFetchRows) {
+        this.targetBytes = targetBytes;
+        this.targetNanos = targetLatencyMillis * 1_000_000L;
+        this.targetFetchNanos = targetFetchLatencyMillis * 1_000_000L;
+        this.maxFetchRows = Math.max(MIN_ROWS, maxFetchRows);
+        this.pageRows = clamp(initialRows, MAX_ROWS);
+        this.fetchRows = clamp(initialRows, this.maxFetchRows);
+    }
+
+    int getPageRows() {
+        return pageRows;
+    }
+
+    int getFetchSize() {
+        return fetchRows;
+    }
+
+    void record(int rows, long bytes, long nanos) {
+        if (rows == 0) {
+            return;
+        }
+        rowBytes = average(rowBytes, (double) bytes / rows);
+        rowNanos = average(rowNanos, (double) nanos / rows);
+
+        double rowsByBytes = rowBytes > 0 ? targetBytes / rowBytes : MAX_ROWS;
+        double rowsByLatency = rowNanos > 0 ? targetNanos / rowNanos : MAX_ROWS;
+        pageRows = clamp((long) Math.min(rowsByBytes, rowsByLatency), MAX_ROWS);
+
+        double rowsByRoundTrip = rowNanos > 0 ? targetFetchNanos / rowNanos : maxFetchRows;
+        fetchRows = clamp((long) Math.min(rowsByBytes, rowsByRoundTrip), maxFetchRows);
+    }
+
+    private static double average(double current, double sample) {
+        return current < 0 ? sample : current + SMOOTHING * (sample - current);
+    }
+
+    private static int clamp(long rows, int maxRows) {
+        return (int) Math.max(MIN_ROWS, Math.min(maxRows, rows));
+    }
+}
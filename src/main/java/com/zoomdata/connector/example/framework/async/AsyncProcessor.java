@@ -7,47 +7,116 @@ import com.zoomdata.gen.edc.request.DataResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.*;
 
-import static java.util.stream.Collectors.toList;
-
 public class AsyncProcessor {
 
     @SuppressWarnings("checkstyle:constantname")
     private static final Logger log = LoggerFactory.getLogger(AsyncProcessor.class);
 
-    private ExecutorService tasksExecutor;
+    public static final int DEFAULT_WORKERS = 50;
+    public static final int DEFAULT_MAX_QUEUED = 500;
+
+    private static final long IDLE_WHEEL_TICK_MILLIS = 1_000L;
+    private static final int IDLE_WHEEL_BUCKETS = 512;
+
+    private ITaskScheduler scheduler;
+    private ITaskScheduler interactiveScheduler;
+    private MemoryBudget memoryBudget;
     private ScheduledExecutorService cleanScheduleTaskExecutor;
+    private IdleTimerWheel idleTimerWheel;
 
     private ConcurrentHashMap<String, ComputeTaskHolder> tasks = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<Object, SharedExecution> executions = new ConcurrentHashMap<>();
 
     public void initialize(String simpleName) {
-        tasksExecutor = Executors.newCachedThreadPool();
+        initialize(simpleName, DEFAULT_WORKERS, DEFAULT_MAX_QUEUED);
+    }
 
-        cleanScheduleTaskExecutor = Executors.newSingleThreadScheduledExecutor();
-        cleanScheduleTaskExecutor.scheduleAtFixedRate(() -> {
-            log.debug("Tasks count by provider " + simpleName + ": " + tasks.size());
+    public void initialize(String simpleName, int workers, int maxQueued) {
+        initialize(simpleName, new FairTaskScheduler(simpleName, workers, maxQueued));
+    }
+
+    public void initialize(String simpleName, ITaskScheduler scheduler) {
+        initialize(simpleName, scheduler, MemoryBudget.UNLIMITED);
+    }
+
+    /**
+     * @param memoryBudget budget of pages built but not yet fetched, shared by all queries
+     */
+    public void initialize(String simpleName, ITaskScheduler scheduler, MemoryBudget memoryBudget) {
+        initialize(simpleName, scheduler, scheduler, memoryBudget);
+    }
+
+    /**
+     * @param interactiveScheduler scheduler of interactive requests with workers of their own, may be the same
+     *                             as the scheduler of bulk requests
+     */
+    public void initialize(String simpleName, ITaskScheduler scheduler, ITaskScheduler interactiveScheduler,
+                           MemoryBudget memoryBudget) {
+        this.scheduler = scheduler;
+        this.interactiveScheduler = interactiveScheduler;
+        this.memoryBudget = memoryBudget;
+
+        idleTimerWheel = new IdleTimerWheel(IDLE_WHEEL_TICK_MILLIS, IDLE_WHEEL_BUCKETS, task -> {
+            log.debug("Remove closed or lost query " + task.getQueryId());
+            tasks.remove(task.getQueryId(), task);
+        });
 
-            tasks.entrySet().stream()
-                    .filter(e -> e.getValue().checkLostAndClose())
-                    .map(Map.Entry::getKey)
-                    .collect(toList())
-                    .stream()
-                    .forEach(tasks::remove);
-        }, 10, 10, TimeUnit.SECONDS);
+        cleanScheduleTaskExecutor = Executors.newSingleThreadScheduledExecutor();
+        cleanScheduleTaskExecutor.scheduleAtFixedRate(idleTimerWheel::advance,
+                IDLE_WHEEL_TICK_MILLIS, IDLE_WHEEL_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        cleanScheduleTaskExecutor.scheduleAtFixedRate(
+                () -> log.debug("Tasks count by provider " + simpleName + ": " + tasks.size()),
+                10, 10, TimeUnit.SECONDS);
     }
 
     public void shutdown() {
-        tasksExecutor.shutdown();
+        scheduler.shutdown();
+        if (interactiveScheduler != scheduler) {
+            interactiveScheduler.shutdown();
+        }
         cleanScheduleTaskExecutor.shutdown();
     }
 
     public void put(String id, IComputeTaskFactory taskFactory) {
-        if (tasks.putIfAbsent(id, new ComputeTaskHolder(id, tasksExecutor, taskFactory)) != null) {
+        put(id, taskFactory, ComputeTaskOptions.DEFAULT);
+    }
+
+    public void put(String id, IComputeTaskFactory taskFactory, ComputeTaskOptions options) {
+        IComputeTaskFactory factory = taskFactory;
+        if (options.isSingleFlight() && taskFactory.getQueryKey() != null) {
+            factory = sharedExecution(id, Arrays.asList(options.getDatasourceKey(), options.getLane(),
+                    taskFactory.getQueryKey()), taskFactory, options.getDeadline());
+        }
+
+        ITaskScheduler laneScheduler = getScheduler(options.getLane());
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        ComputeTaskHolder holder = new ComputeTaskHolder(id,
+                laneScheduler.executorFor(options.getDatasourceKey(), closed),
+                laneScheduler.continuationExecutor(), factory, options, memoryBudget);
+        holder.whenClosed().thenRun(() -> closed.complete(null));
+        if (tasks.putIfAbsent(id, holder) != null) {
             throw new AsyncException("Query with id " + id + " exist");
         }
+        idleTimerWheel.schedule(holder);
+    }
+
+    /**
+     * @return factory of the request reading execution of the same query which is still joinable
+     * with the deadline, or a new one
+     */
+    private IComputeTaskFactory sharedExecution(String id, Object key, IComputeTaskFactory taskFactory,
+                                                Deadline deadline) {
+        return executions.compute(key, (k, existing) -> {
+            if (existing != null && existing.isJoinable(deadline)) {
+                log.debug("Query " + id + " joins execution of identical query");
+                return existing;
+            }
+            return new SharedExecution(taskFactory, deadline, execution -> executions.remove(k, execution));
+        }).join(taskFactory);
     }
 
     public DataResponse fetch(String id, long timeout) throws TimeoutException {
@@ -56,9 +125,18 @@ public class AsyncProcessor {
             throw new AsyncException("Query " + id + " not found");
         }
 
-        DataResponse fetch = task.fetch(timeout);
+        DataResponse fetch;
+        try {
+            fetch = task.fetch(timeout);
+        } catch (TimeoutException | RuntimeException e) {
+            // a failed or cancelled query is closed by the holder, a query which only timed out stays open
+            if (task.isClosed()) {
+                tasks.remove(id, task);
+            }
+            throw e;
+        }
         if (!fetch.isHasNext()) {
-            tasks.remove(id);
+            tasks.remove(id, task);
         }
         return fetch;
     }
@@ -72,6 +150,38 @@ public class AsyncProcessor {
         return Optional.of(task.progress());
     }
 
+    /**
+     * @return description of the queue position if the query waits for a worker
+     */
+    public Optional<String> queueStatus(String id) {
+        ComputeTaskHolder task = tasks.get(id);
+        if (task == null) {
+            return Optional.empty();
+        }
+
+        long queuedMillis = task.queuedMillis();
+        if (queuedMillis < 0) {
+            return Optional.empty();
+        }
+
+        ITaskScheduler laneScheduler = getScheduler(task.getOptions().getLane());
+        return Optional.of("Queued for " + queuedMillis + " ms, queue depth "
+                + laneScheduler.getQueueDepth(task.getOptions().getDatasourceKey()) + " for datasource, "
+                + laneScheduler.getQueueDepth() + " total");
+    }
+
+    public ITaskScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public ITaskScheduler getScheduler(RequestLane lane) {
+        return lane == RequestLane.INTERACTIVE ? interactiveScheduler : scheduler;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
     public void cancel(String id) {
         ComputeTaskHolder task = tasks.remove(id);
         if (task != null) {
@@ -3,6 +3,8 @@
  */
 package com.zoomdata.connector.example.framework.async;
 
+import com.google.common.math.LongMath;
+import com.zoomdata.connector.example.common.utils.ThriftUtils;
 import com.zoomdata.gen.edc.request.DataResponse;
 import com.zoomdata.gen.edc.request.ResponseInfo;
 import com.zoomdata.gen.edc.request.ResponseStatus;
@@ -14,51 +16,90 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Optional.ofNullable;
 
+/**
+ * Lifecycle of a prepared query. State is an atomic word, so status polls, touches and the idle reaper
+ * never block each other or fetches. A single fetch at a time is admitted by the fetching flag.
+ */
 public class ComputeTaskHolder {
 
-    private static final long LOST_TIME = 60_000L;
-
     @SuppressWarnings("checkstyle:constantname")
     private static final Logger log = LoggerFactory.getLogger(ComputeTaskHolder.class);
 
     private final String queryId;
-    private final ExecutorService executor;
+    private final Executor computeExecutor;
+    private final Executor executor;
     private final IComputeTaskFactory taskFactory;
-    private final ReentrantLock fetchLock = new ReentrantLock();
-    private final ReentrantLock globalLock = new ReentrantLock();
+    private final ComputeTaskOptions options;
+    private final AdaptivePageSizer pageSizer;
+    private final MemoryBudget memoryBudget;
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicBoolean fetching = new AtomicBoolean();
+    private final AtomicBoolean taskClosed = new AtomicBoolean();
+    private final AtomicReference<State> state = new AtomicReference<>(State.PREPARED);
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
 
     private volatile IComputeTask computeTask;
-    private CompletableFuture<Cursor> computeFeature;
-    private CompletableFuture<DataResponse> dataResponseFeature;
-    private long lastTouchTime;
-    private State state;
+    private volatile CompletableFuture<Cursor> computeFeature;
+    private volatile CompletableFuture<DataPage> dataResponseFeature;
+    private volatile PageBuffer pageBuffer;
+    private volatile PageAssembly pageAssembly;
+    private volatile long queuedSince;
+    private volatile long lastTouchTime;
 
-    public ComputeTaskHolder(String queryId, ExecutorService executor, IComputeTaskFactory taskFactory) {
+    public ComputeTaskHolder(String queryId, Executor executor, IComputeTaskFactory taskFactory) {
+        this(queryId, executor, executor, taskFactory, ComputeTaskOptions.DEFAULT);
+    }
+
+    /**
+     * @param computeExecutor executor of the first computation, it may reject the query
+     * @param executor        executor of the following work of the started query
+     */
+    public ComputeTaskHolder(String queryId, Executor computeExecutor, Executor executor,
+                             IComputeTaskFactory taskFactory, ComputeTaskOptions options) {
+        this(queryId, computeExecutor, executor, taskFactory, options, MemoryBudget.UNLIMITED);
+    }
+
+    /**
+     * @param memoryBudget budget of pages built but not yet fetched, shared between queries
+     */
+    public ComputeTaskHolder(String queryId, Executor computeExecutor, Executor executor,
+                             IComputeTaskFactory taskFactory, ComputeTaskOptions options, MemoryBudget memoryBudget) {
         this.queryId = queryId;
+        this.computeExecutor = computeExecutor;
         this.executor = executor;
         this.taskFactory = taskFactory;
+        this.options = options;
+        this.memoryBudget = memoryBudget;
+        this.pageSizer = options.isAdaptiveFetch()
+                ? new AdaptivePageSizer(taskFactory.getFetchSize(), options.getTargetPageBytes(),
+                        options.getTargetPageLatencyMillis(), options.getTargetFetchLatencyMillis(),
+                        options.getFetchMaxRows())
+                : null;
         this.lastTouchTime = System.currentTimeMillis();
-        this.state = State.PREPARED;
     }
 
     public DataResponse fetch(long timeoutMillis) throws TimeoutException {
-        if (!fetchLock.tryLock()) {
+        if (!fetching.compareAndSet(false, true)) {
             throw new AsyncException("Query " + queryId + " is being fetched");
         }
 
         try {
+            // the expired query is closed and removed by the idle wheel
+            options.getDeadline().check("fetching query " + queryId);
             updateState();
 
-            if (dataResponseFeature == null) {
-                dataResponseFeature = computeFeature.thenApplyAsync(this::toDataResponse, executor);
-            }
+            // waiting past the deadline is useless, the query is abandoned then
+            long waitMillis = options.getDeadline().bound(timeoutMillis);
+            DataPage page = pageBuffer != null ? pageBuffer.take(waitMillis) : fetchPage(waitMillis);
+            release(page.getSize());
 
-            DataResponse response = dataResponseFeature.get(timeoutMillis, TimeUnit.MILLISECONDS);
-            dataResponseFeature = null;
+            DataResponse response = page.getResponse();
             if (!response.hasNext) {
                 close(false);
             }
@@ -69,99 +110,297 @@ public class ComputeTaskHolder {
             close(true);
             throw new AsyncException(ofNullable(ExceptionUtils.getRootCause(e)).orElse(e));
         } finally {
-            updateLastTouchTime();
-            fetchLock.unlock();
+            lastTouchTime = System.currentTimeMillis();
+            fetching.set(false);
+        }
+    }
+
+    private DataPage fetchPage(long timeoutMillis)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (dataResponseFeature == null) {
+            dataResponseFeature = computeFeature.thenComposeAsync(this::toDataPage, executor);
+        }
+
+        DataPage page;
+        try {
+            page = dataResponseFeature.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            PageAssembly assembly = pageAssembly;
+            DataPage partial = assembly != null ? assembly.takePartial() : null;
+            if (partial == null) {
+                throw e;
+            }
+            return partial;
+        }
+        dataResponseFeature = null;
+        return page;
+    }
+
+    private CompletableFuture<DataPage> toDataPage(Cursor cursor) {
+        PageAssembly assembly = options.isStreamingPages() ? new PageAssembly(cursor.getMetadata()) : null;
+        pageAssembly = assembly;
+        DataPage page = readPage(cursor, assembly);
+        return reserve(page).thenApplyAsync(reserved -> {
+            if (!cursor.hasNext() && cursor.hasNextBatch()) {
+                computeFeature = CompletableFuture.supplyAsync(this::computeNextBatch, executor);
+            }
+            return page;
+        }, executor);
+    }
+
+    /**
+     * Drains cursor into the page buffer ahead of client fetches, so reading from JDBC overlaps with
+     * serialization and transfer of previous pages. Stops when the last page is buffered or the buffer is closed.
+     *
+     * A page which doesn't fit into the memory budget or the buffer suspends production, which resumes as
+     * a new continuation when there is room, so producers of clients which stopped fetching don't hold workers.
+     */
+    private void producePages(Cursor cursor) {
+        DataPage page = readPage(cursor, null);
+        reserve(page)
+                .thenRun(() -> offerPage(cursor, page))
+                .exceptionally(this::failPages);
+    }
+
+    private void offerPage(Cursor cursor, DataPage page) {
+        PageBuffer.Offer offer = pageBuffer.offer(page, () -> offerPage(cursor, page));
+        if (offer == PageBuffer.Offer.ADDED && page.getResponse().isHasNext()) {
+            resume(() -> producePages(cursor.hasNext() ? cursor : computeNextBatch()));
         }
     }
 
-    private DataResponse toDataResponse(Cursor cursor) {
+    private void resume(Runnable step) {
+        try {
+            executor.execute(() -> {
+                try {
+                    step.run();
+                } catch (RuntimeException e) {
+                    failPages(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            failPages(e);
+        }
+    }
+
+    private Void failPages(Throwable e) {
+        pageBuffer.fail(e);
+        return null;
+    }
+
+    /**
+     * Reads records until the page has fetch size records or its estimated size reaches the page byte limit.
+     *
+     * @param assembly publishes records while the page is read, records taken by partial pages are not included
+     *                 into the page, may be <code>null</code>
+     */
+    private DataPage readPage(Cursor cursor, PageAssembly assembly) {
+        options.getDeadline().check("reading a page of query " + queryId);
         DataResponse response = new DataResponse();
         response.setMetadata(cursor.getMetadata());
+        int pageRows = pageSizer != null ? pageSizer.getPageRows() : taskFactory.getFetchSize();
+        long pageMaxBytes = options.getPageMaxBytes();
+        long started = System.nanoTime();
+        int rows = 0;
+        long size = 0;
         List<Record> records = new ArrayList<>();
-        while (cursor.hasNext() && records.size() < taskFactory.getFetchSize()) {
-            records.add(cursor.next());
+        while (cursor.hasNext() && rows < pageRows && size < pageMaxBytes) {
+            Record record = cursor.next();
+            long recordSize = ThriftUtils.estimateCompactSize(record);
+            if (assembly != null) {
+                assembly.add(record, recordSize);
+            } else {
+                records.add(record);
+            }
+            size += recordSize;
+            rows++;
+        }
+        if (pageSizer != null) {
+            pageSizer.record(rows, size, System.nanoTime() - started);
+            cursor.setFetchSize(pageSizer.getFetchSize());
+        }
+        if (assembly != null) {
+            records = assembly.finish();
+            size = assembly.getSize();
         }
         response.setRecords(records);
         response.setHasNext(cursor.hasNext() || cursor.hasNextBatch());
         response.setResponseInfo(new ResponseInfo(ResponseStatus.SUCCESS, "OK"));
+        return new DataPage(response, size);
+    }
+
+    /**
+     * Reserves the page in the memory budget, so producers of all queries slow down when clients don't keep up.
+     * A page which doesn't fit is reserved when pages of other queries are released, no worker waits meanwhile.
+     *
+     * @return completed when the page is reserved, exceptionally if the query has been closed
+     */
+    private CompletableFuture<Void> reserve(DataPage page) {
+        CompletableFuture<Void> reserved = new CompletableFuture<>();
+        tryReserve(page, reserved);
+        return reserved;
+    }
 
-        if (!cursor.hasNext() && cursor.hasNextBatch()) {
-            computeFeature = CompletableFuture.supplyAsync(computeTask::compute, executor);
+    private void tryReserve(DataPage page, CompletableFuture<Void> reserved) {
+        if (isClosed()) {
+            reserved.completeExceptionally(new AsyncException("Query " + queryId + " is closed"));
+            return;
         }
+        if (!memoryBudget.tryAcquire(page.getSize(), () -> tryReserve(page, reserved))) {
+            return;
+        }
+        reservedBytes.addAndGet(page.getSize());
+        if (isClosed()) {
+            releaseReserved();
+            reserved.completeExceptionally(new AsyncException("Query " + queryId + " is closed"));
+            return;
+        }
+        reserved.complete(null);
+    }
 
-        return response;
+    private void release(long bytes) {
+        long reserved = reservedBytes.getAndUpdate(value -> Math.max(0, value - bytes));
+        memoryBudget.release(Math.min(reserved, bytes));
     }
 
-    private void updateLastTouchTime() {
-        try {
-            globalLock.lock();
-            lastTouchTime = System.currentTimeMillis();
-        } finally {
-            globalLock.unlock();
-        }
+    private void releaseReserved() {
+        memoryBudget.release(reservedBytes.getAndSet(0));
     }
 
+    /**
+     * Called by the single admitted fetch. A rejected query stays prepared and may be fetched again.
+     */
     private void updateState() {
-        try {
-            globalLock.lock();
-            if (state == State.CLOSED) {
-                throw new AsyncException("Query " + queryId + " is closed");
-            }
+        State current = state.get();
+        if (current == State.CLOSED) {
+            throw new AsyncException("Query " + queryId + " is closed");
+        }
 
-            if (state == State.PREPARED) {
-                log.debug("Execute query " + queryId);
-                computeTask = taskFactory.create();
-                computeFeature = CompletableFuture.supplyAsync(computeTask::compute, executor);
-                state = State.EXECUTED;
+        if (current == State.PREPARED) {
+            log.debug("Execute query " + queryId);
+            queuedSince = System.currentTimeMillis();
+            try {
+                computeFeature = CompletableFuture.supplyAsync(this::createAndCompute, computeExecutor);
+            } catch (RejectedExecutionException e) {
+                queuedSince = 0;
+                throw new TaskRejectedException("Query " + queryId + " is rejected: " + e.getMessage(), e);
             }
+            if (options.isPrefetchEnabled()) {
+                startPrefetch();
+            }
+            // fails only if closed meanwhile, the worker then finds the query closed
+            state.compareAndSet(State.PREPARED, State.EXECUTED);
+        }
+    }
 
-        } finally {
-            globalLock.unlock();
+    /**
+     * Task is created by the worker, so queued queries don't hold connections.
+     * The task is published before the state is checked again, and close publishes the state before it reads
+     * the task, so a task created concurrently with close is closed by one of them.
+     */
+    private Cursor createAndCompute() {
+        queuedSince = 0;
+        if (state.get() == State.CLOSED) {
+            throw new AsyncException("Query " + queryId + " is closed");
+        }
+        options.getDeadline().check("executing query " + queryId);
+        IComputeTask task = taskFactory.create();
+        computeTask = task;
+        if (state.get() == State.CLOSED) {
+            closeTask(true);
+            throw new AsyncException("Query " + queryId + " is closed");
         }
+        return task.compute();
+    }
+
+    private Cursor computeNextBatch() {
+        options.getDeadline().check("reading the next batch of query " + queryId);
+        return computeTask.compute();
+    }
+
+    private void startPrefetch() {
+        PageBuffer buffer = new PageBuffer(options.getPrefetchPages(), options.getPrefetchMaxBytes());
+        pageBuffer = buffer;
+        computeFeature.thenAcceptAsync(this::producePages, executor)
+                .exceptionally(e -> {
+                    buffer.fail(e);
+                    return null;
+                });
     }
 
     public void close(boolean cancel) {
-        try {
-            globalLock.lock();
-            if (state == State.EXECUTED) {
-                if (cancel) {
-                    log.info("Cancel query " + queryId);
-                    computeTask.cancel();
-                }
+        state.set(State.CLOSED);
+        PageBuffer buffer = pageBuffer;
+        if (buffer != null) {
+            buffer.close();
+        }
+        closeTask(cancel);
+        releaseReserved();
+        closed.complete(null);
+    }
 
-                log.debug("Close query " + queryId);
-                computeTask.close();
-            }
+    /**
+     * @return completed when the query is closed and its task released
+     */
+    public CompletionStage<Void> whenClosed() {
+        return closed;
+    }
 
-            state = State.CLOSED;
-        } finally {
-            globalLock.unlock();
+    /**
+     * Closes the task once, whichever of close and the worker creating the task comes last.
+     */
+    private void closeTask(boolean cancel) {
+        IComputeTask task = computeTask;
+        if (task == null || !taskClosed.compareAndSet(false, true)) {
+            return;
+        }
+        if (cancel) {
+            log.info("Cancel query " + queryId);
+            task.cancel();
         }
+
+        log.debug("Close query " + queryId);
+        task.close();
     }
 
     public double progress() {
-        try {
-            globalLock.lock();
-            if (state == State.EXECUTED) {
-                return computeTask.progress();
-            }
+        IComputeTask task = computeTask;
+        return state.get() == State.EXECUTED && task != null ? task.progress() : 0;
+    }
 
-            return 0;
-        } finally {
-            globalLock.unlock();
-        }
+    /**
+     * @return how long the query waits for a worker, or -1 if it is not queued
+     */
+    public long queuedMillis() {
+        long since = queuedSince;
+        return since == 0 ? -1 : System.currentTimeMillis() - since;
+    }
+
+    /**
+     * @return time after which the query is considered lost if it is not touched, or its deadline if earlier
+     */
+    public long idleDeadline() {
+        return Math.min(LongMath.saturatedAdd(lastTouchTime, options.getIdleTimeoutMillis()),
+                options.getDeadline().getAtMillis());
+    }
+
+    public boolean isClosed() {
+        return state.get() == State.CLOSED;
+    }
+
+    public String getQueryId() {
+        return queryId;
+    }
+
+    public ComputeTaskOptions getOptions() {
+        return options;
     }
 
     public boolean checkLostAndClose() {
-        if (globalLock.tryLock()) {
-            try {
-                if (!fetchLock.isLocked() && System.currentTimeMillis() - lastTouchTime > LOST_TIME) {
-                    close(true);
-                    return true;
-                }
-            } finally {
-                globalLock.unlock();
-            }
+        if (options.getDeadline().isExpired()
+                || !fetching.get() && System.currentTimeMillis() - lastTouchTime > options.getIdleTimeoutMillis()) {
+            close(true);
+            return true;
         }
 
         return false;
@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+/**
+ * Per request settings of the {@link ComputeTaskHolder}.
+ */
+public final class ComputeTaskOptions {
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000L;
+    public static final long MAX_IDLE_TIMEOUT_MILLIS = 24 * 60 * 60_000L;
+    public static final long DEFAULT_TARGET_PAGE_BYTES = 1_048_576L;
+    public static final long DEFAULT_TARGET_PAGE_LATENCY_MILLIS = 1_000L;
+    public static final long DEFAULT_TARGET_FETCH_LATENCY_MILLIS = 100L;
+    public static final int DEFAULT_FETCH_MAX_ROWS = 10_000;
+
+    public static final ComputeTaskOptions DEFAULT = newComputeTaskOptions().build();
+
+    private final int prefetchPages;
+    private final long prefetchMaxBytes;
+    private final Object datasourceKey;
+    private final long idleTimeoutMillis;
+    private final boolean adaptiveFetch;
+    private final long targetPageBytes;
+    private final long targetPageLatencyMillis;
+    private final long targetFetchLatencyMillis;
+    private final int fetchMaxRows;
+    private final long pageMaxBytes;
+    private final boolean streamingPages;
+    private final boolean singleFlight;
+    private final RequestLane lane;
+    private final Deadline deadline;
+
+    private ComputeTaskOptions(Builder builder) {
+        this.prefetchPages = builder.prefetchPages;
+        this.prefetchMaxBytes = builder.prefetchMaxBytes;
+        this.datasourceKey = builder.datasourceKey;
+        this.idleTimeoutMillis = builder.idleTimeoutMillis;
+        this.adaptiveFetch = builder.adaptiveFetch;
+        this.targetPageBytes = builder.targetPageBytes;
+        this.targetPageLatencyMillis = builder.targetPageLatencyMillis;
+        this.targetFetchLatencyMillis = builder.targetFetchLatencyMillis;
+        this.fetchMaxRows = builder.fetchMaxRows;
+        this.pageMaxBytes = builder.pageMaxBytes;
+        this.streamingPages = builder.streamingPages;
+        this.singleFlight = builder.singleFlight;
+        this.lane = builder.lane;
+        this.deadline = builder.deadline;
+    }
+
+    public static Builder newComputeTaskOptions() {
+        return new Builder();
+    }
+
+    /**
+     * @return how many ready pages may be buffered ahead of the client, 0 disables prefetching
+     */
+    public int getPrefetchPages() {
+        return prefetchPages;
+    }
+
+    /**
+     * @return estimated size of buffered pages above which the producer waits for the client
+     */
+    public long getPrefetchMaxBytes() {
+        return prefetchMaxBytes;
+    }
+
+    public boolean isPrefetchEnabled() {
+        return prefetchPages > 0;
+    }
+
+    /**
+     * @return key of the datasource the task is executed against, tasks are scheduled fairly between datasources
+     */
+    public Object getDatasourceKey() {
+        return datasourceKey;
+    }
+
+    /**
+     * @return time without fetches after which the query is closed and its connection released
+     */
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * @return <code>true</code> if page size and JDBC fetch size are tuned by observed rows instead of fetch size
+     * of the task factory
+     */
+    public boolean isAdaptiveFetch() {
+        return adaptiveFetch;
+    }
+
+    /**
+     * @return estimated encoded size of a page the adaptive fetch aims at
+     */
+    public long getTargetPageBytes() {
+        return targetPageBytes;
+    }
+
+    /**
+     * @return time of reading a page from cursor the adaptive fetch aims at
+     */
+    public long getTargetPageLatencyMillis() {
+        return targetPageLatencyMillis;
+    }
+
+    /**
+     * @return time of a single round trip to database the adaptive fetch size aims at
+     */
+    public long getTargetFetchLatencyMillis() {
+        return targetFetchLatencyMillis;
+    }
+
+    /**
+     * @return maximal JDBC fetch size chosen by the adaptive fetch
+     */
+    public int getFetchMaxRows() {
+        return fetchMaxRows;
+    }
+
+    /**
+     * @return estimated encoded size of records above which the page is finished, a page has at least one record
+     */
+    public long getPageMaxBytes() {
+        return pageMaxBytes;
+    }
+
+    /**
+     * @return <code>true</code> if a fetch which timed out returns records read so far instead of nothing,
+     * applies to pages built on demand
+     */
+    public boolean isStreamingPages() {
+        return streamingPages;
+    }
+
+    /**
+     * @return <code>true</code> if the request may join an execution of the identical query of another request
+     */
+    public boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * @return lane of workers the request is executed by
+     */
+    public RequestLane getLane() {
+        return lane;
+    }
+
+    /**
+     * @return time by which the request has to be done, work past it is abandoned
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    public static final class Builder {
+        private int prefetchPages = 0;
+        private long prefetchMaxBytes = Long.MAX_VALUE;
+        private Object datasourceKey;
+        private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+        private boolean adaptiveFetch;
+        private long targetPageBytes = DEFAULT_TARGET_PAGE_BYTES;
+        private long targetPageLatencyMillis = DEFAULT_TARGET_PAGE_LATENCY_MILLIS;
+        private long targetFetchLatencyMillis = DEFAULT_TARGET_FETCH_LATENCY_MILLIS;
+        private int fetchMaxRows = DEFAULT_FETCH_MAX_ROWS;
+        private long pageMaxBytes = Long.MAX_VALUE;
+        private boolean streamingPages;
+        private boolean singleFlight;
+        private RequestLane lane = RequestLane.BULK;
+        private Deadline deadline = Deadline.NONE;
+
+        private Builder() {
+        }
+
+        public ComputeTaskOptions build() {
+            return new ComputeTaskOptions(this);
+        }
+
+        public Builder prefetchPages(int prefetchPages) {
+            this.prefetchPages = Math.max(0, prefetchPages);
+            return this;
+        }
+
+        public Builder prefetchMaxBytes(long prefetchMaxBytes) {
+            this.prefetchMaxBytes = prefetchMaxBytes > 0 ? prefetchMaxBytes : Long.MAX_VALUE;
+            return this;
+        }
+
+        public Builder datasourceKey(Object datasourceKey) {
+            this.datasourceKey = datasourceKey;
+            return this;
+        }
+
+        /**
+         * Non-positive timeout means the default one, timeouts above {@link #MAX_IDLE_TIMEOUT_MILLIS} are clamped.
+         */
+        public Builder idleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis > 0
+                    ? Math.min(idleTimeoutMillis, MAX_IDLE_TIMEOUT_MILLIS)
+                    : DEFAULT_IDLE_TIMEOUT_MILLIS;
+            return this;
+        }
+
+        public Builder adaptiveFetch(boolean adaptiveFetch) {
+            this.adaptiveFetch = adaptiveFetch;
+            return this;
+        }
+
+        public Builder targetPageBytes(long targetPageBytes) {
+            this.targetPageBytes = targetPageBytes > 0 ? targetPageBytes : DEFAULT_TARGET_PAGE_BYTES;
+            return this;
+        }
+
+        public Builder targetPageLatencyMillis(long targetPageLatencyMillis) {
+            this.targetPageLatencyMillis = targetPageLatencyMillis > 0
+                    ? targetPageLatencyMillis : DEFAULT_TARGET_PAGE_LATENCY_MILLIS;
+            return this;
+        }
+
+        public Builder targetFetchLatencyMillis(long targetFetchLatencyMillis) {
+            this.targetFetchLatencyMillis = targetFetchLatencyMillis > 0
+                    ? targetFetchLatencyMillis : DEFAULT_TARGET_FETCH_LATENCY_MILLIS;
+            return this;
+        }
+
+        public Builder fetchMaxRows(int fetchMaxRows) {
+            this.fetchMaxRows = fetchMaxRows > 0 ? fetchMaxRows : DEFAULT_FETCH_MAX_ROWS;
+            return this;
+        }
+
+        public Builder pageMaxBytes(long pageMaxBytes) {
+            this.pageMaxBytes = pageMaxBytes > 0 ? pageMaxBytes : Long.MAX_VALUE;
+            return this;
+        }
+
+        public Builder streamingPages(boolean streamingPages) {
+            this.streamingPages = streamingPages;
+            return this;
+        }
+
+        public Builder singleFlight(boolean singleFlight) {
+            this.singleFlight = singleFlight;
+            return this;
+        }
+
+        public Builder lane(RequestLane lane) {
+            this.lane = lane;
+            return this;
+        }
+
+        public Builder deadline(Deadline deadline) {
+            this.deadline = deadline != null ? deadline : Deadline.NONE;
+            return this;
+        }
+    }
+}
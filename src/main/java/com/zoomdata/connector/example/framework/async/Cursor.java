@@ -14,4 +14,10 @@ public interface Cursor extends Iterator<Record> {
     List<ResponseMetadata> getMetadata();
 
     boolean hasNextBatch();
+
+    /**
+     * Hint for number of rows fetched from database by one round trip.
+     */
+    default void setFetchSize(int rows) {
+    }
 }
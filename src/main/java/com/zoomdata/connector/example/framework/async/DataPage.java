@@ -0,0 +1,28 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import com.zoomdata.gen.edc.request.DataResponse;
+
+/**
+ * Page of data with its estimated encoded size.
+ */
+final class DataPage {
+
+    private final DataResponse response;
+    private final long size;
+
+    DataPage(DataResponse response, long size) {
+        this.response = response;
+        this.size = size;
+    }
+
+    DataResponse getResponse() {
+        return response;
+    }
+
+    long getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Scheduler where concurrency is limited by permits per datasource instead of number of threads.
+ *
+ * Tasks run on cached threads with small stacks, which mostly wait on JDBC sockets. Each datasource has
+ * its own permits, usually equal to size of its connection pool, and tasks above the limit wait in
+ * the datasource queue without occupying a thread. A permit is held until the query is closed, since its connection
+ * stays open while pages are produced, and then handed over to the next queued task of the same datasource.
+ * New tasks are rejected when total number of queued tasks reaches the limit.
+ *
+ * Continuations of started queries run on a bounded pool, so number of threads does not grow with number of open
+ * queries.
+ */
+public class DatasourceLimitedTaskScheduler implements ITaskScheduler {
+
+    @SuppressWarnings("checkstyle:constantname")
+    private static final Logger log = LoggerFactory.getLogger(DatasourceLimitedTaskScheduler.class);
+
+    private static final Object DEFAULT_KEY = new Object();
+    private static final CompletionStage<Void> COMPLETED = CompletableFuture.completedFuture(null);
+    private static final long THREAD_STACK_SIZE = 256 * 1024;
+    private static final long THREAD_KEEP_ALIVE_SEC = 60;
+
+    private final int permitsPerDatasource;
+    private final int maxQueued;
+    private final ThreadPoolExecutor threads;
+    private final ThreadPoolExecutor continuations;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Object, Permits> permits = new HashMap<>();
+    private int queued;
+    private int active;
+    private boolean shutdown;
+
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    public DatasourceLimitedTaskScheduler(String name, int permitsPerDatasource, int maxQueued) {
+        this(name, permitsPerDatasource, maxQueued, AsyncProcessor.DEFAULT_WORKERS);
+    }
+
+    public DatasourceLimitedTaskScheduler(String name, int permitsPerDatasource, int maxQueued,
+                                          int continuationThreads) {
+        if (permitsPerDatasource <= 0) {
+            throw new IllegalArgumentException("Permits per datasource must be positive: " + permitsPerDatasource);
+        }
+        if (continuationThreads <= 0) {
+            throw new IllegalArgumentException("Continuation threads must be positive: " + continuationThreads);
+        }
+        this.permitsPerDatasource = permitsPerDatasource;
+        this.maxQueued = maxQueued;
+        this.threads = new ThreadPoolExecutor(0, Integer.MAX_VALUE, THREAD_KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), threadFactory(name + "-task-"));
+        this.continuations = new ThreadPoolExecutor(continuationThreads, continuationThreads,
+                THREAD_KEEP_ALIVE_SEC, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                threadFactory(name + "-continuation-"));
+        this.continuations.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(null, runnable, prefix + counter.getAndIncrement(), THREAD_STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public Executor executorFor(Object key) {
+        return executorFor(key, COMPLETED);
+    }
+
+    @Override
+    public Executor executorFor(Object key, CompletionStage<?> closed) {
+        Object permitsKey = key == null ? DEFAULT_KEY : key;
+        return command -> submit(permitsKey, command, closed);
+    }
+
+    @Override
+    public Executor continuationExecutor() {
+        return continuations;
+    }
+
+    private void submit(Object key, Runnable command, CompletionStage<?> closed) {
+        Objects.requireNonNull(command);
+        QueuedTask task = new QueuedTask(command, closed, System.currentTimeMillis());
+        Permits keyPermits;
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler is shut down");
+            }
+            keyPermits = permits.computeIfAbsent(key, k -> new Permits());
+            if (keyPermits.acquired >= permitsPerDatasource) {
+                if (queued >= maxQueued) {
+                    rejectedCount.incrementAndGet();
+                    throw new RejectedExecutionException("Too many queued tasks: " + queued);
+                }
+                keyPermits.queue.addLast(task);
+                queued++;
+                return;
+            }
+            keyPermits.acquired++;
+            active++;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            start(key, keyPermits, task);
+        } catch (RejectedExecutionException e) {
+            release(key, keyPermits);
+            throw e;
+        }
+    }
+
+    private void start(Object key, Permits keyPermits, QueuedTask task) {
+        threads.execute(() -> run(key, keyPermits, task));
+    }
+
+    /**
+     * Runs the task holding the permit, which is released only when the query is closed.
+     */
+    private void run(Object key, Permits keyPermits, QueuedTask task) {
+        long waitMillis = System.currentTimeMillis() - task.queuedAt;
+        startedCount.incrementAndGet();
+        totalWaitMillis.addAndGet(waitMillis);
+        maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+        try {
+            task.command.run();
+        } catch (Throwable e) {
+            log.error("Task failed in " + Thread.currentThread().getName(), e);
+        }
+        task.closed.whenComplete((result, e) -> release(key, keyPermits));
+    }
+
+    /**
+     * Hands the permit over to the next queued task of the same datasource, or releases it if there is none.
+     */
+    private void release(Object key, Permits keyPermits) {
+        while (true) {
+            QueuedTask next;
+            lock.lock();
+            try {
+                next = shutdown ? null : keyPermits.queue.pollFirst();
+                if (next == null) {
+                    keyPermits.acquired--;
+                    active--;
+                    if (keyPermits.acquired == 0 && keyPermits.queue.isEmpty()) {
+                        permits.remove(key);
+                    }
+                    return;
+                }
+                queued--;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                start(key, keyPermits, next);
+                return;
+            } catch (RejectedExecutionException e) {
+                log.warn("Queued task is dropped: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            permits.values().forEach(keyPermits -> keyPermits.queue.clear());
+            queued = 0;
+        } finally {
+            lock.unlock();
+        }
+        threads.shutdown();
+        continuations.shutdown();
+    }
+
+    @Override
+    public int getWorkersCount() {
+        return threads.getPoolSize() + continuations.getPoolSize();
+    }
+
+    @Override
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getQueueDepth(Object key) {
+        lock.lock();
+        try {
+            Permits keyPermits = permits.get(key == null ? DEFAULT_KEY : key);
+            return keyPermits == null ? 0 : keyPermits.queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public long getAverageWaitMillis() {
+        long started = startedCount.get();
+        return started == 0 ? 0 : totalWaitMillis.get() / started;
+    }
+
+    @Override
+    public long getMaxWaitMillis() {
+        return maxWaitMillis.get();
+    }
+
+    private static final class Permits {
+        private final Deque<QueuedTask> queue = new ArrayDeque<>();
+        private int acquired;
+    }
+
+    private static final class QueuedTask {
+        private final Runnable command;
+        private final CompletionStage<?> closed;
+        private final long queuedAt;
+
+        private QueuedTask(Runnable command, CompletionStage<?> closed, long queuedAt) {
+            this.command = command;
+            this.closed = closed;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
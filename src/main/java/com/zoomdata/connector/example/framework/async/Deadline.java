@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+/**
+ * Absolute time by which a prepared request has to be done. Work of the request past its deadline is abandoned,
+ * as no client waits for its result anymore.
+ */
+public final class Deadline {
+
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    private final long atMillis;
+
+    private Deadline(long atMillis) {
+        this.atMillis = atMillis;
+    }
+
+    /**
+     * @param timeoutMillis time from now, {@link #NONE} if not positive
+     */
+    public static Deadline after(long timeoutMillis) {
+        return timeoutMillis > 0 ? new Deadline(System.currentTimeMillis() + timeoutMillis) : NONE;
+    }
+
+    public boolean isSet() {
+        return this != NONE;
+    }
+
+    public boolean isExpired() {
+        return isSet() && System.currentTimeMillis() >= atMillis;
+    }
+
+    /**
+     * @return time left, {@link Long#MAX_VALUE} if not set, 0 if expired
+     */
+    public long remainingMillis() {
+        return isSet() ? Math.max(0, atMillis - System.currentTimeMillis()) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the given timeout, shortened to the time left
+     */
+    public long bound(long timeoutMillis) {
+        return Math.min(timeoutMillis, remainingMillis());
+    }
+
+    /**
+     * @param what work which is about to start, used in the message
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public void check(String what) {
+        if (isExpired()) {
+            throw new DeadlineExceededException("Deadline exceeded before " + what);
+        }
+    }
+
+    public long getAtMillis() {
+        return atMillis;
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+/**
+ * Thrown when work of a request is abandoned because its {@link Deadline} has passed.
+ */
+public class DeadlineExceededException extends AsyncException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed size pool of workers with bounded admission queue.
+ *
+ * New tasks are grouped by datasource key and workers take them from datasources in round-robin order,
+ * so a burst of requests to one datasource does not starve others. New tasks submitted when the queue is full
+ * are rejected with {@link RejectedExecutionException}.
+ *
+ * Continuations of already admitted work (building of pages, next batches) are never rejected and are executed
+ * before new tasks, so admitted requests complete and release their connections first.
+ */
+public class FairTaskScheduler implements ITaskScheduler {
+
+    @SuppressWarnings("checkstyle:constantname")
+    private static final Logger log = LoggerFactory.getLogger(FairTaskScheduler.class);
+
+    private static final Object DEFAULT_KEY = new Object();
+
+    private final int maxQueued;
+    private final List<Thread> workers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<Object, Deque<QueuedTask>> queues = new HashMap<>();
+    private final Deque<Object> readyKeys = new ArrayDeque<>();
+    private final Deque<QueuedTask> continuations = new ArrayDeque<>();
+    private int queued;
+    private int active;
+    private boolean shutdown;
+
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    public FairTaskScheduler(String name, int workersCount, int maxQueued) {
+        if (workersCount <= 0) {
+            throw new IllegalArgumentException("Workers count must be positive: " + workersCount);
+        }
+        this.maxQueued = maxQueued;
+        this.workers = new ArrayList<>(workersCount);
+        for (int i = 0; i < workersCount; i++) {
+            Thread worker = new Thread(this::work, name + "-worker-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    @Override
+    public Executor executorFor(Object key) {
+        Object queueKey = key == null ? DEFAULT_KEY : key;
+        return command -> submit(queueKey, command);
+    }
+
+    @Override
+    public Executor continuationExecutor() {
+        return this::submitContinuation;
+    }
+
+    private void submitContinuation(Runnable command) {
+        Objects.requireNonNull(command);
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler is shut down");
+            }
+            continuations.addLast(new QueuedTask(command, System.currentTimeMillis()));
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void submit(Object key, Runnable command) {
+        Objects.requireNonNull(command);
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler is shut down");
+            }
+            if (queued >= maxQueued) {
+                rejectedCount.incrementAndGet();
+                throw new RejectedExecutionException("Too many queued tasks: " + queued);
+            }
+            Deque<QueuedTask> queue = queues.get(key);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(key, queue);
+                readyKeys.addLast(key);
+            }
+            queue.addLast(new QueuedTask(command, System.currentTimeMillis()));
+            queued++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private QueuedTask take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queued == 0 && continuations.isEmpty()) {
+                if (shutdown) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            active++;
+            if (!continuations.isEmpty()) {
+                return continuations.pollFirst();
+            }
+            Object key = readyKeys.pollFirst();
+            Deque<QueuedTask> queue = queues.get(key);
+            QueuedTask task = queue.pollFirst();
+            if (queue.isEmpty()) {
+                queues.remove(key);
+            } else {
+                readyKeys.addLast(key);
+            }
+            queued--;
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        try {
+            QueuedTask task;
+            while ((task = take()) != null) {
+                long waitMillis = System.currentTimeMillis() - task.queuedAt;
+                startedCount.incrementAndGet();
+                totalWaitMillis.addAndGet(waitMillis);
+                maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+                try {
+                    task.command.run();
+                } catch (Throwable e) {
+                    log.error("Task failed in " + Thread.currentThread().getName(), e);
+                } finally {
+                    lock.lock();
+                    try {
+                        active--;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            queues.clear();
+            readyKeys.clear();
+            continuations.clear();
+            queued = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        workers.forEach(Thread::interrupt);
+    }
+
+    @Override
+    public int getWorkersCount() {
+        return workers.size();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getQueueDepth(Object key) {
+        lock.lock();
+        try {
+            Deque<QueuedTask> queue = queues.get(key == null ? DEFAULT_KEY : key);
+            return queue == null ? 0 : queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public long getAverageWaitMillis() {
+        long started = startedCount.get();
+        return started == 0 ? 0 : totalWaitMillis.get() / started;
+    }
+
+    @Override
+    public long getMaxWaitMillis() {
+        return maxWaitMillis.get();
+    }
+
+    private static final class QueuedTask {
+        private final Runnable command;
+        private final long queuedAt;
+
+        private QueuedTask(Runnable command, long queuedAt) {
+            this.command = command;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
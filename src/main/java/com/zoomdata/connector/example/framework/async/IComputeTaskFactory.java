@@ -10,4 +10,11 @@ public interface IComputeTaskFactory {
     String getRawQuery();
 
     int getFetchSize();
+
+    /**
+     * @return key equal for factories executing the same query, <code>null</code> if the query can't be shared
+     */
+    default Object getQueryKey() {
+        return null;
+    }
 }
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Executes compute tasks and page building of queries.
+ */
+public interface ITaskScheduler {
+
+    /**
+     * @param key datasource key, <code>null</code> for unknown datasource
+     * @return executor of new queries of the datasource, it may reject tasks
+     */
+    Executor executorFor(Object key);
+
+    /**
+     * @param key    datasource key, <code>null</code> for unknown datasource
+     * @param closed completed when the query is closed, a scheduler limiting queries per datasource counts
+     *               the query until then instead of until its task returns
+     * @return executor of new queries of the datasource, it may reject tasks
+     */
+    default Executor executorFor(Object key, CompletionStage<?> closed) {
+        return executorFor(key);
+    }
+
+    /**
+     * @return executor for continuations of admitted work, it doesn't reject tasks unless scheduler is shut down
+     */
+    Executor continuationExecutor();
+
+    void shutdown();
+
+    int getWorkersCount();
+
+    int getActiveCount();
+
+    int getQueueDepth();
+
+    int getQueueDepth(Object key);
+
+    long getRejectedCount();
+
+    long getAverageWaitMillis();
+
+    long getMaxWaitMillis();
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel which closes queries idle longer than their idle timeout.
+ *
+ * Touching a query doesn't touch the wheel: when a bucket fires, queries touched since they were scheduled are
+ * moved to the bucket of their new deadline. So the cost of a touch is O(1) and the wheel only visits queries
+ * whose deadline could have passed, instead of scanning all of them.
+ */
+class IdleTimerWheel {
+
+    private final long tickMillis;
+    private final Consumer<ComputeTaskHolder> onExpired;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Entry>[] buckets;
+    private long currentTick;
+
+    /**
+     * @param tickMillis    resolution of the wheel
+     * @param bucketsCount  number of buckets, deadlines further than one revolution wait for their round
+     * @param onExpired     called for queries closed by the wheel and for queries found closed otherwise,
+     *                      so they can be forgotten
+     */
+    @SuppressWarnings("unchecked")
+    IdleTimerWheel(long tickMillis, int bucketsCount, Consumer<ComputeTaskHolder> onExpired) {
+        this.tickMillis = tickMillis;
+        this.onExpired = onExpired;
+        this.buckets = new Deque[bucketsCount];
+        for (int i = 0; i < bucketsCount; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    void schedule(ComputeTaskHolder task) {
+        schedule(task, task.idleDeadline());
+    }
+
+    private void schedule(ComputeTaskHolder task, long deadline) {
+        lock.lock();
+        try {
+            long tick = Math.max(deadline / tickMillis + 1, currentTick + 1);
+            buckets[(int) (tick % buckets.length)].addLast(new Entry(task, tick));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fires all buckets up to current time.
+     */
+    void advance() {
+        long targetTick = System.currentTimeMillis() / tickMillis;
+        while (true) {
+            long tick;
+            Deque<Entry> bucket;
+            lock.lock();
+            try {
+                if (currentTick >= targetTick) {
+                    return;
+                }
+                tick = ++currentTick;
+                int index = (int) (tick % buckets.length);
+                bucket = buckets[index];
+                buckets[index] = new ArrayDeque<>();
+            } finally {
+                lock.unlock();
+            }
+            fire(tick, bucket);
+        }
+    }
+
+    private void fire(long tick, Deque<Entry> bucket) {
+        long now = System.currentTimeMillis();
+        for (Entry entry : bucket) {
+            ComputeTaskHolder task = entry.task;
+            if (task.isClosed()) {
+                onExpired.accept(task);
+                continue;
+            }
+            if (entry.tick > tick) {
+                schedule(task, entry.tick * tickMillis - 1);
+                continue;
+            }
+            long deadline = task.idleDeadline();
+            if (deadline > now) {
+                schedule(task, deadline);
+            } else if (task.checkLostAndClose()) {
+                onExpired.accept(task);
+            } else {
+                schedule(task, now);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final ComputeTaskHolder task;
+        private final long tick;
+
+        private Entry(ComputeTaskHolder task, long tick) {
+            this.task = task;
+            this.tick = tick;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits estimated size of pages built but not yet handed to clients, shared by all queries of a provider.
+ *
+ * Producers of pages are suspended while the budget is exhausted and resumed when bytes are released, they never
+ * wait on a worker. A page is always admitted when nothing is reserved, so a single page larger than the budget
+ * does not stall.
+ */
+public class MemoryBudget {
+
+    public static final MemoryBudget UNLIMITED = new MemoryBudget(Long.MAX_VALUE);
+
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Runnable> waiting = new ArrayList<>();
+    private long usedBytes;
+
+    public MemoryBudget(long maxBytes) {
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+    }
+
+    /**
+     * Reserves the bytes if the budget has room for them.
+     *
+     * @param onRelease run once when any bytes are released, if the bytes don't fit, so the producer can try again
+     * @return <code>false</code> if nothing is reserved
+     */
+    public boolean tryAcquire(long bytes, Runnable onRelease) {
+        lock.lock();
+        try {
+            if (usedBytes > 0 && bytes > maxBytes - usedBytes) {
+                waiting.add(onRelease);
+                return false;
+            }
+            usedBytes += bytes;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        List<Runnable> resumed;
+        lock.lock();
+        try {
+            usedBytes = Math.max(0, usedBytes - bytes);
+            resumed = new ArrayList<>(waiting);
+            waiting.clear();
+        } finally {
+            lock.unlock();
+        }
+        resumed.forEach(Runnable::run);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of producers waiting for the budget
+     */
+    public long getWaitingCount() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
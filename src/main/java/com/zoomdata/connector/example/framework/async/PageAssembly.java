@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import com.zoomdata.gen.edc.request.DataResponse;
+import com.zoomdata.gen.edc.request.ResponseInfo;
+import com.zoomdata.gen.edc.request.ResponseStatus;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Records of a page being read from cursor, published one by one.
+ *
+ * A fetch which timed out takes records assembled so far as a partial page, and the page continues
+ * with the following records. Each record goes either to a partial page or to the finished page.
+ */
+class PageAssembly {
+
+    private final List<ResponseMetadata> metadata;
+    private final ReentrantLock lock = new ReentrantLock();
+    private List<Record> records = new ArrayList<>();
+    private long size;
+    private boolean finished;
+
+    PageAssembly(List<ResponseMetadata> metadata) {
+        this.metadata = metadata;
+    }
+
+    void add(Record record, long recordSize) {
+        lock.lock();
+        try {
+            records.add(record);
+            size += recordSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return records assembled so far as a page with more data, or <code>null</code> if there are no records
+     * or the page is finished
+     */
+    DataPage takePartial() {
+        List<Record> taken;
+        lock.lock();
+        try {
+            if (finished || records.isEmpty()) {
+                return null;
+            }
+            taken = records;
+            records = new ArrayList<>();
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+
+        DataResponse response = new DataResponse();
+        response.setMetadata(metadata);
+        response.setRecords(taken);
+        response.setHasNext(true);
+        response.setResponseInfo(new ResponseInfo(ResponseStatus.SUCCESS, "Partial page"));
+        // partial pages are handed to client directly and are not reserved in memory budget
+        return new DataPage(response, 0);
+    }
+
+    /**
+     * @return records not taken by partial pages, nothing can be taken after that
+     */
+    List<Record> finish() {
+        lock.lock();
+        try {
+            finished = true;
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return estimated size of records not taken by partial pages
+     */
+    long getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
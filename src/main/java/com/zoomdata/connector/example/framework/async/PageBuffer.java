@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of ready pages between a background producer and fetching client.
+ *
+ * The buffer is limited both by number of pages and by estimated size of pages. A page is always accepted
+ * when the buffer is empty, so a single page larger than the byte limit does not stall the producer.
+ * The producer never waits for space: a page which doesn't fit is offered again when the client takes a page.
+ */
+class PageBuffer {
+
+    enum Offer {
+        ADDED, FULL, CLOSED
+    }
+
+    private final int maxPages;
+    private final long maxBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Deque<DataPage> pages = new ArrayDeque<>();
+    private long bytes;
+    private boolean closed;
+    private Throwable failure;
+    private Runnable onSpace;
+
+    PageBuffer(int maxPages, long maxBytes) {
+        this.maxPages = maxPages;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds page to the buffer if it has space for the page.
+     *
+     * @param onSpace run once when the client takes a page or the buffer is closed, if the page doesn't fit
+     * @return {@link Offer#CLOSED} if buffer has been closed and producer should stop
+     */
+    Offer offer(DataPage page, Runnable onSpace) {
+        lock.lock();
+        try {
+            if (closed) {
+                return Offer.CLOSED;
+            }
+            if (!pages.isEmpty() && (pages.size() >= maxPages || page.getSize() > maxBytes - bytes)) {
+                this.onSpace = onSpace;
+                return Offer.FULL;
+            }
+            pages.addLast(page);
+            bytes += page.getSize();
+            notEmpty.signalAll();
+            return Offer.ADDED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    DataPage take(long timeoutMillis) throws InterruptedException, TimeoutException, ExecutionException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        DataPage page;
+        Runnable resume;
+        lock.lock();
+        try {
+            while (pages.isEmpty()) {
+                if (failure != null) {
+                    throw new ExecutionException(failure);
+                }
+                if (closed) {
+                    throw new AsyncException("Page buffer is closed");
+                }
+                if (nanos <= 0) {
+                    throw new TimeoutException();
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            page = pages.removeFirst();
+            bytes -= page.getSize();
+            resume = takeOnSpace();
+        } finally {
+            lock.unlock();
+        }
+        if (resume != null) {
+            resume.run();
+        }
+        return page;
+    }
+
+    void fail(Throwable cause) {
+        lock.lock();
+        try {
+            failure = cause;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        Runnable resume;
+        lock.lock();
+        try {
+            closed = true;
+            pages.clear();
+            bytes = 0;
+            notEmpty.signalAll();
+            resume = takeOnSpace();
+        } finally {
+            lock.unlock();
+        }
+        if (resume != null) {
+            resume.run();
+        }
+    }
+
+    private Runnable takeOnSpace() {
+        Runnable resume = onSpace;
+        onSpace = null;
+        return resume;
+    }
+}
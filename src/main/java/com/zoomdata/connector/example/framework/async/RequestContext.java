@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+/**
+ * Context of a prepared request, which compute tasks of the request are created in.
+ */
+public final class RequestContext {
+
+    private final String requestId;
+    private final RequestLane lane;
+    private final Deadline deadline;
+
+    /**
+     * @param requestId id of the prepared request, may be used to identify its statements on the server
+     * @param lane      lane the request is executed in
+     * @param deadline  time by which the request has to be done, to be applied to connections and statements
+     */
+    public RequestContext(String requestId, RequestLane lane, Deadline deadline) {
+        this.requestId = requestId;
+        this.lane = lane;
+        this.deadline = deadline;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public RequestLane getLane() {
+        return lane;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+}
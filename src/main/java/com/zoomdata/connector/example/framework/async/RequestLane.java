@@ -0,0 +1,21 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+/**
+ * Class of requests with its own workers and connections, so short requests a user waits for never queue
+ * behind bulk reads.
+ */
+public enum RequestLane {
+
+    /**
+     * Metadata, distinct values and stats requests.
+     */
+    INTERACTIVE,
+
+    /**
+     * Raw, aggregated and SQL data reads.
+     */
+    BULK
+}
@@ -0,0 +1,487 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Single execution of a query shared by identical concurrent requests.
+ *
+ * Each request joins with its own factory and gets its own task whose cursor reads the shared buffer of records.
+ * Records are pulled from the underlying cursor in chunks by whichever reader is ahead, reading happens outside
+ * of the main lock, and records are dropped from the buffer once all readers passed them. A request can join
+ * while nothing has been dropped yet, otherwise it executes the query with its own factory.
+ *
+ * The buffer is bounded: readers lagging too far behind the leading one are detached. A detached reader which
+ * hasn't read any record yet executes the query with its own factory. A detached reader which has read records
+ * fails, since another execution may return records in another order and skipping the records already read
+ * would repeat or miss some. The underlying task is closed when the last reader is closed.
+ */
+class SharedExecution {
+
+    /**
+     * Records read by all readers are dropped in chunks to avoid shifting the buffer on every record.
+     */
+    private static final int TRIM_THRESHOLD = 1024;
+
+    /**
+     * Records kept for readers behind the leading one, readers lagging by more than half of it are detached.
+     * Readers of results not larger than it are never detached.
+     */
+    static final int MAX_BUFFERED = 16 * TRIM_THRESHOLD;
+
+    /**
+     * Records moved from the underlying cursor at once, so the main lock is taken once per chunk.
+     */
+    private static final int PULL_CHUNK = 64;
+
+    private final IComputeTaskFactory delegate;
+    private final Deadline deadline;
+    private final Consumer<SharedExecution> onFinished;
+    private volatile boolean joinable = true;
+
+    private final ReentrantLock startLock = new ReentrantLock();
+    private final ReentrantLock pullLock = new ReentrantLock();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Reader> readers = new ArrayList<>();
+    private final List<Record> buffer = new ArrayList<>();
+    private long bufferOffset;
+    private volatile IComputeTask task;
+    private Cursor source;
+    private volatile List<ResponseMetadata> metadata;
+    private RuntimeException failure;
+    private boolean started;
+    private boolean done;
+    private boolean closed;
+
+    /**
+     * @param delegate   factory of the request starting the execution
+     * @param deadline   deadline of the request starting the execution
+     * @param onFinished called when new requests can't join the execution anymore
+     */
+    SharedExecution(IComputeTaskFactory delegate, Deadline deadline, Consumer<SharedExecution> onFinished) {
+        this.delegate = delegate;
+        this.deadline = deadline;
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * @return <code>true</code> if a new request with the deadline can join the execution, the execution
+     * must not be cut by a deadline earlier than the request's one
+     */
+    boolean isJoinable(Deadline requestDeadline) {
+        return joinable && deadline.getAtMillis() >= requestDeadline.getAtMillis();
+    }
+
+    /**
+     * @param own factory of the joining request, used when the request executes the query on its own
+     * @return factory of tasks of the request
+     */
+    IComputeTaskFactory join(IComputeTaskFactory own) {
+        return new IComputeTaskFactory() {
+            @Override
+            public IComputeTask create() {
+                lock.lock();
+                try {
+                    if (!closed && failure == null && bufferOffset == 0) {
+                        Reader reader = new Reader(own);
+                        readers.add(reader);
+                        return reader;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                return own.create();
+            }
+
+            @Override
+            public String getRawQuery() {
+                return own.getRawQuery();
+            }
+
+            @Override
+            public int getFetchSize() {
+                return own.getFetchSize();
+            }
+
+            @Override
+            public Object getQueryKey() {
+                return own.getQueryKey();
+            }
+        };
+    }
+
+    /**
+     * Executes the query once, the main lock is not held while the query executes, so readers can be cancelled.
+     */
+    private void start() {
+        startLock.lock();
+        try {
+            lock.lock();
+            try {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (started) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                IComputeTask created = delegate.create();
+                task = created;
+                Cursor cursor = created.compute();
+                lock.lock();
+                try {
+                    if (closed) {
+                        throw new AsyncException("Shared execution is closed");
+                    }
+                    source = cursor;
+                    metadata = cursor.getMetadata();
+                    started = true;
+                } finally {
+                    lock.unlock();
+                }
+            } catch (RuntimeException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                } finally {
+                    lock.unlock();
+                }
+                closeTask();
+                throw e;
+            }
+        } finally {
+            startLock.unlock();
+        }
+    }
+
+    /**
+     * Moves the next chunk of records of the underlying cursor to the buffer unless records after the position
+     * are already there. Only one reader pulls at a time, and the main lock is held only to append the chunk,
+     * so progress, cancelling and closing don't wait for the database.
+     */
+    private void pull(long position) {
+        pullLock.lock();
+        try {
+            lock.lock();
+            try {
+                if (position < bufferOffset + buffer.size() || done || failure != null || closed) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            List<Record> chunk = new ArrayList<>(PULL_CHUNK);
+            boolean last = false;
+            RuntimeException error = null;
+            try {
+                while (chunk.size() < PULL_CHUNK) {
+                    if (source.hasNext()) {
+                        chunk.add(source.next());
+                    } else if (source.hasNextBatch()) {
+                        source = task.compute();
+                    } else {
+                        last = true;
+                        break;
+                    }
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            }
+
+            lock.lock();
+            try {
+                if (!closed) {
+                    buffer.addAll(chunk);
+                    detachLaggards();
+                    trim();
+                }
+                done = last;
+                if (error != null) {
+                    failure = error;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (last || error != null) {
+                closeTask();
+            }
+        } finally {
+            pullLock.unlock();
+        }
+    }
+
+    /**
+     * Detaches readers lagging behind the end of the full buffer by more than half of it, so the rest of
+     * the buffer can be dropped.
+     */
+    private void detachLaggards() {
+        if (buffer.size() <= MAX_BUFFERED) {
+            return;
+        }
+        long end = bufferOffset + buffer.size();
+        for (Iterator<Reader> iterator = readers.iterator(); iterator.hasNext(); ) {
+            Reader reader = iterator.next();
+            if (end - reader.position > MAX_BUFFERED / 2) {
+                reader.detached = true;
+                iterator.remove();
+            }
+        }
+    }
+
+    private void trim() {
+        long min = bufferOffset + buffer.size();
+        for (Reader reader : readers) {
+            min = Math.min(min, reader.position);
+        }
+        int passed = (int) (min - bufferOffset);
+        if (passed >= TRIM_THRESHOLD || readers.isEmpty() && passed > 0) {
+            buffer.subList(0, passed).clear();
+            bufferOffset += passed;
+            finish();
+        }
+    }
+
+    private void closeTask() {
+        IComputeTask current = task;
+        if (current != null) {
+            current.close();
+        }
+        finish();
+    }
+
+    private void finish() {
+        if (joinable) {
+            joinable = false;
+            onFinished.accept(this);
+        }
+    }
+
+    private void release(Reader reader) {
+        boolean last = false;
+        boolean running = false;
+        lock.lock();
+        try {
+            readers.remove(reader);
+            if (readers.isEmpty() && !closed) {
+                closed = true;
+                buffer.clear();
+                last = true;
+                running = !done && failure == null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (running) {
+            closeTask();
+        } else if (last) {
+            finish();
+        }
+    }
+
+    private final class Reader implements IComputeTask, Cursor {
+
+        private final IComputeTaskFactory own;
+        private long position;
+        private boolean detached;
+        private volatile boolean released;
+        private volatile IComputeTask ownTask;
+        private volatile Cursor ownCursor;
+
+        private Reader(IComputeTaskFactory own) {
+            this.own = own;
+        }
+
+        @Override
+        public Cursor compute() {
+            if (isDetached()) {
+                openOwn();
+            } else {
+                start();
+            }
+            return this;
+        }
+
+        @Override
+        public double progress() {
+            IComputeTask current = ownTask;
+            if (current != null) {
+                return current.progress();
+            }
+            lock.lock();
+            try {
+                if (done) {
+                    return 100;
+                }
+                current = task;
+            } finally {
+                lock.unlock();
+            }
+            return current != null ? current.progress() : 0;
+        }
+
+        /**
+         * Only the last reader cancels the shared execution.
+         */
+        @Override
+        public void cancel() {
+            IComputeTask current = ownTask;
+            if (current == null) {
+                lock.lock();
+                try {
+                    if (readers.size() == 1 && readers.contains(this) && !done) {
+                        current = task;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (released) {
+                return;
+            }
+            released = true;
+            release(this);
+            IComputeTask current = ownTask;
+            if (current != null) {
+                current.close();
+            }
+        }
+
+        @Override
+        public List<ResponseMetadata> getMetadata() {
+            Cursor cursor = ownCursor;
+            return cursor != null ? cursor.getMetadata() : metadata;
+        }
+
+        @Override
+        public boolean hasNextBatch() {
+            return false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (true) {
+                long at;
+                lock.lock();
+                try {
+                    if (detached) {
+                        at = -1;
+                    } else if (position < bufferOffset + buffer.size()) {
+                        return true;
+                    } else if (failure != null) {
+                        throw failure;
+                    } else if (done || closed) {
+                        return false;
+                    } else {
+                        at = position;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (at < 0) {
+                    openOwn();
+                    return hasNextOwn();
+                }
+                pull(at);
+            }
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lock.lock();
+            try {
+                if (!detached) {
+                    Record record = buffer.get((int) (position - bufferOffset));
+                    position++;
+                    trim();
+                    return record;
+                }
+            } finally {
+                lock.unlock();
+            }
+            openOwn();
+            if (!hasNextOwn()) {
+                throw new NoSuchElementException();
+            }
+            return ownCursor.next();
+        }
+
+        @Override
+        public void setFetchSize(int rows) {
+            Cursor cursor = ownCursor;
+            if (cursor != null) {
+                cursor.setFetchSize(rows);
+            }
+        }
+
+        private boolean isDetached() {
+            lock.lock();
+            try {
+                return detached;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Executes the query with the reader's own factory if the reader hasn't read records of the shared one.
+         */
+        private void openOwn() {
+            if (ownCursor != null) {
+                return;
+            }
+            long read;
+            lock.lock();
+            try {
+                read = position;
+            } finally {
+                lock.unlock();
+            }
+            if (read > 0) {
+                throw new AsyncException("Query fell behind the shared execution of an identical query by more than "
+                        + MAX_BUFFERED / 2 + " records after reading " + read + " records");
+            }
+            IComputeTask created = own.create();
+            ownTask = created;
+            if (released) {
+                created.close();
+                throw new AsyncException("Query is closed");
+            }
+            ownCursor = created.compute();
+        }
+
+        private boolean hasNextOwn() {
+            while (!ownCursor.hasNext()) {
+                if (!ownCursor.hasNextBatch()) {
+                    return false;
+                }
+                ownCursor = ownTask.compute();
+            }
+            return true;
+        }
+    }
+}
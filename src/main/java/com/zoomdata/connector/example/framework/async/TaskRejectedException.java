@@ -0,0 +1,14 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+/**
+ * Thrown when a query can't be started because task queue is full. Query stays prepared and may be fetched again.
+ */
+public class TaskRejectedException extends AsyncException {
+
+    public TaskRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
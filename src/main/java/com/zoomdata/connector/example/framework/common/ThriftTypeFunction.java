@@ -8,24 +8,31 @@ import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 
+import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
 import java.time.ZoneOffset;
 
 public interface ThriftTypeFunction {
-    Field apply(ResultSet rs, Integer idx) throws SQLException;
+    /**
+     * Reads value of the column exactly once, NULL is detected by the value itself or by {@link ResultSet#wasNull()}.
+     */
+    Field apply(ResultSet rs, int idx) throws SQLException;
 
     DateTimeFormatter DATE_TIME_FORMATTER = ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC);
 
     // retrieve string value
     ThriftTypeFunction GET_STRING = new ThriftTypeFunction() {
         @Override
-        public Field apply(ResultSet rs, Integer idx) throws SQLException {
-            if (rs.getObject(idx) == null) {
+        public Field apply(ResultSet rs, int idx) throws SQLException {
+            String value = rs.getString(idx);
+            if (value == null) {
                 return new Field().setIsNull(true);
             } else {
                 // TODO encode
-                return new Field().setValue(rs.getString(idx));
+                return new Field().setValue(value);
             }
         }
     };
@@ -33,12 +40,13 @@ public interface ThriftTypeFunction {
     // retrieve integer values
     ThriftTypeFunction GET_INTEGER = new ThriftTypeFunction() {
         @Override
-        public Field apply(ResultSet rs, Integer idx) throws SQLException {
-            if (rs.getObject(idx) == null) {
+        public Field apply(ResultSet rs, int idx) throws SQLException {
+            long value = rs.getLong(idx);
+            if (rs.wasNull()) {
                 return new Field().setIsNull(true);
             } else {
                 // TODO endcode
-                return new Field().setValue("" + rs.getLong(idx));
+                return new Field().setValue(Long.toString(value));
             }
         }
     };
@@ -46,12 +54,13 @@ public interface ThriftTypeFunction {
     // retrieve integer values
     ThriftTypeFunction GET_BOOLEAN = new ThriftTypeFunction() {
         @Override
-        public Field apply(ResultSet rs, Integer idx) throws SQLException {
-            if (rs.getObject(idx) == null) {
+        public Field apply(ResultSet rs, int idx) throws SQLException {
+            String value = rs.getString(idx);
+            if (value == null) {
                 return new Field().setIsNull(true);
             } else {
                 // TODO encode
-                return new Field().setValue(rs.getString(idx));
+                return new Field().setValue(value);
             }
         }
     };
@@ -59,12 +68,13 @@ public interface ThriftTypeFunction {
     // retrieve integer values
     ThriftTypeFunction GET_DOUBLE = new ThriftTypeFunction() {
         @Override
-        public Field apply(ResultSet rs, Integer idx) throws SQLException {
-            if (rs.getObject(idx) == null) {
+        public Field apply(ResultSet rs, int idx) throws SQLException {
+            double value = rs.getDouble(idx);
+            if (rs.wasNull()) {
                 return new Field().setIsNull(true);
             } else {
                 // TODO encode
-                return new Field().setValue("" + rs.getDouble(idx));
+                return new Field().setValue(Double.toString(value));
             }
         }
     };
@@ -72,12 +82,13 @@ public interface ThriftTypeFunction {
     // retrieve integer values
     ThriftTypeFunction GET_DATE = new ThriftTypeFunction() {
         @Override
-        public Field apply(ResultSet rs, Integer idx) throws SQLException {
-            if (rs.getObject(idx) == null) {
+        public Field apply(ResultSet rs, int idx) throws SQLException {
+            Date value = rs.getDate(idx);
+            if (value == null) {
                 return new Field().setIsNull(true);
             } else {
                 // TODO encode
-                return new Field().setValue(DATE_TIME_FORMATTER.print(rs.getDate(idx).getTime()));
+                return new Field().setValue(DATE_TIME_FORMATTER.print(value.getTime()));
             }
         }
     };
@@ -85,12 +96,13 @@ public interface ThriftTypeFunction {
     // retrieve integer values
     ThriftTypeFunction GET_TIMESTAMP = new ThriftTypeFunction() {
         @Override
-        public Field apply(ResultSet rs, Integer idx) throws SQLException {
-            if (rs.getObject(idx) == null) {
+        public Field apply(ResultSet rs, int idx) throws SQLException {
+            Timestamp value = rs.getTimestamp(idx);
+            if (value == null) {
                 return new Field().setIsNull(true);
             } else {
                 // TODO encode
-                long epochMilli = rs.getTimestamp(idx).toLocalDateTime().toInstant(ZoneOffset.UTC).toEpochMilli();
+                long epochMilli = value.toLocalDateTime().toInstant(ZoneOffset.UTC).toEpochMilli();
                 return new Field().setValue(DATE_TIME_FORMATTER.print(epochMilli));
             }
         }
@@ -99,18 +111,19 @@ public interface ThriftTypeFunction {
     // retrieve unknown values as null
     ThriftTypeFunction GET_UNKNOWN = new ThriftTypeFunction() {
         @Override
-        public Field apply(ResultSet rs, Integer idx) throws SQLException {
+        public Field apply(ResultSet rs, int idx) throws SQLException {
                 return new Field().setIsNull(true);
         }
     };
 
     ThriftTypeFunction GET_TIME_AS_STRING = new ThriftTypeFunction() {
         @Override
-        public Field apply(ResultSet rs, Integer idx) throws SQLException {
-            if (rs.getObject(idx) == null) {
+        public Field apply(ResultSet rs, int idx) throws SQLException {
+            Time value = rs.getTime(idx);
+            if (value == null) {
                 return new Field().setIsNull(true);
             } else {
-                return new Field().setValue(rs.getTime(idx).toString());
+                return new Field().setValue(value.toString());
             }
         }
     };
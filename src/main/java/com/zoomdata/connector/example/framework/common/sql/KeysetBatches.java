@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.common.sql;
+
+import com.querydsl.sql.SQLTemplates;
+import com.zoomdata.connector.example.framework.common.PropertiesExtractor;
+import com.zoomdata.gen.edc.filter.Filter;
+import com.zoomdata.gen.edc.request.DataReadRequest;
+import com.zoomdata.gen.edc.request.RawDataRequest;
+import com.zoomdata.gen.edc.request.RequestType;
+import com.zoomdata.gen.edc.request.StructuredRequest;
+import com.zoomdata.gen.edc.request.StructuredRequestType;
+import com.zoomdata.gen.edc.sort.RawSort;
+import com.zoomdata.gen.edc.sort.SortDir;
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.FieldMetadata;
+import com.zoomdata.gen.edc.types.FieldType;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.and;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.eq;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.gt;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.isNull;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.lt;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.not;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.or;
+import static com.zoomdata.connector.example.framework.common.sql.impl.Utils.isCustomSql;
+import static java.util.Optional.ofNullable;
+
+/**
+ * Splits a sorted RAW request into windows of rows following the last row of the previous window:
+ * <code>WHERE (sort columns) &gt; (last seen values) ORDER BY sort columns LIMIT n</code>.
+ *
+ * A unique tiebreaker column is appended to sorts, so windows neither skip nor repeat rows with equal sort values.
+ * Key columns not requested by the client are selected too and stripped from returned records.
+ * Nulls are expected to be sorted last in ascending and first in descending order.
+ */
+public class KeysetBatches {
+
+    private final RawDataRequest rawRequest;
+    private final StructuredRequest structured;
+    private final Optional<String> serverTimeZone;
+    private final Supplier<SQLQueryBuilder> sqlQueryBuilder;
+    private final SQLTemplates templates;
+
+    private final Map<String, FieldMetadata> fieldMetadata;
+    private final List<RawSort> sorts = new ArrayList<>();
+    private final List<String> fields;
+    private final int requestedFields;
+    private final int[] keyIndexes;
+
+    private KeysetBatches(DataReadRequest request, String tiebreaker, Supplier<SQLQueryBuilder> sqlQueryBuilder,
+                          SQLTemplates templates) {
+        this.structured = request.getStructured();
+        this.rawRequest = structured.getRawDataRequest();
+        this.serverTimeZone = PropertiesExtractor.extractServerTimeZone(request.getRequestInfo());
+        this.sqlQueryBuilder = sqlQueryBuilder;
+        this.templates = templates;
+
+        this.fieldMetadata = new HashMap<>(structured.getFieldMetadata());
+        fieldMetadata.putIfAbsent(tiebreaker, new FieldMetadata().setName(tiebreaker).setType(FieldType.STRING));
+
+        ofNullable(rawRequest.getSorts()).ifPresent(sorts::addAll);
+        if (sorts.stream().noneMatch(sort -> tiebreaker.equals(sort.getField()))) {
+            sorts.add(new RawSort(tiebreaker, SortDir.ASC));
+        }
+
+        this.fields = new ArrayList<>(rawRequest.getFields());
+        this.requestedFields = fields.size();
+        this.keyIndexes = new int[sorts.size()];
+        for (int i = 0; i < sorts.size(); i++) {
+            String field = sorts.get(i).getField();
+            int index = fields.indexOf(field);
+            if (index < 0) {
+                index = fields.size();
+                fields.add(field);
+            }
+            keyIndexes[i] = index;
+        }
+    }
+
+    /**
+     * @param tiebreaker unique column of the collection, <code>null</code> if there is none
+     * @return batches of the request, empty if the request can't be split or isn't sorted, since windows
+     * of an unsorted request would be returned in another order than the single query
+     */
+    public static Optional<KeysetBatches> of(DataReadRequest request, String tiebreaker,
+                                             Supplier<SQLQueryBuilder> sqlQueryBuilder, SQLTemplates templates) {
+        if (tiebreaker == null || request.getType() != RequestType.STRUCTURED) {
+            return Optional.empty();
+        }
+        StructuredRequest structured = request.getStructured();
+        if (structured.getType() != StructuredRequestType.RAW || structured.getFieldMetadata() == null) {
+            return Optional.empty();
+        }
+        RawDataRequest rawRequest = structured.getRawDataRequest();
+        if (rawRequest.getFields() == null || rawRequest.getFields().isEmpty()) {
+            return Optional.empty();
+        }
+        List<RawSort> requestSorts = rawRequest.getSorts();
+        if (requestSorts == null || requestSorts.isEmpty()) {
+            return Optional.empty();
+        }
+        boolean typedSorts = requestSorts.stream()
+                .allMatch(sort -> structured.getFieldMetadata().containsKey(sort.getField())
+                        || tiebreaker.equals(sort.getField()));
+        return typedSorts
+                ? Optional.of(new KeysetBatches(request, tiebreaker, sqlQueryBuilder, templates))
+                : Optional.empty();
+    }
+
+    /**
+     * @return limit of the whole request, 0 if not limited
+     */
+    public int getLimit() {
+        return Math.max(0, rawRequest.getLimit());
+    }
+
+    /**
+     * @param lastKey key of the last row of the previous window, <code>null</code> for the first window
+     * @param limit   number of rows in the window
+     * @return query of the window, empty if no rows can follow the last key
+     */
+    public Optional<ParametrizedQuery> query(List<Field> lastKey, int limit) {
+        List<Filter> filters = new ArrayList<>();
+        ofNullable(rawRequest.getFilters()).ifPresent(filters::addAll);
+        if (lastKey != null) {
+            Optional<Filter> after = after(lastKey);
+            if (!after.isPresent()) {
+                return Optional.empty();
+            }
+            filters.add(after.get());
+        }
+
+        return Optional.of(sqlQueryBuilder.get()
+                .init(structured.getCollectionInfo().getSchema(), structured.getCollectionInfo().getCollection(),
+                        isCustomSql(structured.getCollectionInfo()), fieldMetadata)
+                .withFields(fields)
+                .withFilters(filters)
+                .withRawSorts(sorts)
+                .withLimit(limit)
+                .withOffset(lastKey == null ? rawRequest.getOffset() : 0)
+                .withServerTimeZone(serverTimeZone)
+                .build(templates));
+    }
+
+    public List<Field> key(Record record) {
+        List<Field> key = new ArrayList<>(keyIndexes.length);
+        for (int index : keyIndexes) {
+            key.add(record.getRecord().get(index));
+        }
+        return key;
+    }
+
+    public Record strip(Record record) {
+        return fields.size() == requestedFields
+                ? record
+                : new Record(new ArrayList<>(record.getRecord().subList(0, requestedFields)));
+    }
+
+    public List<ResponseMetadata> strip(List<ResponseMetadata> metadata) {
+        return fields.size() == requestedFields ? metadata : new ArrayList<>(metadata.subList(0, requestedFields));
+    }
+
+    /**
+     * (k1 after v1) or (k1 = v1 and k2 after v2) or ...
+     */
+    private Optional<Filter> after(List<Field> lastKey) {
+        List<Filter> alternatives = new ArrayList<>();
+        List<Filter> equalPrefix = new ArrayList<>();
+        for (int i = 0; i < sorts.size(); i++) {
+            RawSort sort = sorts.get(i);
+            String field = sort.getField();
+            FieldType type = fieldMetadata.get(field).getType();
+            Field value = lastKey.get(i);
+            boolean descending = SortDir.DESC == sort.getDirection();
+
+            Filter after;
+            if (value.isIsNull() || value.getValue() == null) {
+                after = descending ? not(isNull(field, type)) : null;
+            } else if (descending) {
+                after = lt(field, value.getValue(), type);
+            } else {
+                after = or(gt(field, value.getValue(), type), isNull(field, type));
+            }
+            if (after != null) {
+                List<Filter> alternative = new ArrayList<>(equalPrefix);
+                alternative.add(after);
+                alternatives.add(alternative.size() == 1 ? after : and(alternative));
+            }
+
+            equalPrefix.add(value.isIsNull() || value.getValue() == null
+                    ? isNull(field, type)
+                    : eq(field, value.getValue(), type));
+        }
+
+        if (alternatives.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(alternatives.size() == 1 ? alternatives.get(0) : or(alternatives));
+    }
+}
@@ -0,0 +1,435 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.common.sql;
+
+import com.google.common.collect.ImmutableList;
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.SQLTemplates;
+import com.zoomdata.connector.example.common.utils.ThriftUtils;
+import com.zoomdata.connector.example.framework.common.PropertiesExtractor;
+import com.zoomdata.connector.example.framework.common.sql.filter.type.BindingFilterTypeService;
+import com.zoomdata.connector.example.framework.common.sql.impl.DefaultSQLQueryBuilder;
+import com.zoomdata.gen.edc.filter.Filter;
+import com.zoomdata.gen.edc.request.DataReadRequest;
+import com.zoomdata.gen.edc.request.RequestType;
+import com.zoomdata.gen.edc.request.StructuredRequest;
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.FieldType;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * Cache of SQL built for structured requests, keyed by the shape of the request: the request with values of
+ * filters removed. Dashboards send requests of the same shapes over and over with only filter values changing,
+ * so on a hit SQL is assembled from the cached plan and the literals of the new values, without running
+ * the query builder. Values bound as parameters are put into the cached bindings, the SQL is reused as is.
+ *
+ * A plan is compiled on a miss by building the request once more with a unique sentinel in place of every filter
+ * value and locating the sentinels in the bindings or their literals in the SQL. The plan is kept only if
+ * it reproduces the query built for the actual request, otherwise the shape is remembered as not cacheable
+ * and always built.
+ */
+public class SQLPlanCache {
+
+    @SuppressWarnings("checkstyle:constantname")
+    private static final Logger log = LoggerFactory.getLogger(SQLPlanCache.class);
+
+    private static final Plan NOT_CACHEABLE = new Plan(null, null, null, null, null, null);
+    private static final long SENTINEL_NUMBER = 7_391_730_000_000L;
+    private static final long SENTINEL_TIME_MILLIS = 6_943_939_200_739L;
+    private static final DateTimeFormatter SENTINEL_TIME_FORMATTER =
+            ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC);
+
+    private final int maxEntries;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Object, Plan> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong notCacheable = new AtomicLong();
+
+    /**
+     * @param maxEntries number of cached shapes, least recently used shapes are evicted above it, 0 disables caching
+     */
+    public SQLPlanCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public ParametrizedQuery transform(DataReadRequest request, Supplier<SQLQueryBuilder> sqlQueryBuilder,
+                                       SQLTemplates templates) {
+        return transform(request, null, sqlQueryBuilder, templates);
+    }
+
+    /**
+     * @param variant variant of the builder which makes different SQL for the same request, a part of the key
+     */
+    public ParametrizedQuery transform(DataReadRequest request, Object variant,
+                                       Supplier<SQLQueryBuilder> sqlQueryBuilder, SQLTemplates templates) {
+        if (maxEntries <= 0 || request.getType() != RequestType.STRUCTURED) {
+            return StructuredToSQLTransformer.transform(request, sqlQueryBuilder.get(), templates);
+        }
+
+        StructuredRequest shape = request.getStructured().deepCopy();
+        List<Slot> shapeSlots = slots(shape);
+        List<Field> values = new ArrayList<>(shapeSlots.size());
+        for (Slot slot : shapeSlots) {
+            values.add(slot.field.deepCopy());
+            slot.field.setValue(null);
+        }
+        Object key = Arrays.asList(shape, PropertiesExtractor.extractServerTimeZone(request.getRequestInfo()),
+                variant);
+
+        Plan plan = get(key);
+        if (plan != null && plan != NOT_CACHEABLE) {
+            try {
+                ParametrizedQuery query = plan.bind(values);
+                hits.incrementAndGet();
+                return query;
+            } catch (RuntimeException e) {
+                // a value which doesn't convert to its type, the builder reports it
+            }
+        }
+        if (plan == NOT_CACHEABLE) {
+            notCacheable.incrementAndGet();
+            return StructuredToSQLTransformer.transform(request, sqlQueryBuilder.get(), templates);
+        }
+
+        misses.incrementAndGet();
+        // copied before the build, which may add filters to the request
+        DataReadRequest probe = plan == null ? request.deepCopy() : null;
+        ParametrizedQuery query = StructuredToSQLTransformer.transform(request, sqlQueryBuilder.get(), templates);
+        if (probe != null) {
+            put(key, compile(probe, values, query, sqlQueryBuilder, templates));
+        }
+        return query;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return requests of shapes whose SQL can't be assembled from a plan
+     */
+    public long getNotCacheable() {
+        return notCacheable.get();
+    }
+
+    public int getEntriesCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Plan get(Object key) {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(Object key, Plan plan) {
+        lock.lock();
+        try {
+            entries.put(key, plan);
+            if (entries.size() > maxEntries) {
+                entries.remove(entries.keySet().iterator().next());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param probe copy of the request, its filter values are replaced by sentinels
+     * @param query SQL built for the request
+     */
+    private static Plan compile(DataReadRequest probe, List<Field> values, ParametrizedQuery query,
+                                Supplier<SQLQueryBuilder> sqlQueryBuilder, SQLTemplates templates) {
+        try {
+            List<Slot> slots = slots(probe.getStructured());
+            Configuration configuration = DefaultSQLQueryBuilder.literalConfiguration(templates);
+            List<String> literals = new ArrayList<>(slots.size());
+            List<Object> bindings = new ArrayList<>(slots.size());
+            for (int i = 0; i < slots.size(); i++) {
+                Slot slot = slots.get(i);
+                String sentinel = sentinel(slot.type, i);
+                if (sentinel == null) {
+                    return NOT_CACHEABLE;
+                }
+                slot.field.setValue(sentinel);
+                Object value = convert(slot.type, slot.field);
+                literals.add(configuration.asLiteral(value));
+                bindings.add(BindingFilterTypeService.jdbcValue(value));
+            }
+
+            ParametrizedQuery probeQuery = StructuredToSQLTransformer.transform(probe, sqlQueryBuilder.get(),
+                    templates);
+            String sql = probeQuery.getSql();
+            List<Object> parameters = probeQuery.getParameters();
+
+            int[] parameterIndexes = new int[slots.size()];
+            List<int[]> positions = new ArrayList<>(slots.size());
+            for (int i = 0; i < slots.size(); i++) {
+                parameterIndexes[i] = parameters.indexOf(bindings.get(i));
+                if (parameterIndexes[i] >= 0) {
+                    if (parameters.lastIndexOf(bindings.get(i)) != parameterIndexes[i]) {
+                        return NOT_CACHEABLE;
+                    }
+                    continue;
+                }
+                int position = locate(sql, literals.get(i));
+                if (position < 0) {
+                    return NOT_CACHEABLE;
+                }
+                positions.add(new int[] {position, i});
+            }
+            positions.sort(Comparator.comparingInt(position -> position[0]));
+
+            String[] segments = new String[positions.size() + 1];
+            int[] order = new int[positions.size()];
+            FieldType[] types = new FieldType[slots.size()];
+            int start = 0;
+            for (int i = 0; i < positions.size(); i++) {
+                int[] position = positions.get(i);
+                segments[i] = sql.substring(start, position[0]);
+                order[i] = position[1];
+                start = position[0] + literals.get(position[1]).length();
+            }
+            segments[positions.size()] = sql.substring(start);
+            for (int i = 0; i < slots.size(); i++) {
+                types[i] = slots.get(i).type;
+            }
+
+            Plan plan = new Plan(configuration, segments, order, types, parameterIndexes, parameters);
+            ParametrizedQuery planned = plan.bind(values);
+            return query.getSql().equals(planned.getSql())
+                    && Objects.equals(query.getParameters(), planned.getParameters()) ? plan : NOT_CACHEABLE;
+        } catch (RuntimeException e) {
+            log.debug("SQL plan of the request can't be compiled", e);
+            return NOT_CACHEABLE;
+        }
+    }
+
+    /**
+     * @return position of the only occurrence of the literal, which isn't a part of a longer token,
+     * or -1 if there is no such single occurrence
+     */
+    private static int locate(String sql, String literal) {
+        int found = -1;
+        int from = 0;
+        while (true) {
+            int position = sql.indexOf(literal, from);
+            if (position < 0) {
+                return found;
+            }
+            boolean token = (position == 0 || !isTokenChar(sql.charAt(position - 1)) || !isTokenChar(literal.charAt(0)))
+                    && (position + literal.length() == sql.length()
+                    || !isTokenChar(sql.charAt(position + literal.length()))
+                    || !isTokenChar(literal.charAt(literal.length() - 1)));
+            if (token) {
+                if (found >= 0) {
+                    return -1;
+                }
+                found = position;
+            }
+            from = position + 1;
+        }
+    }
+
+    private static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+
+    private static String sentinel(FieldType type, int index) {
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case INTEGER:
+                return String.valueOf(SENTINEL_NUMBER + index);
+            case DOUBLE:
+                return String.valueOf(SENTINEL_NUMBER + index + 0.5);
+            case STRING:
+                return "zd_plan_slot_" + index + "_" + SENTINEL_NUMBER;
+            case DATE:
+                return SENTINEL_TIME_FORMATTER.print(SENTINEL_TIME_MILLIS + index * 1000L);
+            default:
+                return null;
+        }
+    }
+
+    private static Object convert(FieldType type, Field field) {
+        switch (type) {
+            case INTEGER:
+                return ThriftUtils.getInteger(field);
+            case DOUBLE:
+                return ThriftUtils.getDouble(field);
+            case STRING:
+                return ThriftUtils.getString(field);
+            case DATE:
+                return ThriftUtils.getDateTime(field);
+            default:
+                throw new IllegalArgumentException("Unsupported type of filter value: " + type);
+        }
+    }
+
+    /**
+     * Values of comparison, contains and in filters, in the order of traversal of the request.
+     */
+    private static List<Slot> slots(StructuredRequest structured) {
+        List<Slot> slots = new ArrayList<>();
+        switch (structured.getType()) {
+            case RAW:
+                ofNullable(structured.getRawDataRequest().getFilters()).ifPresent(filters -> slots(filters, slots));
+                break;
+            case AGG:
+                ofNullable(structured.getAggDataRequest().getFilters()).ifPresent(filters -> slots(filters, slots));
+                break;
+            case DISTINCT_VALUES:
+                ofNullable(structured.getDistinctValuesRequest().getFilters())
+                        .ifPresent(filters -> slots(filters, slots));
+                break;
+            default:
+                break;
+        }
+        return slots;
+    }
+
+    private static void slots(List<Filter> filters, List<Slot> slots) {
+        for (Filter filter : filters) {
+            slots(filter, slots);
+        }
+    }
+
+    private static void slots(Filter filter, List<Slot> slots) {
+        if (filter == null || filter.getType() == null) {
+            return;
+        }
+        switch (filter.getType()) {
+            case AND:
+                slots(filter.getFilterAND().getFilters(), slots);
+                break;
+            case OR:
+                slots(filter.getFilterOR().getFilters(), slots);
+                break;
+            case NOT:
+                slots(filter.getFilterNOT().getFilter(), slots);
+                break;
+            case EQ:
+                slot(filter.getFilterEQ().getType(), filter.getFilterEQ().getValue(), slots);
+                break;
+            case EQI:
+                slot(filter.getFilterEQI().getType(), filter.getFilterEQI().getValue(), slots);
+                break;
+            case GE:
+                slot(filter.getFilterGE().getType(), filter.getFilterGE().getValue(), slots);
+                break;
+            case GT:
+                slot(filter.getFilterGT().getType(), filter.getFilterGT().getValue(), slots);
+                break;
+            case LE:
+                slot(filter.getFilterLE().getType(), filter.getFilterLE().getValue(), slots);
+                break;
+            case LT:
+                slot(filter.getFilterLT().getType(), filter.getFilterLT().getValue(), slots);
+                break;
+            case CONTAINS:
+                slot(FieldType.STRING, filter.getFilterCONTAINS().getValue(), slots);
+                break;
+            case IN:
+                for (Field value : filter.getFilterIN().getValues()) {
+                    slot(filter.getFilterIN().getType(), value, slots);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Null values stay a part of the shape, as they may be built differently.
+     */
+    private static void slot(FieldType type, Field field, List<Slot> slots) {
+        if (field != null && !field.isIsNull() && field.getValue() != null) {
+            slots.add(new Slot(type, field));
+        }
+    }
+
+    private static final class Slot {
+        private final FieldType type;
+        private final Field field;
+
+        private Slot(FieldType type, Field field) {
+            this.type = type;
+            this.field = field;
+        }
+    }
+
+    /**
+     * SQL split by literals of filter values, which are placed between segments in the order of the SQL,
+     * and bindings with indexes of filter values bound as parameters.
+     */
+    private static final class Plan {
+        private final Configuration configuration;
+        private final String[] segments;
+        private final int[] order;
+        private final FieldType[] types;
+        // index of the value of a slot in parameters, -1 if the value is a literal
+        private final int[] parameterIndexes;
+        private final List<Object> parameters;
+
+        private Plan(Configuration configuration, String[] segments, int[] order, FieldType[] types,
+                     int[] parameterIndexes, List<Object> parameters) {
+            this.configuration = configuration;
+            this.segments = segments;
+            this.order = order;
+            this.types = types;
+            this.parameterIndexes = parameterIndexes;
+            this.parameters = parameters;
+        }
+
+        private ParametrizedQuery bind(List<Field> values) {
+            StringBuilder sql = new StringBuilder(segments[0]);
+            for (int i = 0; i < order.length; i++) {
+                int slot = order[i];
+                sql.append(configuration.asLiteral(convert(types[slot], values.get(slot))));
+                sql.append(segments[i + 1]);
+            }
+            Object[] bindings = parameters.toArray();
+            for (int slot = 0; slot < parameterIndexes.length; slot++) {
+                if (parameterIndexes[slot] >= 0) {
+                    bindings[parameterIndexes[slot]] =
+                            BindingFilterTypeService.jdbcValue(convert(types[slot], values.get(slot)));
+                }
+            }
+            return new ParametrizedQuery(sql.toString(), ImmutableList.copyOf(bindings));
+        }
+    }
+}
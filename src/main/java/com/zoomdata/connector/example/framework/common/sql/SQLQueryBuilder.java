@@ -57,6 +57,11 @@ public interface SQLQueryBuilder {
 
     SQLQueryBuilder withServerTimeZone(Optional<String> serverTimeZone);
 
+    /**
+     * @param bindParameters put filter values into the query as bind parameters instead of literals
+     */
+    SQLQueryBuilder withBindParameters(boolean bindParameters);
+
     SQLQueryBuilder distinct();
 
     SQLQueryBuilder distinct(boolean distinct);
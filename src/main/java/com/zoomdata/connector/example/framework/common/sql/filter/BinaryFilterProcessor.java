@@ -17,8 +17,6 @@ import com.zoomdata.gen.edc.types.FieldMetadata;
 
 import java.util.Map;
 
-import static com.querydsl.core.types.dsl.Expressions.constant;
-
 public abstract class BinaryFilterProcessor extends AbstractFilterProcessor {
 
     public BinaryFilterProcessor(Path<?> table, Map<String, FieldMetadata> metadata,
@@ -32,9 +30,9 @@ public abstract class BinaryFilterProcessor extends AbstractFilterProcessor {
         FieldMetadata fieldMetadata = getFieldMetadata(path);
         NumberPath numberPath = getFilterTypeService().getIntegerTypeResolver()
             .buildPath(getTable(), path, fieldMetadata);
-        Expression constant = constant(getFilterTypeService().getIntegerTypeResolver()
+        Expression value = getFilterTypeService().value(getFilterTypeService().getIntegerTypeResolver()
             .extract(extractValue(filter), fieldMetadata));
-        return processInteger(numberPath, constant);
+        return processInteger(numberPath, value);
     }
 
     @Override
@@ -43,9 +41,9 @@ public abstract class BinaryFilterProcessor extends AbstractFilterProcessor {
         FieldMetadata fieldMetadata = getFieldMetadata(path);
         NumberPath numberPath = getFilterTypeService().getDoubleTypeResolver()
             .buildPath(getTable(), path, fieldMetadata);
-        Expression constant = constant(getFilterTypeService().getDoubleTypeResolver()
+        Expression value = getFilterTypeService().value(getFilterTypeService().getDoubleTypeResolver()
             .extract(extractValue(filter), fieldMetadata));
-        return processDouble(numberPath, constant);
+        return processDouble(numberPath, value);
     }
 
     @Override
@@ -54,9 +52,9 @@ public abstract class BinaryFilterProcessor extends AbstractFilterProcessor {
         FieldMetadata fieldMetadata = getFieldMetadata(path);
         StringPath stringPath = getFilterTypeService().getStringTypeResolver()
             .buildPath(getTable(), path, fieldMetadata);
-            Expression constant = constant(getFilterTypeService().getStringTypeResolver()
+            Expression value = getFilterTypeService().value(getFilterTypeService().getStringTypeResolver()
                 .extract(extractValue(filter), fieldMetadata));
-        return processString(stringPath, constant);
+        return processString(stringPath, value);
     }
 
     @Override
@@ -65,9 +63,9 @@ public abstract class BinaryFilterProcessor extends AbstractFilterProcessor {
         FieldMetadata fieldMetadata = getFieldMetadata(path);
         DateTimePath dateTimePath = getFilterTypeService().getDateTypeResolver()
             .buildPath(getTable(), path, fieldMetadata);
-        Expression constant = constant(getFilterTypeService().getDateTypeResolver()
+        Expression value = getFilterTypeService().value(getFilterTypeService().getDateTypeResolver()
             .extract(extractValue(filter), fieldMetadata));
-        return processDate(dateTimePath, constant);
+        return processDate(dateTimePath, value);
     }
 
     protected abstract String extractPath(Filter filter);
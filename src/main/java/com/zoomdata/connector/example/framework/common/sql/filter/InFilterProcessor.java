@@ -42,21 +42,22 @@ public class InFilterProcessor extends VararyFilterProcessor {
 
     @Override
     protected BooleanExpression processInteger(NumberPath numberPath, List<Object> values) {
-        return numberPath.in(values);
+        return getFilterTypeService().in(numberPath, values);
     }
 
     @Override
     protected BooleanExpression processDouble(NumberPath numberPath, List<Object> values) {
-        return numberPath.in(values);
+        return getFilterTypeService().in(numberPath, values);
     }
 
     @Override
     protected BooleanExpression processString(StringPath stringPath, List<Object> values) {
-        return stringPath.in(values.stream().map(Object::toString).collect(Collectors.toList()));
+        return getFilterTypeService().in(stringPath,
+                values.stream().map(Object::toString).collect(Collectors.toList()));
     }
 
     @Override
     protected BooleanExpression processDate(DateTimePath dateTimePath, List<Object> values) {
-        return dateTimePath.in(values);
+        return getFilterTypeService().in(dateTimePath, values);
     }
 }
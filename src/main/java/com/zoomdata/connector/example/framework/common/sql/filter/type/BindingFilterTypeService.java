@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.common.sql.filter.type;
+
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Param;
+import com.querydsl.core.types.dsl.SimpleExpression;
+import com.querydsl.sql.SQLQuery;
+import org.joda.time.DateTime;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Puts filter values into the query as bind parameters instead of literals, so queries differing only
+ * in filter values have the same SQL and reuse statements parsed by the server and pooled by the connector.
+ *
+ * Parameters of processed filters are collected and set to the query by {@link #bind(SQLQuery)}.
+ */
+public class BindingFilterTypeService extends DefaultFilterTypeService {
+
+    private final Map<Param<?>, Object> parameters = new LinkedHashMap<>();
+
+    @Override
+    public Expression<?> value(Object value) {
+        Param<Object> param = new Param<>(value.getClass());
+        parameters.put(param, jdbcValue(value));
+        return param;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public BooleanExpression in(SimpleExpression path, Collection<?> values) {
+        if (values.isEmpty()) {
+            return super.in(path, values);
+        }
+        Expression[] params = values.stream().map(this::value).toArray(Expression[]::new);
+        // a single expression isn't wrapped into a list by QueryDSL
+        return params.length == 1 ? path.eq(params[0]) : path.in(params);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void bind(SQLQuery<?> query) {
+        parameters.forEach((param, value) -> query.set((Param<Object>) param, value));
+    }
+
+    /**
+     * @return value as it is bound to a statement, dates become timestamps
+     */
+    public static Object jdbcValue(Object value) {
+        if (value instanceof DateTime) {
+            return new Timestamp(((DateTime) value).getMillis());
+        }
+        if (value instanceof Date && !(value instanceof Timestamp)) {
+            return new Timestamp(((Date) value).getTime());
+        }
+        return value;
+    }
+}
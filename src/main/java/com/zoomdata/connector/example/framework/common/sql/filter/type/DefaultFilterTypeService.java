@@ -3,6 +3,13 @@
  */
 package com.zoomdata.connector.example.framework.common.sql.filter.type;
 
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.SimpleExpression;
+
+import java.util.Collection;
+
 public class DefaultFilterTypeService implements FilterTypeService {
 
     private final DoubleFilterTypeResolver doubleFilterTypeResolver = new DoubleFilterTypeResolver();
@@ -29,4 +36,15 @@ public class DefaultFilterTypeService implements FilterTypeService {
     public FilterTypeResolver getDateTypeResolver() {
         return dateFilterTypeResolver;
     }
+
+    @Override
+    public Expression<?> value(Object value) {
+        return Expressions.constant(value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public BooleanExpression in(SimpleExpression path, Collection<?> values) {
+        return path.in(values);
+    }
 }
@@ -3,10 +3,15 @@
  */
 package com.zoomdata.connector.example.framework.common.sql.filter.type;
 
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.BooleanExpression;
 import com.querydsl.core.types.dsl.DateTimePath;
 import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.SimpleExpression;
 import com.querydsl.core.types.dsl.StringPath;
 
+import java.util.Collection;
+
 public interface FilterTypeService {
 
     <T extends Number & Comparable<?>> FilterTypeResolver<T, NumberPath<T>> getIntegerTypeResolver();
@@ -14,4 +19,16 @@ public interface FilterTypeService {
     FilterTypeResolver<String, StringPath> getStringTypeResolver();
     <T extends Comparable> FilterTypeResolver<T, DateTimePath<T>> getDateTypeResolver();
 
+    /**
+     * @param value extracted value of a filter
+     * @return expression of the value in the query
+     */
+    Expression<?> value(Object value);
+
+    /**
+     * @param values extracted values of a filter
+     * @return predicate of the path being one of the values
+     */
+    BooleanExpression in(SimpleExpression path, Collection<?> values);
+
 }
@@ -29,6 +29,7 @@ import com.zoomdata.connector.example.framework.common.sql.ParametrizedQuery;
 import com.zoomdata.connector.example.framework.common.sql.RawSortsProcessor;
 import com.zoomdata.connector.example.framework.common.sql.SQLQueryBuilder;
 import com.zoomdata.connector.example.framework.common.sql.StatsProcessor;
+import com.zoomdata.connector.example.framework.common.sql.filter.type.BindingFilterTypeService;
 import com.zoomdata.connector.example.framework.common.sql.filter.type.DefaultFilterTypeService;
 import com.zoomdata.connector.example.framework.common.sql.filter.type.FilterTypeService;
 import com.zoomdata.connector.example.framework.common.sql.types.DateTimeWithMillisPrecision;
@@ -85,6 +86,9 @@ public class DefaultSQLQueryBuilder implements SQLQueryBuilder {
 
     protected Optional<String> serverTimeZone = Optional.empty();
 
+    // parameters of filters, null if filter values are literals
+    protected BindingFilterTypeService bindings;
+
     @Override
     public SQLQueryBuilder init(String schemaName, String tableName, Boolean isCustomSql,
                                 Map<String, FieldMetadata> fieldMetadata) {
@@ -143,10 +147,7 @@ public class DefaultSQLQueryBuilder implements SQLQueryBuilder {
         }
 
 
-        Configuration config = new Configuration(templates);
-        config.register(new DateTimeWithMillisPrecision());
-        config.setUseLiterals(true);
-        SQLQuery sqlQuery = new SQLQuery(config);
+        SQLQuery sqlQuery = new SQLQuery(literalConfiguration(templates));
 
         Expression[] select = Utils.combineLists(
                 groupsProcessor.getExpressionsForSelect(),
@@ -156,7 +157,7 @@ public class DefaultSQLQueryBuilder implements SQLQueryBuilder {
         );
 
         sqlQuery.select(select);
-        if (useSubSelectForPercentiles()) {
+        if (useSubSelect()) {
             sqlQuery.from(
                     createPercentileSubSelect(templates, metricProcessor, groupsProcessor),
                     stringPath(TABLE_ALIAS)
@@ -201,6 +202,10 @@ public class DefaultSQLQueryBuilder implements SQLQueryBuilder {
             sqlQuery.distinct();
         }
 
+        if (bindings != null) {
+            bindings.bind(sqlQuery);
+        }
+
         SQLBindings sqlBindings = sqlQuery.getSQL();
 
         String sql = sqlBindings.getSQL();
@@ -210,10 +215,27 @@ public class DefaultSQLQueryBuilder implements SQLQueryBuilder {
         return new ParametrizedQuery(sql, params);
     }
 
+    /**
+     * @return configuration which renders constants of the query as literals
+     */
+    public static Configuration literalConfiguration(SQLTemplates templates) {
+        Configuration config = new Configuration(templates);
+        config.register(new DateTimeWithMillisPrecision());
+        config.setUseLiterals(true);
+        return config;
+    }
+
     protected long getSqlLimit(Integer limit) {
         return limit.longValue();
     }
 
+    /**
+     * @return whether metrics are computed over a subselect with window functions instead of the table
+     */
+    protected boolean useSubSelect() {
+        return useSubSelectForPercentiles();
+    }
+
     protected boolean useSubSelectForPercentiles() {
         return ofNullable(thriftMetrics)
                 .map(list -> !list.isEmpty() && list.stream().anyMatch(Metric::isSetPercentile))
@@ -244,33 +266,46 @@ public class DefaultSQLQueryBuilder implements SQLQueryBuilder {
                         .map(AliasedComparableExpressionBase::withoutAlias)
                         .toArray(Expression<?>[]::new);
 
+        Stream<Expression<?>> fieldPaths = Stream.concat(
+                getMetricFieldNames(),
+                getGroupFieldNames()
+        ).distinct().map(Expressions::stringPath);
+
+        return Stream.concat(fieldPaths, createSubSelectWindows(metricsProcessor, groupByExpressions));
+    }
+
+    /**
+     * @param partitionBy group by expressions of the query
+     * @return window functions selected by the subselect along with fields of metrics and groups
+     */
+    protected Stream<Expression<?>> createSubSelectWindows(MetricsProcessor metricsProcessor,
+                                                           Expression<?>[] partitionBy) {
+        if (!useSubSelectForPercentiles()) {
+            return Stream.empty();
+        }
         Stream<Expression<?>> rowNumberExpressions = getPercentileFieldNames()
                 .map(fieldName -> SQLExpressions.rowNumber().over()
-                        .partitionBy(groupByExpressions)
+                        .partitionBy(partitionBy)
                         .orderBy(stringPath(fieldName))
                         .as(metricsProcessor.createPercentileRowNumberAliasName(fieldName))
                 );
         Expression<?> countExpression = SQLExpressions.count().over()
-                .partitionBy(groupByExpressions)
+                .partitionBy(partitionBy)
                 .as(DefaultMetricsProcessor.ALIAS_NAME_TTLCNT);
 
-        Stream<Expression<?>> fieldPaths = Stream.concat(
-                getMetricFieldNames(),
-                getGroupFieldNames()
-        ).distinct().map(Expressions::stringPath);
-
-        Stream<Expression<?>> windowFunctions = Stream.concat(
+        return Stream.concat(
                 rowNumberExpressions,
                 Stream.of(countExpression)
         );
-
-        return Stream.concat(fieldPaths, windowFunctions);
     }
 
     private Predicate createPercentileSubSelectPredicate() {
+        Stream<String> percentileFieldNames = useSubSelectForPercentiles()
+                ? getPercentileFieldNames()
+                : Stream.empty();
         List<Filter> filters = Stream.concat(
                 streamOfNullable(thriftFilters),
-                getPercentileFieldNames().map(this::createNotNullFilter)
+                percentileFieldNames.map(this::createNotNullFilter)
         ).collect(toList());
         return createFiltersProcessor(fromClause.getPath()).process(filters);
     }
@@ -420,6 +455,12 @@ public class DefaultSQLQueryBuilder implements SQLQueryBuilder {
         return this;
     }
 
+    @Override
+    public SQLQueryBuilder withBindParameters(boolean bindParameters) {
+        this.bindings = bindParameters ? new BindingFilterTypeService() : null;
+        return this;
+    }
+
     // TODO create separate factory class for this purpose
     @Override
     public FieldsProcessor createFieldsProcessor() {
@@ -458,7 +499,7 @@ public class DefaultSQLQueryBuilder implements SQLQueryBuilder {
     }
 
     protected FilterTypeService createFilterTypeService() {
-        return new DefaultFilterTypeService();
+        return bindings != null ? bindings : new DefaultFilterTypeService();
     }
 
 }
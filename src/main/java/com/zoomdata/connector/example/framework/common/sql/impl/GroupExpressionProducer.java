@@ -7,6 +7,7 @@ import com.google.common.base.Supplier;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.dsl.CaseBuilder;
 import com.querydsl.core.types.dsl.ComparableExpressionBase;
+import com.querydsl.core.types.dsl.NumberExpression;
 import com.querydsl.core.types.dsl.NumberPath;
 import com.querydsl.core.types.dsl.NumberTemplate;
 import com.querydsl.core.types.dsl.StringExpression;
@@ -51,6 +52,10 @@ public final class GroupExpressionProducer implements IGroupExpressionProducer {
     public static final String HISTOGRAM_GROUP_FIELD_ALIAS_PREFIX_WHICH_STARTS_WITH_LETTER = "hg_";
     public static final String TIME_GROUP_FIELD_ALIAS_PREFIX_WHICH_STARTS_WITH_LETTER = "tg_";
 
+    // Powers of ten and integers below 2^53 are exact doubles, so their quotient is the double nearest to the decimal
+    private static final int MAX_EXACT_HISTOGRAM_SCALE = 15;
+    private static final BigDecimal MAX_EXACT_HISTOGRAM_BOUND = BigDecimal.valueOf(1L << 53);
+
     private Path<?> table;
     private List<Group> thriftGroups;
     private Map<Group, AliasedComparableExpressionBase> groupExpressions;
@@ -60,6 +65,7 @@ public final class GroupExpressionProducer implements IGroupExpressionProducer {
 
     private boolean useAliasInsteadOfOriginalExpressionInGroupByClause = true;
     private boolean useAliasInsteadOfOriginalExpressionInOrderByClause = true;
+    private boolean useArithmeticHistogram = false;
 
     private IAliasGenerator aliasGenerator;
     private Supplier<AliasGenerator> aliasGeneratorSupplier = () -> AliasGenerator.newAliasGenerator().build();
@@ -78,6 +84,15 @@ public final class GroupExpressionProducer implements IGroupExpressionProducer {
         return this;
     }
 
+    /**
+     * Histogram groups are selected as bucket indexes computed arithmetically instead of a CASE branch per bucket,
+     * indexes are expected to be replaced by {@link #getHistogramBucketLabels(HistogramGroup)} on decoding.
+     */
+    public GroupExpressionProducer useArithmeticHistogram() {
+        this.useArithmeticHistogram = true;
+        return this;
+    }
+
     public GroupExpressionProducer withHistogramGroupFieldAliasPrefix(String prefix) {
         this.histogramGroupFieldAliasPrefix = prefix;
         return this;
@@ -217,17 +232,23 @@ public final class GroupExpressionProducer implements IGroupExpressionProducer {
         HistogramGroup group = g.getHistogramGroup();
         double[] points = getHistogramGroupPoints(group);
         NumberPath<Double> field = numberPath(Double.class, table, group.getField());
-
-        // Starting point: ( -inf; start ]
-        CaseBuilder.Cases<String, StringExpression> cases = cases()
-                .when(field.loe(doubleTemplate(points[0]))).then(";" + points[0]);
-        // Several points. Every sub-interval is (x, y]
-        for (int p = 1; p < points.length; p++) {
-            cases.when(field.gt(doubleTemplate(points[p - 1])).and(field.loe(doubleTemplate(points[p]))))
-                    .then(points[p - 1] + ";" + points[p]);
+        ComparableExpressionBase<?> expression;
+
+        if (useArithmeticHistogram) {
+            expression = histogramBucketIndex(group, points, field);
+        } else {
+            String[] labels = getHistogramBucketLabels(points);
+            // Starting point: ( -inf; start ]
+            CaseBuilder.Cases<String, StringExpression> cases = cases()
+                    .when(field.loe(doubleTemplate(points[0]))).then(labels[0]);
+            // Several points. Every sub-interval is (x, y]
+            for (int p = 1; p < points.length; p++) {
+                cases.when(field.gt(doubleTemplate(points[p - 1])).and(field.loe(doubleTemplate(points[p]))))
+                        .then(labels[p]);
+            }
+            // Last point: (end; +inf)
+            expression = cases.otherwise(labels[points.length]);
         }
-        // Last point: (end; +inf)
-        StringExpression expression = cases.otherwise(points[points.length - 1] + ";");
 
         return AliasedComparableExpressionBase.create(
                 expression,
@@ -235,8 +256,69 @@ public final class GroupExpressionProducer implements IGroupExpressionProducer {
         );
     }
 
+    /**
+     * Bucket k is (start + k * size; start + (k + 1) * size], its index is estimated as ceil((x - start) / size) - 1
+     * and corrected by comparing the value with the bounds of the estimated bucket, as the floating point division
+     * misplaces values at bounds. Bounds are computed from start and size scaled to integers, so they are equal
+     * to the decimal points. If start and size can't be scaled exactly, there is a CASE branch per bucket.
+     * The first and the last buckets are open-ended, nulls fall into the last one as with labeled CASE branches.
+     */
+    private ComparableExpressionBase<?> histogramBucketIndex(HistogramGroup group, double[] points,
+                                                             NumberPath<Double> field) {
+        int last = points.length;
+        CaseBuilder.Cases<Long, NumberExpression<Long>> cases = cases()
+                .when(field.loe(doubleTemplate(points[0]))).then(numberTemplate(Long.class, "0"));
+
+        BigDecimal start = BigDecimal.valueOf(group.getStartPoint()).stripTrailingZeros();
+        BigDecimal size = BigDecimal.valueOf(group.getBucketSize()).stripTrailingZeros();
+        int scale = Math.max(0, Math.max(start.scale(), size.scale()));
+        BigDecimal scaledStart = start.movePointRight(scale);
+        BigDecimal scaledSize = size.movePointRight(scale);
+        BigDecimal maxBound = scaledStart.abs().add(scaledSize.multiply(BigDecimal.valueOf(last + 1L)));
+        if (scale > MAX_EXACT_HISTOGRAM_SCALE || maxBound.compareTo(MAX_EXACT_HISTOGRAM_BOUND) > 0) {
+            for (int p = 1; p < last; p++) {
+                cases.when(field.gt(doubleTemplate(points[p - 1])).and(field.loe(doubleTemplate(points[p]))))
+                        .then(numberTemplate(Long.class, String.valueOf(p)));
+            }
+            return cases.otherwise(numberTemplate(Long.class, String.valueOf(last)));
+        }
+
+        // estimate is the index + 1, bucket k is (({3} + k * {4}) / {5}; ({3} + (k + 1) * {4}) / {5}]
+        String estimate = "ceil(({0} - {1}) / {2})";
+        String bound = "({3} + %s * {4}) / {5}";
+        String index = "case when {0} <= " + format(bound, "(" + estimate + " - 1)") + " then " + estimate + " - 2"
+                + " when {0} > " + format(bound, estimate) + " then " + estimate
+                + " else " + estimate + " - 1 end";
+        return cases
+                .when(field.loe(doubleTemplate(points[last - 1])))
+                .then(numberTemplate(Long.class, index, field,
+                        doubleTemplate(group.getStartPoint()), doubleTemplate(group.getBucketSize()),
+                        numberTemplate(Long.class, scaledStart.toPlainString()),
+                        numberTemplate(Long.class, scaledSize.toPlainString()),
+                        numberTemplate(Double.class, BigDecimal.ONE.movePointRight(scale).setScale(1).toPlainString())))
+                .otherwise(numberTemplate(Long.class, String.valueOf(last)));
+    }
+
+    /**
+     * @return labels of histogram buckets by bucket index: ";p0" for (-inf; p0], "p0;p1" for (p0; p1], ...,
+     * "pn;" for (pn; +inf)
+     */
+    public static String[] getHistogramBucketLabels(HistogramGroup group) {
+        return getHistogramBucketLabels(getHistogramGroupPoints(group));
+    }
+
+    private static String[] getHistogramBucketLabels(double[] points) {
+        String[] labels = new String[points.length + 1];
+        labels[0] = ";" + points[0];
+        for (int p = 1; p < points.length; p++) {
+            labels[p] = points[p - 1] + ";" + points[p];
+        }
+        labels[points.length] = points[points.length - 1] + ";";
+        return labels;
+    }
+
     // TODO can we make this class private?
-    double[] getHistogramGroupPoints(HistogramGroup group) {
+    static double[] getHistogramGroupPoints(HistogramGroup group) {
         BigDecimal startPoint = BigDecimal.valueOf(group.getStartPoint()).stripTrailingZeros();
         BigDecimal endPoint = BigDecimal.valueOf(group.getEndPoint()).stripTrailingZeros();
         BigDecimal bucketSize = BigDecimal.valueOf(group.getBucketSize()).stripTrailingZeros();
@@ -262,7 +344,7 @@ public final class GroupExpressionProducer implements IGroupExpressionProducer {
                 .toArray();
     }
 
-    private String printHistogram(HistogramGroup histogram) {
+    private static String printHistogram(HistogramGroup histogram) {
         return format(" Start: %f, end: %f, bucketSize: %f", histogram.getStartPoint(), histogram.getEndPoint(),
                 histogram.getBucketSize());
     }
@@ -9,8 +9,6 @@ import com.zoomdata.connector.example.framework.api.ITypesMapping;
 import com.zoomdata.connector.example.framework.async.Cursor;
 import com.zoomdata.connector.example.framework.async.IComputeTask;
 import com.zoomdata.connector.example.framework.common.JdbcCommons;
-import com.zoomdata.connector.example.framework.common.Meta;
-import com.zoomdata.gen.edc.types.Field;
 import com.zoomdata.gen.edc.types.Record;
 import com.zoomdata.gen.edc.types.ResponseMetadata;
 
@@ -23,19 +21,28 @@ public abstract class AbstractSqlComputeTask implements IComputeTask {
     protected final Connection connection;
     protected final Statement statement;
     protected final ITypesMapping typesMapping;
+    protected final QueryProgress queryProgress;
 
     private volatile ResultSet resultSet;
 
     public AbstractSqlComputeTask(Connection connection, Statement statement, ITypesMapping typesMapping) {
+        this(connection, statement, typesMapping, new QueryProgress());
+    }
+
+    public AbstractSqlComputeTask(Connection connection, Statement statement, ITypesMapping typesMapping,
+                                  QueryProgress queryProgress) {
         this.connection = connection;
         this.statement = statement;
         this.typesMapping = typesMapping;
+        this.queryProgress = queryProgress;
     }
 
     @Override
     public Cursor compute() {
         try {
+            queryProgress.markExecuting();
             resultSet = execute(statement);
+            queryProgress.markResultReady();
             return toCursor(resultSet);
         } catch (SQLException e) {
             throw new RuntimeException(e);
@@ -44,7 +51,7 @@ public abstract class AbstractSqlComputeTask implements IComputeTask {
 
     @Override
     public double progress() {
-        return 0;
+        return queryProgress.progress();
     }
 
     @Override
@@ -69,8 +76,12 @@ public abstract class AbstractSqlComputeTask implements IComputeTask {
         final List<ResponseMetadata> metadataList = new ArrayList<>();
         final List<String> jdbcMetadataList = new ArrayList<>();
         populateMetadata(resultSet, metadataList, jdbcMetadataList);
+        final RowDecoder rowDecoder = RowDecoder.compile(typesMapping, jdbcMetadataList);
 
         final boolean initialHasNext = resultSet.next();
+        if (!initialHasNext) {
+            queryProgress.markFinished();
+        }
 
         return new Cursor() {
             private boolean hasNext = initialHasNext;
@@ -91,17 +102,23 @@ public abstract class AbstractSqlComputeTask implements IComputeTask {
             }
 
             @Override
-            public Record next() {
+            public void setFetchSize(int rows) {
                 try {
-                    final Record record = new Record();
-                    for (int i = 1; i <= jdbcMetadataList.size(); i++) {
-                        String jdbcType = jdbcMetadataList.get(i - 1);
-                        Meta type = typesMapping.metaForType(jdbcType);
-                        final Field field = type.getRsFunction().apply(resultSet, i);
-                        record.addToRecord(field);
-                    }
+                    resultSet.setFetchSize(rows);
+                } catch (SQLException e) {
+                    // fetch size is only a hint, drivers are free to not support it
+                }
+            }
 
+            @Override
+            public Record next() {
+                try {
+                    final Record record = rowDecoder.decode(resultSet);
+                    queryProgress.rowRead();
                     hasNext = resultSet.next();
+                    if (!hasNext) {
+                        queryProgress.markFinished();
+                    }
                     return record;
                 } catch (SQLException e) {
                     throw new RuntimeException(e);
@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.zoomdata.connector.example.framework.async.AsyncException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limit of concurrent queries of a datasource adjusted by observed query latency.
+ *
+ * The limit follows the gradient between the long term and the recent average latency: it grows while queries
+ * run as fast as usual and shrinks as latency rises. Queries failed by timeout cut the limit multiplicatively.
+ * Queries above the limit wait in a bounded FIFO queue. A waiting query is dropped when its deadline passes,
+ * a new query is dropped right away when the expected wait already exceeds its deadline.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double SHORT_WEIGHT = 0.2;
+    private static final double LONG_WEIGHT = 0.02;
+    private static final double HOLD_WEIGHT = 0.1;
+    private static final double SMOOTHING = 0.2;
+    private static final double TOLERANCE = 1.5;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueued;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Deque<Object> queue = new ArrayDeque<>();
+    private double limit;
+    private int inflight;
+    private double shortLatencyNanos;
+    private double longLatencyNanos;
+    private double holdNanos;
+    private long dropped;
+
+    /**
+     * @param maxQueued number of waiting queries above which new queries are dropped
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.maxQueued = maxQueued;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    /**
+     * Waits until the query fits into the limit.
+     *
+     * @param deadlineMillis time until which the query may wait
+     * @throws AsyncException if the query is dropped
+     */
+    public Permit acquire(long deadlineMillis) {
+        Object waiter = new Object();
+        lock.lock();
+        try {
+            if (queue.isEmpty() && inflight < (int) limit) {
+                inflight++;
+                return new Permit();
+            }
+            if (queue.size() >= maxQueued) {
+                throw drop("Too many queries wait for the datasource: " + queue.size());
+            }
+            long expectedWaitMillis = expectedWaitMillis(queue.size() + 1);
+            if (System.currentTimeMillis() + expectedWaitMillis > deadlineMillis) {
+                throw drop("Expected wait for the datasource " + expectedWaitMillis + " ms exceeds the deadline");
+            }
+
+            queue.addLast(waiter);
+            try {
+                while (queue.peekFirst() != waiter || inflight >= (int) limit) {
+                    long remainingMillis = deadlineMillis - System.currentTimeMillis();
+                    if (remainingMillis <= 0) {
+                        throw drop("Query waited for the datasource until its deadline");
+                    }
+                    released.await(remainingMillis, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AsyncException(e);
+            } finally {
+                if (queue.remove(waiter)) {
+                    released.signalAll();
+                }
+            }
+            inflight++;
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInflight() {
+        lock.lock();
+        try {
+            return inflight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return recent average latency of queries in milliseconds
+     */
+    public long getLatencyMillis() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis((long) shortLatencyNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private AsyncException drop(String message) {
+        dropped++;
+        return new AsyncException(message);
+    }
+
+    /**
+     * Permits are held for the average hold time, so the position in the queue takes about
+     * <code>position / limit</code> of it.
+     */
+    private long expectedWaitMillis(int position) {
+        return TimeUnit.NANOSECONDS.toMillis((long) (holdNanos * position / Math.max(1, (int) limit)));
+    }
+
+    private void onLatency(long latencyNanos) {
+        lock.lock();
+        try {
+            if (longLatencyNanos == 0) {
+                shortLatencyNanos = latencyNanos;
+                longLatencyNanos = latencyNanos;
+                return;
+            }
+            shortLatencyNanos += (latencyNanos - shortLatencyNanos) * SHORT_WEIGHT;
+            longLatencyNanos += (latencyNanos - longLatencyNanos) * LONG_WEIGHT;
+            if (longLatencyNanos > 2 * shortLatencyNanos) {
+                // latency returned to normal after overload, the long term average catches up faster
+                longLatencyNanos *= 0.95;
+            }
+
+            double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * longLatencyNanos / shortLatencyNanos));
+            double newLimit = limit * gradient + Math.sqrt(limit);
+            if (inflight < limit / 2) {
+                // the datasource isn't loaded enough to prove a higher limit
+                newLimit = Math.min(newLimit, limit);
+            }
+            setLimit(limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onOverload() {
+        lock.lock();
+        try {
+            setLimit(limit * BACKOFF);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long heldNanos) {
+        lock.lock();
+        try {
+            inflight--;
+            holdNanos = holdNanos == 0 ? heldNanos : holdNanos + (heldNanos - holdNanos) * HOLD_WEIGHT;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setLimit(double newLimit) {
+        double previous = limit;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        if ((int) limit > (int) previous) {
+            released.signalAll();
+        }
+    }
+
+    /**
+     * Slot of a running query, released once.
+     */
+    public final class Permit {
+
+        private final long acquiredNanos = System.nanoTime();
+        private boolean releasedPermit;
+
+        private Permit() {
+        }
+
+        /**
+         * @param latencyNanos time the datasource took to execute the query
+         */
+        public void onLatency(long latencyNanos) {
+            AdaptiveConcurrencyLimiter.this.onLatency(latencyNanos);
+        }
+
+        /**
+         * The query failed because the datasource is overloaded, e.g. by timeout.
+         */
+        public void onOverload() {
+            AdaptiveConcurrencyLimiter.this.onOverload();
+        }
+
+        public synchronized void release() {
+            if (!releasedPermit) {
+                releasedPermit = true;
+                AdaptiveConcurrencyLimiter.this.release(System.nanoTime() - acquiredNanos);
+            }
+        }
+    }
+}
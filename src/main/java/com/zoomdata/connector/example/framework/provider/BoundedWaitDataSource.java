@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.NoSuchElementException;
+
+/**
+ * Pool which can wait for a connection shorter than its <code>maxWaitMillis</code>, so a request doesn't wait
+ * for a connection past its deadline.
+ */
+class BoundedWaitDataSource extends BasicDataSource {
+
+    /**
+     * @param maxWaitMillis time to wait for an idle connection when the pool is exhausted
+     */
+    Connection getConnection(long maxWaitMillis) throws SQLException {
+        if (getMaxWaitMillis() >= 0 && maxWaitMillis >= getMaxWaitMillis()) {
+            return getConnection();
+        }
+        createDataSource();
+        try {
+            return getConnectionPool().borrowObject(maxWaitMillis);
+        } catch (NoSuchElementException e) {
+            throw new SQLTimeoutException("Cannot get a connection within " + maxWaitMillis + " ms", e);
+        } catch (SQLException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Cannot get a connection, general error", e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.zoomdata.connector.example.framework.async.Deadline;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection of a request with a deadline. Every statement it creates gets the query timeout of the time left,
+ * so the server stops the query when nobody waits for its result anymore.
+ */
+final class DeadlineConnection implements InvocationHandler {
+
+    /**
+     * Runs on the connection before it returns to the pool.
+     */
+    interface CloseHook {
+        void beforeClose(Connection connection) throws SQLException;
+    }
+
+    private final Connection connection;
+    private final Deadline deadline;
+    private final CloseHook closeHook;
+
+    private DeadlineConnection(Connection connection, Deadline deadline, CloseHook closeHook) {
+        this.connection = connection;
+        this.deadline = deadline;
+        this.closeHook = closeHook;
+    }
+
+    static Connection wrap(Connection connection, Deadline deadline, CloseHook closeHook) {
+        return (Connection) Proxy.newProxyInstance(DeadlineConnection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, new DeadlineConnection(connection, deadline, closeHook));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+            close();
+            return null;
+        }
+        Object result;
+        try {
+            result = method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        if (result instanceof Statement) {
+            applyQueryTimeout((Statement) result);
+        }
+        return result;
+    }
+
+    private void applyQueryTimeout(Statement statement) throws SQLException {
+        long remainingMillis = deadline.remainingMillis();
+        if (remainingMillis <= 0) {
+            statement.close();
+            throw new SQLTimeoutException("Deadline exceeded before the statement is executed");
+        }
+        // rounded up, 0 would mean no timeout
+        statement.setQueryTimeout((int) Math.min(Integer.MAX_VALUE,
+                TimeUnit.MILLISECONDS.toSeconds(remainingMillis + TimeUnit.SECONDS.toMillis(1) - 1)));
+    }
+
+    private void close() throws SQLException {
+        try {
+            if (!connection.isClosed()) {
+                closeHook.beforeClose(connection);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -11,13 +11,17 @@ import com.zoomdata.connector.example.common.utils.ThriftUtils;
 import com.zoomdata.connector.example.framework.api.AbstractDataProvider;
 import com.zoomdata.connector.example.framework.api.IFeatures;
 import com.zoomdata.connector.example.framework.api.ITypesMapping;
+import com.zoomdata.connector.example.framework.async.Deadline;
 import com.zoomdata.connector.example.framework.async.IComputeTaskFactory;
+import com.zoomdata.connector.example.framework.async.RequestContext;
+import com.zoomdata.connector.example.framework.async.RequestLane;
 import com.zoomdata.connector.example.framework.common.JdbcCommons;
 import com.zoomdata.connector.example.framework.common.PropertiesExtractor;
 import com.zoomdata.connector.example.framework.common.SQLConnectionPoolKey;
+import com.zoomdata.connector.example.framework.common.sql.KeysetBatches;
 import com.zoomdata.connector.example.framework.common.sql.ParametrizedQuery;
+import com.zoomdata.connector.example.framework.common.sql.SQLPlanCache;
 import com.zoomdata.connector.example.framework.common.sql.SQLQueryBuilder;
-import com.zoomdata.connector.example.framework.common.sql.StructuredToSQLTransformer;
 import com.zoomdata.connector.example.framework.common.sql.impl.DefaultSQLQueryBuilder;
 import com.zoomdata.gen.edc.request.*;
 import com.zoomdata.gen.edc.types.FieldMetadata;
@@ -27,8 +31,11 @@ import org.apache.commons.dbcp2.BasicDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.Metric;
 
 import javax.annotation.PostConstruct;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -47,6 +54,10 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
     private static final Logger log = LoggerFactory.getLogger(GenericSQLDataProvider.class);
 
     public static final String DEFAULT_VALIDATE_SOURCE_QUERY = "select 1";
+    public static final String RESULT_CACHE_TTL_SEC = "RESULT_CACHE_TTL_SEC";
+    public static final String CACHE_REQUEST_PARAMETER = "cache";
+    public static final String SPOOL_REQUEST_PARAMETER = "spool";
+    public static final String CONCURRENCY_COMMAND = "concurrency";
 
     @Value("${jdbc.connection.timeout.sec:60}")
     protected int jdbcConnectionTimeoutSec;
@@ -77,6 +88,69 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
     @Value("${datasource.eviction.time.between.sec}")
     private int evictionTimeBetween = 1;
 
+    @Value("${datasource.interactive.max.active:5}")
+    private int interactiveMaxActiveConnections = 5;
+
+    @Value("${datasource.max.open.prepared.statements:100}")
+    private int maxOpenPreparedStatements = 100;
+
+    // pool of connections reserved for metadata and interactive requests per datasource
+    protected final ConcurrentHashMap<SQLConnectionPoolKey, BasicDataSource> interactivePools =
+            new ConcurrentHashMap<>();
+
+    @Value("${datasource.limit.adaptive:false}")
+    protected boolean adaptiveLimit = false;
+
+    @Value("${datasource.limit.initial:20}")
+    private int limitInitial = 20;
+
+    @Value("${datasource.limit.min:2}")
+    private int limitMin = 2;
+
+    @Value("${datasource.limit.queue.max:100}")
+    private int limitQueueMax = 100;
+
+    @Value("${datasource.limit.queue.timeout.ms:30000}")
+    private long limitQueueTimeoutMillis = 30_000;
+
+    // adaptive limit of concurrent queries per datasource
+    protected final ConcurrentHashMap<SQLConnectionPoolKey, AdaptiveConcurrencyLimiter> limiters =
+            new ConcurrentHashMap<>();
+
+    @Value("${datasource.keyset.batch.rows:0}")
+    protected int keysetBatchRows = 0;
+
+    @Value("${datasource.spool.results:false}")
+    protected boolean spoolResults = false;
+
+    @Value("${datasource.spool.memory.bytes:4194304}")
+    private int spoolMemoryBytes = 4_194_304;
+
+    @Value("${datasource.spool.max.bytes:1073741824}")
+    private long spoolMaxBytes = 1_073_741_824;
+
+    @Value("${datasource.spool.directory:}")
+    private String spoolDirectory = "";
+
+    @Value("${cache.result.ttl.sec:0}")
+    protected long resultCacheTtlSec = 0;
+
+    @Value("${cache.result.max.bytes:67108864}")
+    private long resultCacheMaxBytes = 67_108_864;
+
+    @Value("${cache.result.max.entry.bytes:16777216}")
+    private long resultCacheMaxEntryBytes = 16_777_216;
+
+    protected ResultCache resultCache;
+
+    @Value("${sql.plan.cache.max.entries:1000}")
+    private int planCacheMaxEntries = 1000;
+
+    protected SQLPlanCache planCache;
+
+    @Value("${sql.bind.parameters:false}")
+    protected boolean bindParameters = false;
+
     public GenericSQLDataProvider(SQLTemplates sqlTemplates, ITypesMapping typesMapping, IFeatures features) {
         this.sqlTemplates = sqlTemplates;
         this.typesMapping = typesMapping;
@@ -92,10 +166,56 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
         DriverManager.setLoginTimeout(jdbcConnectionTimeoutSec);
     }
 
+    @PostConstruct
+    private void setUpResultCache() {
+        resultCache = new ResultCache(resultCacheMaxBytes, resultCacheMaxEntryBytes);
+    }
+
+    @PostConstruct
+    private void setUpPlanCache() {
+        planCache = new SQLPlanCache(planCacheMaxEntries);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> metrics = super.metrics();
+        String prefix = "cache." + dataProviderBeanName + ".";
+        metrics.add(new Metric<>(prefix + "hits", resultCache.getHits()));
+        metrics.add(new Metric<>(prefix + "misses", resultCache.getMisses()));
+        metrics.add(new Metric<>(prefix + "hit.ratio", resultCache.getHitRatio()));
+        metrics.add(new Metric<>(prefix + "evictions", resultCache.getEvictions()));
+        metrics.add(new Metric<>(prefix + "bytes", resultCache.getTotalBytes()));
+        metrics.add(new Metric<>(prefix + "entries", resultCache.getEntriesCount()));
+        String planPrefix = "plan." + dataProviderBeanName + ".";
+        metrics.add(new Metric<>(planPrefix + "hits", planCache.getHits()));
+        metrics.add(new Metric<>(planPrefix + "misses", planCache.getMisses()));
+        metrics.add(new Metric<>(planPrefix + "not.cacheable", planCache.getNotCacheable()));
+        metrics.add(new Metric<>(planPrefix + "entries", planCache.getEntriesCount()));
+        String limitPrefix = "limit." + dataProviderBeanName + ".";
+        Collection<AdaptiveConcurrencyLimiter> datasourceLimiters = limiters.values();
+        metrics.add(new Metric<>(limitPrefix + "datasources", datasourceLimiters.size()));
+        metrics.add(new Metric<>(limitPrefix + "limit",
+                datasourceLimiters.stream().mapToInt(AdaptiveConcurrencyLimiter::getLimit).sum()));
+        metrics.add(new Metric<>(limitPrefix + "inflight",
+                datasourceLimiters.stream().mapToInt(AdaptiveConcurrencyLimiter::getInflight).sum()));
+        metrics.add(new Metric<>(limitPrefix + "queued",
+                datasourceLimiters.stream().mapToInt(AdaptiveConcurrencyLimiter::getQueued).sum()));
+        metrics.add(new Metric<>(limitPrefix + "dropped",
+                datasourceLimiters.stream().mapToLong(AdaptiveConcurrencyLimiter::getDropped).sum()));
+        return metrics;
+    }
+
     public SQLQueryBuilder createSqlQueryBuilder() {
         return new DefaultSQLQueryBuilder();
     }
 
+    /**
+     * @return builder of queries of data read requests, which binds filter values as parameters if configured
+     */
+    protected SQLQueryBuilder createRequestQueryBuilder() {
+        return createSqlQueryBuilder().withBindParameters(bindParameters);
+    }
+
     protected ResultSet executeQuery(Connection connection, ParametrizedQuery query) throws SQLException {
         final PreparedStatement statement = connection.prepareStatement(query.getSql());
         try {
@@ -112,11 +232,12 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
         List<String> keys = request.getKeys();
         HashMap<String, String> keyValues = new HashMap<>();
         if (keys != null) {
+            Map<String, String> allFeatures = features(request.getRequestInfo());
             if (keys.size() == 1 && keys.get(0).equals("*")) { // respond for every feature
-                keyValues.putAll(features.getAllFeatures()); // TODO abstract features
+                keyValues.putAll(allFeatures); // TODO abstract features
             } else {
                 for (String key : keys) {
-                    keyValues.put(key, features.getAllFeatures().getOrDefault(key, "UNKNOWN"));
+                    keyValues.put(key, allFeatures.getOrDefault(key, "UNKNOWN"));
                 }
             }
         }
@@ -126,9 +247,20 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
         );
     }
 
+    /**
+     * @param requestInfo datasource the features are requested for, may be <code>null</code>
+     * @return features of the connector, which may depend on the server of the datasource
+     */
+    protected Map<String, String> features(RequestInfo requestInfo) {
+        return features.getAllFeatures();
+    }
+
     @Override
     public ExecuteCommandResponse executeCommand(ExecuteCommandRequest request) {
         String command = request.getCommand();
+        if (CONCURRENCY_COMMAND.equals(command)) {
+            return concurrencyStatus(request.getRequestInfo());
+        }
         Map<String, String> params = request.getCommandParams();
         if (params != null) {
             for (Map.Entry<String, String> kvPair : params.entrySet()) {
@@ -141,9 +273,23 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
         return new ExecuteCommandResponse(new ResponseInfo(ResponseStatus.SUCCESS, "OK"));
     }
 
+    /**
+     * Reports adaptive concurrency limit, running and waiting queries of the datasource of the request.
+     */
+    protected ExecuteCommandResponse concurrencyStatus(RequestInfo info) {
+        AdaptiveConcurrencyLimiter limiter = limiters.get(keyFromRequestInfo(info));
+        String status = limiter == null
+                ? String.format("adaptive=%s, limit=%d, inflight=0, queued=0, dropped=0, latency.ms=0",
+                        adaptiveLimit, limitInitial)
+                : String.format("adaptive=%s, limit=%d, inflight=%d, queued=%d, dropped=%d, latency.ms=%d",
+                        adaptiveLimit, limiter.getLimit(), limiter.getInflight(), limiter.getQueued(),
+                        limiter.getDropped(), limiter.getLatencyMillis());
+        return new ExecuteCommandResponse(new ResponseInfo(ResponseStatus.SUCCESS, status));
+    }
+
     @Override
     public ValidateSourceResponse pingSource(ValidateSourceRequest request) {
-        try (Connection connection = createConnection(request.getRequestInfo())) {
+        try (Connection connection = createConnection(request.getRequestInfo(), RequestLane.INTERACTIVE)) {
             final ResultSet resultSet = executeQuery(connection, new ParametrizedQuery(validateSourceQuery()));
             final Statement resultSetStatement = resultSet.getStatement();
             try {
@@ -164,7 +310,7 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
 
     @Override
     public ValidateCollectionResponse pingCollection(ValidateCollectionRequest request) {
-        try (Connection connection = createConnection(request.getRequestInfo())) {
+        try (Connection connection = createConnection(request.getRequestInfo(), RequestLane.INTERACTIVE)) {
             ParametrizedQuery query = validateCollectionQuery(
                 request.getCollectionInfo(),
                 ofNullable(connection.getCatalog()));
@@ -216,7 +362,7 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
     @Override
     public MetaSchemasResponse schemas(MetaSchemasRequest request) {
         Set<String> systemSchemas = getSystemSchemasInLowerCase();
-        try (Connection connection = createConnection(request.getRequestInfo())) {
+        try (Connection connection = createConnection(request.getRequestInfo(), RequestLane.INTERACTIVE)) {
             List<String> schemas = schemas(connection, request).stream()
                 .filter(not(StringUtils::isEmpty))
                 .filter(not(schema -> systemSchemas.contains(schema.toLowerCase())))
@@ -257,7 +403,7 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
     @Override
     public MetaCollectionsResponse collections(MetaCollectionsRequest request) {
         Set<String> systemSchemas = getSystemSchemasInLowerCase();
-        try (Connection connection = createConnection(request.getRequestInfo())) {
+        try (Connection connection = createConnection(request.getRequestInfo(), RequestLane.INTERACTIVE)) {
             List<CollectionInfo> collections = collections(connection, request).stream()
                 .filter(not(info -> info.getSchema() != null && systemSchemas.contains(info.getSchema().toLowerCase())))
                 .collect(Collectors.toList());
@@ -329,7 +475,7 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
 
     @Override
     public MetaDescribeResponse describe(MetaDescribeRequest request) {
-        try (Connection connection = createConnection(request.getRequestInfo())) {
+        try (Connection connection = createConnection(request.getRequestInfo(), RequestLane.INTERACTIVE)) {
             List<FieldMetadata> metadata = describeFields(connection, request.getCollectionInfo());
             // fill indexes.
             final Boolean customSql = isCustomSql(request.getCollectionInfo());
@@ -383,11 +529,13 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
     }
 
     @Override
-    protected IComputeTaskFactory createComputeTaskFactory(DataReadRequest request, int fetchSize) throws ExecuteException {
+    protected IComputeTaskFactory createComputeTaskFactory(DataReadRequest request, int fetchSize,
+                                                           RequestContext context) throws ExecuteException {
         try {
+            RequestLane lane = context.getLane();
             Supplier<Connection> connectionSupplier = () -> {
                 try {
-                    return createConnection(request.getRequestInfo());
+                    return createConnection(request.getRequestInfo(), lane, context.getDeadline());
                 } catch (SQLException e) {
                     throw new RuntimeException(e);
                 }
@@ -395,15 +543,124 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
 
             ParametrizedQuery query = createParametrizedQuery(request);
 
-            return newComputeTaskFactory(connectionSupplier, query, fetchSize);
+            IComputeTaskFactory factory = keysetBatched(request, connectionSupplier, query, fetchSize, context)
+                    .orElseGet(() -> newComputeTaskFactory(request, connectionSupplier, query, fetchSize, context));
+            return cached(request, spooled(request,
+                    lane == RequestLane.BULK ? limited(request, factory, context.getDeadline()) : factory));
         } catch (Exception e) { // something wrong happened
             log.error("Request preparation has failed.", e);
             throw new ExecuteException(e.getMessage());
         }
     }
 
+    /**
+     * Sorted RAW requests with limit above the batch size are read by keyset windows of the batch size,
+     * if the connector provides a tiebreaker column.
+     */
+    protected Optional<IComputeTaskFactory> keysetBatched(DataReadRequest request,
+                                                          Supplier<Connection> connectionSupplier,
+                                                          ParametrizedQuery query, int fetchSize,
+                                                          RequestContext context) {
+        if (keysetBatchRows <= 0) {
+            return Optional.empty();
+        }
+        return KeysetBatches.of(request, keysetTiebreaker(request), this::createRequestQueryBuilder, sqlTemplates)
+                .filter(batches -> batches.getLimit() == 0 || batches.getLimit() > keysetBatchRows)
+                .map(batches -> new KeysetBatchedComputeTaskFactory(
+                        (windowQuery, window, windowFetchSize) -> newKeysetWindowComputeTaskFactory(request,
+                                connectionSupplier, windowQuery, windowFetchSize, context, window),
+                        query, batches, fetchSize, keysetBatchRows, continuationExecutor()));
+    }
+
+    /**
+     * @param windowQuery query of a keyset window, executed as it is
+     * @param window      number of the window within the request
+     */
+    protected IComputeTaskFactory newKeysetWindowComputeTaskFactory(DataReadRequest request,
+                                                                    Supplier<Connection> connectionSupplier,
+                                                                    ParametrizedQuery windowQuery, int fetchSize,
+                                                                    RequestContext context, int window) {
+        return newComputeTaskFactory(connectionSupplier, windowQuery, fetchSize);
+    }
+
+    /**
+     * @return unique column of the requested collection, which makes keyset windows of RAW requests exact,
+     * <code>null</code> if there is none and the request can't be split
+     */
+    protected String keysetTiebreaker(DataReadRequest request) {
+        return null;
+    }
+
+    /**
+     * With adaptive limit queries of a datasource run within a limit adjusted by their latency, between
+     * <code>datasource.limit.min</code> and the pool size. Queries above the limit wait in a bounded queue.
+     *
+     * @param deadline queued queries are dropped at their deadline if it comes before the queue timeout
+     */
+    protected IComputeTaskFactory limited(DataReadRequest request, IComputeTaskFactory factory, Deadline deadline) {
+        if (!adaptiveLimit) {
+            return factory;
+        }
+        AdaptiveConcurrencyLimiter limiter = limiters.computeIfAbsent(keyFromRequestInfo(request.getRequestInfo()),
+                key -> new AdaptiveConcurrencyLimiter(limitInitial, limitMin, maxActiveConnections, limitQueueMax));
+        return new LimitedComputeTaskFactory(factory, limiter, limitQueueTimeoutMillis, deadline);
+    }
+
+    /**
+     * Spooled requests read the whole result right after execution and return the connection to the pool,
+     * so clients fetching pages slowly don't hold connections.
+     * Can be switched per request with request parameter <code>spool</code>.
+     */
+    protected IComputeTaskFactory spooled(DataReadRequest request, IComputeTaskFactory factory) {
+        boolean spool = ofNullable(request.getRequestInfo().getParams())
+                .map(params -> params.get(SPOOL_REQUEST_PARAMETER))
+                .map(Boolean::valueOf)
+                .orElse(spoolResults);
+        if (!spool) {
+            return factory;
+        }
+        Path directory = StringUtils.isEmpty(spoolDirectory) ? null : Paths.get(spoolDirectory);
+        return new SpoolingComputeTaskFactory(factory, spoolMemoryBytes, spoolMaxBytes, directory);
+    }
+
+    /**
+     * Results are cached by datasource and query for the TTL of the datasource.
+     * Request parameter <code>cache=false</code> skips the cached result and replaces it with a fresh one.
+     */
+    protected IComputeTaskFactory cached(DataReadRequest request, IComputeTaskFactory factory) {
+        RequestInfo info = request.getRequestInfo();
+        long ttlSec = PropertiesExtractor.extractCustomParameter(info, RESULT_CACHE_TTL_SEC)
+                .map(Long::valueOf)
+                .orElse(resultCacheTtlSec);
+        Object queryKey = factory.getQueryKey();
+        if (ttlSec <= 0 || queryKey == null) {
+            return factory;
+        }
+        boolean bypass = ofNullable(info.getParams())
+                .map(params -> params.get(CACHE_REQUEST_PARAMETER))
+                .map("false"::equalsIgnoreCase)
+                .orElse(false);
+        return resultCache.wrap(Arrays.asList(keyFromRequestInfo(info), queryKey), factory,
+                TimeUnit.SECONDS.toMillis(ttlSec), bypass);
+    }
+
+    @Override
+    protected Object datasourceKey(DataReadRequest request) {
+        return keyFromRequestInfo(request.getRequestInfo());
+    }
+
+    /**
+     * Structured requests are built through the plan cache, requests differing only in filter values reuse the plan.
+     */
     protected ParametrizedQuery createParametrizedQuery(DataReadRequest request) {
-        return StructuredToSQLTransformer.transform(request, createSqlQueryBuilder(), sqlTemplates);
+        return planCache.transform(request, this::createRequestQueryBuilder, sqlTemplates);
+    }
+
+    protected IComputeTaskFactory newComputeTaskFactory(DataReadRequest request,
+                                                        Supplier<Connection> connectionSupplier,
+                                                        ParametrizedQuery query, int fetchSize,
+                                                        RequestContext context) {
+        return newComputeTaskFactory(connectionSupplier, query, fetchSize);
     }
 
     protected IComputeTaskFactory newComputeTaskFactory(Supplier<Connection> connectionSupplier, ParametrizedQuery query, int fetchSize) {
@@ -424,7 +681,7 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
 
     protected BasicDataSource setupConnectionPool(SQLConnectionPoolKey key) {
         log.info("New pool with key " + key);
-        BasicDataSource ds = new BasicDataSource();
+        BasicDataSource ds = new BoundedWaitDataSource();
         ds.setDriverClassName(jdbcClassName());
         ds.setUrl(key.getJdbcUrl());
         ds.setUsername(key.getUsername());
@@ -438,9 +695,24 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
         ds.setMaxWaitMillis(TimeUnit.SECONDS.toMillis(maxWaitTime));
         ds.setMinEvictableIdleTimeMillis(TimeUnit.SECONDS.toMillis(maxIdleTimeSec));
         ds.setTimeBetweenEvictionRunsMillis(TimeUnit.SECONDS.toMillis(evictionTimeBetween));
+        if (poolPreparedStatements()) {
+            // SQL of bound queries repeats, so statements are kept open per connection and reused
+            ds.setPoolPreparedStatements(true);
+            ds.setMaxOpenPreparedStatements(maxOpenPreparedStatements);
+            // resets query timeout of a pooled statement left by a request with a deadline
+            ds.setDefaultQueryTimeout(0);
+        }
         return ds;
     }
 
+    /**
+     * Statements are pooled only when their SQL repeats, connectors adding per-request text to the SQL
+     * should not pool them.
+     */
+    protected boolean poolPreparedStatements() {
+        return bindParameters && maxOpenPreparedStatements > 0;
+    }
+
     protected String validateSourceQuery() {
         return DEFAULT_VALIDATE_SOURCE_QUERY;
     }
@@ -464,6 +736,68 @@ public abstract class GenericSQLDataProvider extends AbstractDataProvider {
         return pool(requestInfo).getConnection();
     }
 
+    /**
+     * Interactive requests use a pool of their own, so they never wait for connections held by bulk reads.
+     */
+    protected Connection createConnection(RequestInfo requestInfo, RequestLane lane) throws SQLException {
+        if (lane == RequestLane.INTERACTIVE && interactiveMaxActiveConnections > 0) {
+            return interactivePool(requestInfo).getConnection();
+        }
+        return createConnection(requestInfo);
+    }
+
+    /**
+     * Connection of a request with a deadline waits for the pool no longer than the time left, and its statements
+     * get query timeout of the time left.
+     */
+    protected Connection createConnection(RequestInfo requestInfo, RequestLane lane, Deadline deadline)
+            throws SQLException {
+        if (!deadline.isSet()) {
+            return createConnection(requestInfo, lane);
+        }
+        deadline.check("getting a connection");
+        BasicDataSource ds = lane == RequestLane.INTERACTIVE && interactiveMaxActiveConnections > 0
+                ? interactivePool(requestInfo)
+                : pool(requestInfo);
+        Connection connection;
+        if (ds instanceof BoundedWaitDataSource) {
+            long maxWaitMillis = ds.getMaxWaitMillis();
+            connection = ((BoundedWaitDataSource) ds).getConnection(
+                    maxWaitMillis < 0 ? deadline.remainingMillis() : deadline.bound(maxWaitMillis));
+        } else {
+            connection = ds.getConnection();
+        }
+        try {
+            applySessionDeadline(connection, deadline);
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        return DeadlineConnection.wrap(connection, deadline, this::clearSessionDeadline);
+    }
+
+    /**
+     * Applies the deadline to the session of the connection, for servers which limit runtime of statements
+     * by a session setting. Connection returns to the pool after {@link #clearSessionDeadline(Connection)}.
+     */
+    protected void applySessionDeadline(Connection connection, Deadline deadline) throws SQLException {
+    }
+
+    protected void clearSessionDeadline(Connection connection) throws SQLException {
+    }
+
+    protected BasicDataSource interactivePool(RequestInfo info) {
+        return interactivePools.computeIfAbsent(keyFromRequestInfo(info), this::setupInteractivePool);
+    }
+
+    protected BasicDataSource setupInteractivePool(SQLConnectionPoolKey key) {
+        BasicDataSource ds = setupConnectionPool(key);
+        ds.setMaxTotal(interactiveMaxActiveConnections);
+        ds.setMaxIdle(Math.min(maxIdle, interactiveMaxActiveConnections));
+        ds.setMinIdle(Math.min(minIdle, interactiveMaxActiveConnections));
+        return ds;
+    }
+
     protected Set<String> getSystemSchemasInLowerCase() {
         return systemSchemas().stream()
             .map(String::toLowerCase)
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.zoomdata.connector.example.framework.async.Cursor;
+import com.zoomdata.connector.example.framework.async.IComputeTask;
+import com.zoomdata.connector.example.framework.async.IComputeTaskFactory;
+import com.zoomdata.connector.example.framework.common.sql.impl.GroupExpressionProducer;
+import com.zoomdata.gen.edc.group.Group;
+import com.zoomdata.gen.edc.group.GroupType;
+import com.zoomdata.gen.edc.request.DataReadRequest;
+import com.zoomdata.gen.edc.request.RequestType;
+import com.zoomdata.gen.edc.request.StructuredRequestType;
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.FieldType;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * Replaces bucket indexes of histogram groups, selected by {@link GroupExpressionProducer#useArithmeticHistogram()},
+ * with labels of the buckets. Groups are expected to be the leading columns of the result in order of the request.
+ */
+public class HistogramLabelingComputeTaskFactory implements IComputeTaskFactory {
+
+    private final IComputeTaskFactory delegate;
+    private final Map<Integer, String[]> labels;
+
+    private HistogramLabelingComputeTaskFactory(IComputeTaskFactory delegate, Map<Integer, String[]> labels) {
+        this.delegate = delegate;
+        this.labels = labels;
+    }
+
+    /**
+     * @return factory labeling histogram groups of the request, the factory itself if the request has none
+     */
+    public static IComputeTaskFactory labeled(DataReadRequest request, IComputeTaskFactory factory) {
+        if (request.getType() != RequestType.STRUCTURED
+                || request.getStructured().getType() != StructuredRequestType.AGG) {
+            return factory;
+        }
+        List<Group> groups = ofNullable(request.getStructured().getAggDataRequest().getGroups())
+                .orElse(Collections.emptyList());
+        Map<Integer, String[]> labels = new HashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            Group group = groups.get(i);
+            if (group.getType() == GroupType.HISTOGRAM_GROUP) {
+                labels.put(i, GroupExpressionProducer.getHistogramBucketLabels(group.getHistogramGroup()));
+            }
+        }
+        return labels.isEmpty() ? factory : new HistogramLabelingComputeTaskFactory(factory, labels);
+    }
+
+    @Override
+    public IComputeTask create() {
+        return new LabelingTask(delegate.create());
+    }
+
+    @Override
+    public String getRawQuery() {
+        return delegate.getRawQuery();
+    }
+
+    @Override
+    public int getFetchSize() {
+        return delegate.getFetchSize();
+    }
+
+    @Override
+    public Object getQueryKey() {
+        return delegate.getQueryKey();
+    }
+
+    private List<ResponseMetadata> label(List<ResponseMetadata> metadata) {
+        List<ResponseMetadata> labeled = new ArrayList<>(metadata);
+        labels.keySet().forEach(column ->
+                labeled.set(column, new ResponseMetadata(metadata.get(column).getName(), FieldType.STRING)));
+        return labeled;
+    }
+
+    private Record label(Record record) {
+        List<Field> fields = new ArrayList<>(record.getRecord());
+        labels.forEach((column, columnLabels) -> {
+            Field field = fields.get(column);
+            if (!field.isIsNull() && field.getValue() != null) {
+                int bucket = (int) Double.parseDouble(field.getValue());
+                fields.set(column, new Field().setValue(columnLabels[Math.max(0,
+                        Math.min(columnLabels.length - 1, bucket))]));
+            }
+        });
+        return new Record(fields);
+    }
+
+    private final class LabelingTask implements IComputeTask {
+
+        private final IComputeTask task;
+
+        private LabelingTask(IComputeTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public Cursor compute() {
+            Cursor source = task.compute();
+            List<ResponseMetadata> metadata = label(source.getMetadata());
+            return new Cursor() {
+                @Override
+                public List<ResponseMetadata> getMetadata() {
+                    return metadata;
+                }
+
+                @Override
+                public boolean hasNextBatch() {
+                    return source.hasNextBatch();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return source.hasNext();
+                }
+
+                @Override
+                public Record next() {
+                    return label(source.next());
+                }
+
+                @Override
+                public void setFetchSize(int rows) {
+                    source.setFetchSize(rows);
+                }
+            };
+        }
+
+        @Override
+        public double progress() {
+            return task.progress();
+        }
+
+        @Override
+        public void cancel() {
+            task.cancel();
+        }
+
+        @Override
+        public void close() {
+            task.close();
+        }
+    }
+}
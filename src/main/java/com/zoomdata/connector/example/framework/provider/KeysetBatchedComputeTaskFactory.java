@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.zoomdata.connector.example.framework.async.AsyncException;
+import com.zoomdata.connector.example.framework.async.Cursor;
+import com.zoomdata.connector.example.framework.async.IComputeTask;
+import com.zoomdata.connector.example.framework.async.IComputeTaskFactory;
+import com.zoomdata.connector.example.framework.common.sql.KeysetBatches;
+import com.zoomdata.connector.example.framework.common.sql.ParametrizedQuery;
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Reads a sorted RAW request by short keyset window queries, each returned as a separate batch of the cursor.
+ *
+ * A window is read completely with its own connection, which returns to the pool before the window is paged
+ * to the client. The next window is read in background while the client pages the current one.
+ * Windows are executed by tasks of the window factory, so connectors can track them like other queries.
+ */
+public class KeysetBatchedComputeTaskFactory implements IComputeTaskFactory {
+
+    private final WindowFactory windowFactory;
+    private final ParametrizedQuery query;
+    private final KeysetBatches batches;
+    private final int fetchSize;
+    private final int batchRows;
+    private final Executor prefetchExecutor;
+
+    /**
+     * @param windowFactory    creates factories of window queries
+     * @param query            query of the whole request, used as its raw query and key
+     * @param batchRows        number of rows of a window
+     * @param prefetchExecutor executor reading next windows
+     */
+    public KeysetBatchedComputeTaskFactory(WindowFactory windowFactory, ParametrizedQuery query,
+                                           KeysetBatches batches, int fetchSize, int batchRows,
+                                           Executor prefetchExecutor) {
+        this.windowFactory = windowFactory;
+        this.query = query;
+        this.batches = batches;
+        this.fetchSize = fetchSize;
+        this.batchRows = batchRows;
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    @Override
+    public IComputeTask create() {
+        return new BatchedTask();
+    }
+
+    @Override
+    public String getRawQuery() {
+        return query.toString();
+    }
+
+    @Override
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    @Override
+    public Object getQueryKey() {
+        return SqlPreparedQueryComputeTaskFactory.queryKey(query);
+    }
+
+    @FunctionalInterface
+    public interface WindowFactory {
+
+        /**
+         * @param windowQuery query of the window
+         * @param window      number of the window within the request, starting from 0
+         * @param fetchSize   fetch size of the window
+         */
+        IComputeTaskFactory create(ParametrizedQuery windowQuery, int window, int fetchSize);
+    }
+
+    /**
+     * Rows of a window, metadata is <code>null</code> if no query was executed.
+     */
+    private static final class Window {
+        private final List<ResponseMetadata> metadata;
+        private final List<Record> records;
+        private final List<Field> lastKey;
+        private final boolean full;
+
+        private Window(List<ResponseMetadata> metadata, List<Record> records, List<Field> lastKey, boolean full) {
+            this.metadata = metadata;
+            this.records = records;
+            this.lastKey = lastKey;
+            this.full = full;
+        }
+    }
+
+    private final class BatchedTask implements IComputeTask {
+
+        private final QueryProgress queryProgress = new QueryProgress();
+        private volatile IComputeTask current;
+        private volatile FutureTask<Window> next;
+        private volatile boolean closed;
+        private int windows;
+        private List<ResponseMetadata> metadata = Collections.emptyList();
+        private long rows;
+
+        private BatchedTask() {
+            if (batches.getLimit() > 0) {
+                queryProgress.setExpectedRows(batches.getLimit());
+            }
+        }
+
+        @Override
+        public Cursor compute() {
+            FutureTask<Window> pending = next;
+            if (pending == null) {
+                queryProgress.markExecuting();
+                pending = new FutureTask<>(() -> read(null, windowLimit()));
+            }
+            // runs the window here unless the prefetch already took it, so no worker waits for a queued one
+            pending.run();
+            Window window = await(pending);
+            queryProgress.markResultReady();
+            rows += window.records.size();
+            if (window.metadata != null) {
+                metadata = window.metadata;
+            }
+
+            next = null;
+            int limit = windowLimit();
+            if (window.full && limit > 0 && !closed) {
+                FutureTask<Window> prefetch = new FutureTask<>(() -> read(window.lastKey, limit));
+                next = prefetch;
+                try {
+                    prefetchExecutor.execute(prefetch);
+                } catch (RejectedExecutionException e) {
+                    // read on the next compute
+                }
+            }
+            return cursor(window, next != null);
+        }
+
+        private int windowLimit() {
+            int limit = batches.getLimit();
+            return limit > 0 ? (int) Math.min(batchRows, limit - rows) : batchRows;
+        }
+
+        private Window await(FutureTask<Window> pending) {
+            try {
+                return pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AsyncException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new AsyncException(cause);
+            }
+        }
+
+        private Window read(List<Field> lastKey, int limit) {
+            Optional<ParametrizedQuery> windowQuery = batches.query(lastKey, limit);
+            if (!windowQuery.isPresent() || closed) {
+                return new Window(null, Collections.emptyList(), lastKey, false);
+            }
+
+            // windows are read one after another, the counter is only touched by the reading thread
+            IComputeTask task = windowFactory.create(windowQuery.get(), windows++, Math.min(fetchSize, limit)).create();
+            current = task;
+            try {
+                Cursor cursor = task.compute();
+                List<Record> records = new ArrayList<>();
+                Record last = null;
+                while (cursor.hasNext()) {
+                    last = cursor.next();
+                    records.add(batches.strip(last));
+                    queryProgress.rowRead();
+                }
+                return new Window(batches.strip(cursor.getMetadata()), records,
+                        last == null ? lastKey : batches.key(last), records.size() == limit);
+            } finally {
+                current = null;
+                task.close();
+            }
+        }
+
+        private Cursor cursor(Window window, boolean hasNextBatch) {
+            if (!hasNextBatch) {
+                queryProgress.markFinished();
+            }
+            List<ResponseMetadata> windowMetadata = metadata;
+            Iterator<Record> records = window.records.iterator();
+            return new Cursor() {
+                @Override
+                public List<ResponseMetadata> getMetadata() {
+                    return windowMetadata;
+                }
+
+                @Override
+                public boolean hasNextBatch() {
+                    return hasNextBatch;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return records.hasNext();
+                }
+
+                @Override
+                public Record next() {
+                    return records.next();
+                }
+            };
+        }
+
+        @Override
+        public double progress() {
+            return queryProgress.progress();
+        }
+
+        @Override
+        public void cancel() {
+            IComputeTask task = current;
+            if (task != null) {
+                task.cancel();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            FutureTask<Window> pending = next;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+    }
+}
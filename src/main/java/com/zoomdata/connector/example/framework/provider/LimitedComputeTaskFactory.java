@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.zoomdata.connector.example.framework.async.Cursor;
+import com.zoomdata.connector.example.framework.async.Deadline;
+import com.zoomdata.connector.example.framework.async.IComputeTask;
+import com.zoomdata.connector.example.framework.async.IComputeTaskFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import java.sql.SQLTransientException;
+
+/**
+ * Creates tasks within the concurrency limit of their datasource. A task takes a permit before it gets
+ * a connection and holds it until it is closed. Time from the permit to the first result is the latency sample
+ * of the limiter, transient SQL failures such as timeouts are reported as overload.
+ */
+class LimitedComputeTaskFactory implements IComputeTaskFactory {
+
+    private final IComputeTaskFactory delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final long queueTimeoutMillis;
+    private final Deadline deadline;
+
+    /**
+     * @param queueTimeoutMillis time a task waits for a permit before it is dropped
+     * @param deadline           deadline of the request, a task is dropped at it if it comes earlier
+     */
+    LimitedComputeTaskFactory(IComputeTaskFactory delegate, AdaptiveConcurrencyLimiter limiter,
+                              long queueTimeoutMillis, Deadline deadline) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.deadline = deadline;
+    }
+
+    @Override
+    public IComputeTask create() {
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire(
+                System.currentTimeMillis() + deadline.bound(queueTimeoutMillis));
+        long startNanos = System.nanoTime();
+        try {
+            return new LimitedTask(delegate.create(), permit, startNanos);
+        } catch (RuntimeException e) {
+            onFailure(permit, e);
+            permit.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getRawQuery() {
+        return delegate.getRawQuery();
+    }
+
+    @Override
+    public int getFetchSize() {
+        return delegate.getFetchSize();
+    }
+
+    @Override
+    public Object getQueryKey() {
+        return delegate.getQueryKey();
+    }
+
+    private static void onFailure(AdaptiveConcurrencyLimiter.Permit permit, RuntimeException e) {
+        if (ExceptionUtils.indexOfType(e, SQLTransientException.class) >= 0) {
+            permit.onOverload();
+        }
+    }
+
+    private static final class LimitedTask implements IComputeTask {
+
+        private final IComputeTask task;
+        private final AdaptiveConcurrencyLimiter.Permit permit;
+        private final long startNanos;
+        private boolean computed;
+
+        private LimitedTask(IComputeTask task, AdaptiveConcurrencyLimiter.Permit permit, long startNanos) {
+            this.task = task;
+            this.permit = permit;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public Cursor compute() {
+            if (computed) {
+                return task.compute();
+            }
+            computed = true;
+            try {
+                Cursor cursor = task.compute();
+                permit.onLatency(System.nanoTime() - startNanos);
+                return cursor;
+            } catch (RuntimeException e) {
+                onFailure(permit, e);
+                throw e;
+            }
+        }
+
+        @Override
+        public double progress() {
+            return task.progress();
+        }
+
+        @Override
+        public void cancel() {
+            task.cancel();
+        }
+
+        @Override
+        public void close() {
+            try {
+                task.close();
+            } finally {
+                permit.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.google.common.collect.ImmutableSet;
+import com.zoomdata.connector.example.common.utils.StringUtils;
+import com.zoomdata.connector.example.framework.api.ITypesMapping;
+import com.zoomdata.connector.example.framework.common.JdbcCommons;
+import com.zoomdata.connector.example.framework.common.ThriftTypeFunction;
+import com.zoomdata.gen.edc.filter.Filter;
+import com.zoomdata.gen.edc.metric.Metric;
+import com.zoomdata.gen.edc.metric.MetricCount;
+import com.zoomdata.gen.edc.metric.MetricSum;
+import com.zoomdata.gen.edc.metric.MetricType;
+import com.zoomdata.gen.edc.request.AggDataRequest;
+import com.zoomdata.gen.edc.request.DataReadRequest;
+import com.zoomdata.gen.edc.sort.AggSort;
+import com.zoomdata.gen.edc.sort.SortDir;
+import com.zoomdata.gen.edc.sort.SortType;
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.FieldType;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * Merges results of an AGG request executed as several queries over disjoint subsets of rows.
+ *
+ * Partial queries select SUM, COUNT, MIN and MAX as requested and AVG as SUM and COUNT of the field. DISTINCT_COUNT
+ * isn't merged, as partial queries would have to return all distinct values. Partial rows are aggregated by values
+ * of groups, sorts, offset and limit of the request are applied to the merged rows.
+ */
+public class PartialAggregation {
+
+    private static final Set<MetricType> MERGEABLE_METRICS = ImmutableSet.of(MetricType.COUNT, MetricType.SUM,
+            MetricType.MIN, MetricType.MAX, MetricType.AVG);
+
+    private enum Merge {
+        SUM, MIN, MAX
+    }
+
+    private final AggDataRequest aggRequest;
+    private final List<Metric> metrics;
+    private final List<Metric> partialMetrics = new ArrayList<>();
+    private final List<Merge> merges = new ArrayList<>();
+    private final int[] metricColumns;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<List<String>, Accumulator> merged = new HashMap<>();
+    private List<ResponseMetadata> partialMetadata;
+
+    public PartialAggregation(AggDataRequest aggRequest) {
+        this.aggRequest = aggRequest;
+        this.metrics = ofNullable(aggRequest.getMetrics()).orElse(Collections.emptyList());
+        this.metricColumns = new int[metrics.size()];
+        for (int i = 0; i < metrics.size(); i++) {
+            Metric metric = metrics.get(i);
+            metricColumns[i] = partialMetrics.size();
+            switch (metric.getType()) {
+                case COUNT:
+                case SUM: {
+                    addPartial(metric, Merge.SUM);
+                    break;
+                }
+                case MIN: {
+                    addPartial(metric, Merge.MIN);
+                    break;
+                }
+                case MAX: {
+                    addPartial(metric, Merge.MAX);
+                    break;
+                }
+                case AVG: {
+                    String field = metric.getAvg().getField();
+                    addPartial(new Metric(MetricType.SUM).setSum(new MetricSum().setField(field)), Merge.SUM);
+                    addPartial(new Metric(MetricType.COUNT).setCount(new MetricCount().setField(field)), Merge.SUM);
+                    break;
+                }
+                default: {
+                    throw new IllegalArgumentException("Metric of type " + metric.getType() + " can't be merged.");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether results of all metrics of the request can be merged
+     */
+    public static boolean isSupported(AggDataRequest aggRequest) {
+        return ofNullable(aggRequest.getMetrics())
+                .map(list -> list.stream().allMatch(metric -> MERGEABLE_METRICS.contains(metric.getType())))
+                .orElse(true);
+    }
+
+    /**
+     * @param filter filter of the subset of rows
+     * @return copy of the request selecting partial metrics of the subset, not sorted and not limited
+     */
+    public DataReadRequest partialRequest(DataReadRequest request, Filter filter) {
+        DataReadRequest partial = request.deepCopy();
+        AggDataRequest partialAgg = partial.getStructured().getAggDataRequest();
+        List<Filter> filters = new ArrayList<>(ofNullable(partialAgg.getFilters()).orElse(Collections.emptyList()));
+        filters.add(filter);
+        partialAgg.setFilters(filters);
+        partialAgg.setMetrics(new ArrayList<>(partialMetrics));
+        partialAgg.setSorts(null);
+        partialAgg.setLimit(0);
+        partialAgg.setOffset(0);
+        return partial;
+    }
+
+    /**
+     * Reads all rows of a partial query and merges them. Can be called concurrently for different queries.
+     */
+    public void add(ResultSet resultSet, ITypesMapping typesMapping) throws SQLException {
+        ResultSetMetaData resultSetMetaData = resultSet.getMetaData();
+        int groupsCount = resultSetMetaData.getColumnCount() - partialMetrics.size();
+        List<ResponseMetadata> metadata = new ArrayList<>();
+        List<String> groupTypes = new ArrayList<>();
+        for (int i = 1; i <= resultSetMetaData.getColumnCount(); i++) {
+            String columnType = StringUtils.extractType(
+                    JdbcCommons.extractColumnTypeName(resultSetMetaData, i).toUpperCase());
+            metadata.add(new ResponseMetadata(resultSetMetaData.getColumnLabel(i),
+                    typesMapping.metaForType(columnType).getThriftType()));
+            if (i <= groupsCount) {
+                groupTypes.add(columnType);
+            }
+        }
+        RowDecoder groupDecoder = RowDecoder.compile(typesMapping, groupTypes);
+
+        Map<List<String>, Accumulator> partial = new HashMap<>();
+        while (resultSet.next()) {
+            List<Field> group = groupDecoder.decode(resultSet).getRecord();
+            List<String> key = new ArrayList<>(groupsCount);
+            for (Field field : group) {
+                key.add(field.isIsNull() ? null : field.getValue());
+            }
+            Accumulator accumulator = partial.computeIfAbsent(key, k -> new Accumulator(group));
+            for (int column = 0; column < partialMetrics.size(); column++) {
+                accumulator.add(column, resultSet.getObject(groupsCount + column + 1));
+            }
+        }
+
+        lock.lock();
+        try {
+            if (partialMetadata == null) {
+                partialMetadata = metadata;
+            }
+            partial.forEach((key, accumulator) -> {
+                Accumulator existing = merged.putIfAbsent(key, accumulator);
+                if (existing != null) {
+                    existing.merge(accumulator);
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return metadata of merged rows, available after any partial result was added
+     */
+    public List<ResponseMetadata> getMetadata() {
+        int groupsCount = partialMetadata.size() - partialMetrics.size();
+        List<ResponseMetadata> metadata = new ArrayList<>(partialMetadata.subList(0, groupsCount));
+        for (int i = 0; i < metrics.size(); i++) {
+            Metric metric = metrics.get(i);
+            ResponseMetadata partial = partialMetadata.get(groupsCount + metricColumns[i]);
+            switch (metric.getType()) {
+                case AVG: {
+                    metadata.add(new ResponseMetadata("avg(" + metric.getAvg().getField() + ")", FieldType.DOUBLE));
+                    break;
+                }
+                default: {
+                    metadata.add(partial);
+                }
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * @return merged rows sorted and limited as requested
+     */
+    public List<Record> result() {
+        List<ResponseMetadata> metadata = getMetadata();
+        int groupsCount = metadata.size() - metrics.size();
+        List<Object[]> keys = new ArrayList<>(merged.size());
+        List<Record> records = new ArrayList<>(merged.size());
+        for (Accumulator accumulator : merged.values()) {
+            List<Field> fields = new ArrayList<>(accumulator.group);
+            Object[] values = new Object[metadata.size()];
+            for (int i = 0; i < groupsCount; i++) {
+                values[i] = sortValue(fields.get(i), metadata.get(i).getType());
+            }
+            for (int i = 0; i < metrics.size(); i++) {
+                Object value = accumulator.result(metrics.get(i).getType(), metricColumns[i]);
+                values[groupsCount + i] = value;
+                fields.add(field(value, metadata.get(groupsCount + i).getType()));
+            }
+            keys.add(values);
+            records.add(new Record(fields));
+        }
+
+        List<AggSort> sorts = ofNullable(aggRequest.getSorts()).orElse(Collections.emptyList());
+        Integer[] order = new Integer[records.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        if (!sorts.isEmpty()) {
+            Comparator<Object[]> comparator = null;
+            for (AggSort sort : sorts) {
+                Comparator<Object[]> next = comparator(sort, groupsCount);
+                comparator = comparator == null ? next : comparator.thenComparing(next);
+            }
+            Comparator<Object[]> byKeys = comparator;
+            Arrays.sort(order, (left, right) -> byKeys.compare(keys.get(left), keys.get(right)));
+        }
+
+        int from = Math.min(Math.max(0, aggRequest.getOffset()), order.length);
+        int to = aggRequest.getLimit() > 0 ? (int) Math.min((long) from + aggRequest.getLimit(), order.length)
+                : order.length;
+        List<Record> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(records.get(order[i]));
+        }
+        return result;
+    }
+
+    private void addPartial(Metric metric, Merge merge) {
+        partialMetrics.add(metric);
+        merges.add(merge);
+    }
+
+    /**
+     * Nulls are last in ascending and first in descending order, as sorted by CrateDB.
+     */
+    @SuppressWarnings("unchecked")
+    private Comparator<Object[]> comparator(AggSort sort, int groupsCount) {
+        int index;
+        if (sort.getType() == SortType.GROUP) {
+            index = aggRequest.getGroups().indexOf(sort.getGroup());
+        } else {
+            int metric = metrics.indexOf(sort.getMetric());
+            index = metric < 0 ? -1 : groupsCount + metric;
+        }
+        if (index < 0) {
+            throw new IllegalArgumentException(sort.getType() + " to sort on is unknown.");
+        }
+        Comparator<Object[]> ascending = Comparator.comparing(values -> (Comparable<Object>) values[index],
+                Comparator.nullsLast(Comparator.naturalOrder()));
+        return SortDir.DESC == sort.getDirection() ? ascending.reversed() : ascending;
+    }
+
+    private static Object sortValue(Field field, FieldType type) {
+        if (field.isIsNull() || field.getValue() == null) {
+            return null;
+        }
+        if (type == FieldType.INTEGER || type == FieldType.DOUBLE) {
+            return Double.valueOf(field.getValue());
+        }
+        return field.getValue();
+    }
+
+    private static Field field(Object value, FieldType type) {
+        if (value == null) {
+            return new Field().setIsNull(true);
+        }
+        Number number = (Number) value;
+        switch (type) {
+            case INTEGER: {
+                return new Field().setValue(Long.toString(number.longValue()));
+            }
+            case DATE: {
+                return new Field().setValue(ThriftTypeFunction.DATE_TIME_FORMATTER.print(number.longValue()));
+            }
+            default: {
+                return new Field().setValue(Double.toString(number.doubleValue()));
+            }
+        }
+    }
+
+    /**
+     * Partial metrics of a group. Integral values are kept as longs too, so large sums don't lose precision.
+     */
+    private final class Accumulator {
+
+        private final List<Field> group;
+        private final long[] longs;
+        private final double[] doubles;
+        private final boolean[] integral;
+        private final boolean[] present;
+
+        private Accumulator(List<Field> group) {
+            int columns = partialMetrics.size();
+            this.group = group;
+            this.longs = new long[columns];
+            this.doubles = new double[columns];
+            this.integral = new boolean[columns];
+            this.present = new boolean[columns];
+            Arrays.fill(integral, true);
+        }
+
+        private void add(int column, Object value) {
+            if (value == null) {
+                return;
+            }
+            Number number = number(value);
+            boolean isIntegral = number instanceof Long || number instanceof Integer || number instanceof Short
+                    || number instanceof Byte;
+            add(column, number.longValue(), number.doubleValue(), isIntegral);
+        }
+
+        private void add(int column, long longValue, double doubleValue, boolean isIntegral) {
+            boolean replace;
+            switch (merges.get(column)) {
+                case SUM: {
+                    longs[column] += longValue;
+                    doubles[column] += doubleValue;
+                    integral[column] &= isIntegral;
+                    present[column] = true;
+                    return;
+                }
+                case MIN: {
+                    replace = !present[column] || doubleValue < doubles[column];
+                    break;
+                }
+                default: {
+                    replace = !present[column] || doubleValue > doubles[column];
+                }
+            }
+            if (replace) {
+                longs[column] = longValue;
+                doubles[column] = doubleValue;
+                integral[column] = isIntegral;
+                present[column] = true;
+            }
+        }
+
+        private void merge(Accumulator other) {
+            for (int column = 0; column < partialMetrics.size(); column++) {
+                if (other.present[column]) {
+                    add(column, other.longs[column], other.doubles[column], other.integral[column]);
+                }
+            }
+        }
+
+        /**
+         * @return value of a metric, <code>null</code> if the metric has no value for the group
+         */
+        private Number result(MetricType type, int column) {
+            switch (type) {
+                case COUNT: {
+                    return longs[column];
+                }
+                case AVG: {
+                    long count = longs[column + 1];
+                    return count == 0 ? null : doubles[column] / count;
+                }
+                default: {
+                    if (!present[column]) {
+                        return null;
+                    }
+                    return integral[column] ? (Number) longs[column] : (Number) doubles[column];
+                }
+            }
+        }
+    }
+
+    private static Number number(Object value) {
+        if (value instanceof Number) {
+            return (Number) value;
+        }
+        if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).getTime();
+        }
+        try {
+            return Double.valueOf(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Metric value " + value + " can't be merged.", e);
+        }
+    }
+}
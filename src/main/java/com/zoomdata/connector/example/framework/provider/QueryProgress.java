@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+/**
+ * Progress of a single SQL query, combined from execution phase and rows read so far.
+ *
+ * Phases are reported by the compute task. Whether the statement is running on the server and how many rows
+ * are expected may be reported by a datasource specific monitor.
+ */
+public class QueryProgress {
+
+    private static final double EXECUTING = 10;
+    private static final double RUNNING = 25;
+    private static final double RESULT_READY = 50;
+    private static final double ROWS_SHARE = 100 - RESULT_READY;
+    private static final double MAX_UNFINISHED = 99;
+
+    private volatile boolean executing;
+    private volatile boolean running;
+    private volatile boolean resultReady;
+    private volatile boolean finished;
+    private volatile long expectedRows = -1;
+    private volatile long rows;
+
+    public void markExecuting() {
+        executing = true;
+    }
+
+    public void markResultReady() {
+        resultReady = true;
+    }
+
+    public void markFinished() {
+        finished = true;
+    }
+
+    /**
+     * Called by the thread reading rows only.
+     */
+    public void rowRead() {
+        rows++;
+    }
+
+    public void setRunning(boolean running) {
+        this.running = running;
+    }
+
+    /**
+     * @param expectedRows estimated number of rows of the result, negative if unknown
+     */
+    public void setExpectedRows(long expectedRows) {
+        this.expectedRows = expectedRows;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return progress in percents
+     */
+    public double progress() {
+        if (finished) {
+            return 100;
+        }
+        if (resultReady) {
+            long expected = expectedRows;
+            if (expected <= 0) {
+                return RESULT_READY;
+            }
+            return Math.min(MAX_UNFINISHED, RESULT_READY + ROWS_SHARE * rows / expected);
+        }
+        if (running) {
+            return RUNNING;
+        }
+        return executing ? EXECUTING : 0;
+    }
+}
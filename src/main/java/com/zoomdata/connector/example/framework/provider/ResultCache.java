@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.zoomdata.connector.example.common.utils.ThriftUtils;
+import com.zoomdata.connector.example.framework.async.Cursor;
+import com.zoomdata.connector.example.framework.async.IComputeTask;
+import com.zoomdata.connector.example.framework.async.IComputeTaskFactory;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of complete query results, evicted by total estimated size in least recently used order.
+ *
+ * A query is cached when its cursor is read to the end and its estimated size doesn't exceed the entry limit.
+ * Cached results are served without a connection to the datasource.
+ */
+public class ResultCache {
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Object, CachedResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes      estimated size of all cached results
+     * @param maxEntryBytes estimated size of a single result above which it is not cached
+     */
+    public ResultCache(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxBytes, maxEntryBytes);
+    }
+
+    /**
+     * @param key       key of the query, including datasource
+     * @param ttlMillis how long the result is served from the cache, 0 disables caching
+     * @param bypass    <code>true</code> if cached result must not be served, a fresh result is still cached
+     * @return factory serving the cached result, or the factory caching the result it reads
+     */
+    public IComputeTaskFactory wrap(Object key, IComputeTaskFactory factory, long ttlMillis, boolean bypass) {
+        if (key == null || ttlMillis <= 0 || maxBytes <= 0) {
+            return factory;
+        }
+
+        if (!bypass) {
+            CachedResult cached = get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return new CachedFactory(factory, cached);
+            }
+        }
+        misses.incrementAndGet();
+        return new CachingFactory(factory, key, ttlMillis);
+    }
+
+    private CachedResult get(Object key) {
+        lock.lock();
+        try {
+            CachedResult cached = entries.get(key);
+            if (cached != null && cached.expiresAt < System.currentTimeMillis()) {
+                remove(key);
+                return null;
+            }
+            return cached;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(Object key, CachedResult result) {
+        lock.lock();
+        try {
+            remove(key);
+            entries.put(key, result);
+            totalBytes += result.bytes;
+
+            Iterator<CachedResult> eldest = entries.values().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                totalBytes -= eldest.next().bytes;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(Object key) {
+        CachedResult removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long hitsCount = hits.get();
+        long total = hitsCount + misses.get();
+        return total == 0 ? 0 : (double) hitsCount / total;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getTotalBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getEntriesCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class CachedResult {
+        private final List<ResponseMetadata> metadata;
+        private final List<Record> records;
+        private final long bytes;
+        private final long expiresAt;
+
+        private CachedResult(List<ResponseMetadata> metadata, List<Record> records, long bytes, long expiresAt) {
+            this.metadata = metadata;
+            this.records = records;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private abstract static class DelegatingFactory implements IComputeTaskFactory {
+        protected final IComputeTaskFactory delegate;
+
+        private DelegatingFactory(IComputeTaskFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getRawQuery() {
+            return delegate.getRawQuery();
+        }
+
+        @Override
+        public int getFetchSize() {
+            return delegate.getFetchSize();
+        }
+
+        @Override
+        public Object getQueryKey() {
+            return delegate.getQueryKey();
+        }
+    }
+
+    private static final class CachedFactory extends DelegatingFactory {
+        private final CachedResult cached;
+
+        private CachedFactory(IComputeTaskFactory delegate, CachedResult cached) {
+            super(delegate);
+            this.cached = cached;
+        }
+
+        @Override
+        public IComputeTask create() {
+            return new IComputeTask() {
+                @Override
+                public Cursor compute() {
+                    Iterator<Record> records = cached.records.iterator();
+                    return new Cursor() {
+                        @Override
+                        public List<ResponseMetadata> getMetadata() {
+                            return cached.metadata;
+                        }
+
+                        @Override
+                        public boolean hasNextBatch() {
+                            return false;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return records.hasNext();
+                        }
+
+                        @Override
+                        public Record next() {
+                            return records.next();
+                        }
+                    };
+                }
+
+                @Override
+                public double progress() {
+                    return 100;
+                }
+
+                @Override
+                public void cancel() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    private final class CachingFactory extends DelegatingFactory {
+        private final Object key;
+        private final long ttlMillis;
+
+        private CachingFactory(IComputeTaskFactory delegate, Object key, long ttlMillis) {
+            super(delegate);
+            this.key = key;
+            this.ttlMillis = ttlMillis;
+        }
+
+        @Override
+        public IComputeTask create() {
+            IComputeTask task = delegate.create();
+            return new IComputeTask() {
+                private List<Record> records = new ArrayList<>();
+                private long bytes;
+
+                @Override
+                public Cursor compute() {
+                    Cursor cursor = task.compute();
+                    return new Cursor() {
+                        @Override
+                        public List<ResponseMetadata> getMetadata() {
+                            return cursor.getMetadata();
+                        }
+
+                        @Override
+                        public boolean hasNextBatch() {
+                            return cursor.hasNextBatch();
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return cursor.hasNext();
+                        }
+
+                        @Override
+                        public Record next() {
+                            Record record = cursor.next();
+                            collect(record, cursor);
+                            return record;
+                        }
+
+                        @Override
+                        public void setFetchSize(int rows) {
+                            cursor.setFetchSize(rows);
+                        }
+                    };
+                }
+
+                private void collect(Record record, Cursor cursor) {
+                    if (records == null) {
+                        return;
+                    }
+                    bytes += ThriftUtils.estimateCompactSize(record);
+                    if (bytes > maxEntryBytes) {
+                        records = null;
+                        return;
+                    }
+                    records.add(record);
+                    if (!cursor.hasNext() && !cursor.hasNextBatch()) {
+                        put(key, new CachedResult(cursor.getMetadata(), records, bytes,
+                                System.currentTimeMillis() + ttlMillis));
+                        records = null;
+                    }
+                }
+
+                @Override
+                public double progress() {
+                    return task.progress();
+                }
+
+                @Override
+                public void cancel() {
+                    task.cancel();
+                }
+
+                @Override
+                public void close() {
+                    records = null;
+                    task.close();
+                }
+            };
+        }
+    }
+}
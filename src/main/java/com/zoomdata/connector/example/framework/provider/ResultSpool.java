@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.Record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Records serialized in a compact form, kept in memory up to a limit and in a temporary file above it.
+ * The file is read through memory mapped segments.
+ *
+ * Records are appended by a single thread, then {@link #finish() finished} and read by a single thread.
+ */
+class ResultSpool implements Closeable {
+
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+
+    private static final int IS_NULL_SET = 1;
+    private static final int IS_NULL = 2;
+    private static final int HAS_VALUE = 4;
+
+    private final int memoryBytes;
+    private final long maxBytes;
+    private final Path directory;
+
+    private byte[] memory = new byte[0];
+    private int memorySize;
+
+    private Path file;
+    private FileChannel channel;
+    private ByteBuffer writeBuffer;
+    private long fileSize;
+
+    private byte[] scratch = new byte[256];
+    private int scratchSize;
+    private long count;
+    private boolean closed;
+
+    /**
+     * @param memoryBytes size of records kept in memory
+     * @param maxBytes    size of all records above which records are not accepted
+     * @param directory   directory of the temporary file, <code>null</code> for the default one
+     */
+    ResultSpool(int memoryBytes, long maxBytes, Path directory) {
+        this.memoryBytes = memoryBytes;
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+    }
+
+    /**
+     * @return <code>false</code> if the record would exceed the size limit and wasn't appended
+     */
+    synchronized boolean append(Record record) {
+        if (closed) {
+            throw new IllegalStateException("Spool is closed");
+        }
+        encode(record);
+        int size = Integer.BYTES + scratchSize;
+        if (memorySize + fileSize + size > maxBytes) {
+            return false;
+        }
+        try {
+            if (channel == null && memorySize + size <= memoryBytes) {
+                appendToMemory();
+            } else {
+                appendToFile(size);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count++;
+        return true;
+    }
+
+    /**
+     * Flushes appended records, no records can be appended after it.
+     */
+    synchronized void finish() {
+        if (channel == null || closed) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getSize() {
+        return memorySize + fileSize;
+    }
+
+    Reader reader() {
+        return new Reader();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        memory = null;
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void appendToMemory() {
+        int required = memorySize + Integer.BYTES + scratchSize;
+        if (required > memory.length) {
+            memory = Arrays.copyOf(memory, Math.min(memoryBytes, Math.max(required, memory.length * 2)));
+        }
+        ByteBuffer.wrap(memory, memorySize, Integer.BYTES).putInt(scratchSize);
+        System.arraycopy(scratch, 0, memory, memorySize + Integer.BYTES, scratchSize);
+        memorySize = required;
+    }
+
+    private void appendToFile(int size) throws IOException {
+        if (channel == null) {
+            file = directory == null
+                    ? Files.createTempFile("result-spool", ".tmp")
+                    : Files.createTempFile(directory, "result-spool", ".tmp");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        }
+        if (writeBuffer.remaining() < size) {
+            flush();
+        }
+        if (writeBuffer.remaining() < size) {
+            ByteBuffer large = ByteBuffer.allocate(size);
+            large.putInt(scratchSize).put(scratch, 0, scratchSize).flip();
+            write(large);
+        } else {
+            writeBuffer.putInt(scratchSize).put(scratch, 0, scratchSize);
+        }
+        fileSize += size;
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        write(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void encode(Record record) {
+        scratchSize = 0;
+        List<Field> fields = record.getRecord();
+        if (fields == null) {
+            putVarint(-1);
+            return;
+        }
+        putVarint(fields.size());
+        for (Field field : fields) {
+            String value = field.getValue();
+            int flags = (field.isSetIsNull() ? IS_NULL_SET : 0)
+                    | (field.isIsNull() ? IS_NULL : 0)
+                    | (value != null ? HAS_VALUE : 0);
+            putByte(flags);
+            if (value != null) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                putVarint(bytes.length);
+                ensureScratch(bytes.length);
+                System.arraycopy(bytes, 0, scratch, scratchSize, bytes.length);
+                scratchSize += bytes.length;
+            }
+        }
+    }
+
+    private void putVarint(int value) {
+        // zigzag, so -1 marking missing fields takes a single byte
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            putByte((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        putByte(zigzag);
+    }
+
+    private void putByte(int value) {
+        ensureScratch(1);
+        scratch[scratchSize++] = (byte) value;
+    }
+
+    private void ensureScratch(int bytes) {
+        if (scratchSize + bytes > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(scratchSize + bytes, scratch.length * 2));
+        }
+    }
+
+    private static Record decode(ByteBuffer buffer) {
+        int size = getVarint(buffer);
+        if (size < 0) {
+            return new Record();
+        }
+        List<Field> fields = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int flags = buffer.get();
+            Field field = new Field();
+            if ((flags & IS_NULL_SET) != 0) {
+                field.setIsNull((flags & IS_NULL) != 0);
+            }
+            if ((flags & HAS_VALUE) != 0) {
+                byte[] bytes = new byte[getVarint(buffer)];
+                buffer.get(bytes);
+                field.setValue(new String(bytes, StandardCharsets.UTF_8));
+            }
+            fields.add(field);
+        }
+        return new Record(fields);
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            zigzag |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * Reads records in the order they were appended.
+     */
+    final class Reader {
+
+        private long position;
+        private MappedByteBuffer mapped;
+        private long mappedStart;
+
+        boolean hasNext() {
+            return position < memorySize + fileSize;
+        }
+
+        Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                ByteBuffer buffer;
+                if (position < memorySize) {
+                    buffer = ByteBuffer.wrap(memory, (int) position, memorySize - (int) position);
+                } else {
+                    long offset = position - memorySize;
+                    map(offset, Integer.BYTES);
+                    map(offset, Integer.BYTES + mapped.getInt((int) (offset - mappedStart)));
+                    buffer = mapped.duplicate();
+                    buffer.position((int) (offset - mappedStart));
+                }
+                int size = buffer.getInt();
+                Record record = decode(buffer);
+                position += Integer.BYTES + size;
+                return record;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Maps a segment of the file containing the given range, if the current one doesn't.
+         */
+        private void map(long offset, int length) throws IOException {
+            if (mapped != null && offset >= mappedStart && offset + length <= mappedStart + mapped.limit()) {
+                return;
+            }
+            long size = Math.max(length, Math.min(SEGMENT_BYTES, fileSize - offset));
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            mappedStart = offset;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.zoomdata.connector.example.framework.api.ITypesMapping;
+import com.zoomdata.connector.example.framework.common.ThriftTypeFunction;
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.Record;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts rows of a result set to records.
+ *
+ * Column extractors are resolved once per result set, so decoding a row does not touch types mapping.
+ */
+public final class RowDecoder {
+
+    private final ThriftTypeFunction[] extractors;
+
+    private RowDecoder(ThriftTypeFunction[] extractors) {
+        this.extractors = extractors;
+    }
+
+    /**
+     * @param typesMapping types mapping of the data provider
+     * @param columnTypes  JDBC type names of columns in order of the result set
+     */
+    public static RowDecoder compile(ITypesMapping typesMapping, List<String> columnTypes) {
+        ThriftTypeFunction[] extractors = new ThriftTypeFunction[columnTypes.size()];
+        for (int i = 0; i < extractors.length; i++) {
+            extractors[i] = typesMapping.metaForType(columnTypes.get(i)).getRsFunction();
+        }
+        return new RowDecoder(extractors);
+    }
+
+    public int getColumnCount() {
+        return extractors.length;
+    }
+
+    /**
+     * Reads current row of the result set. Cursor of the result set is not moved.
+     */
+    public Record decode(ResultSet resultSet) throws SQLException {
+        List<Field> fields = new ArrayList<>(extractors.length);
+        for (int i = 0; i < extractors.length; i++) {
+            fields.add(extractors[i].apply(resultSet, i + 1));
+        }
+        return new Record().setRecord(fields);
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.zoomdata.connector.example.framework.async.AsyncException;
+import com.zoomdata.connector.example.framework.async.Cursor;
+import com.zoomdata.connector.example.framework.async.IComputeTask;
+import com.zoomdata.connector.example.framework.async.IComputeTaskFactory;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reads the whole result into a {@link ResultSpool} right after execution and closes the underlying task,
+ * so the connection returns to the pool regardless of how slowly the client fetches pages.
+ *
+ * If the result exceeds the size limit of the spool, spooled records are returned followed by the rest
+ * of the result read from the underlying cursor, which keeps the connection until the task is closed.
+ */
+class SpoolingComputeTaskFactory implements IComputeTaskFactory {
+
+    private final IComputeTaskFactory delegate;
+    private final int memoryBytes;
+    private final long maxBytes;
+    private final Path directory;
+
+    SpoolingComputeTaskFactory(IComputeTaskFactory delegate, int memoryBytes, long maxBytes, Path directory) {
+        this.delegate = delegate;
+        this.memoryBytes = memoryBytes;
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+    }
+
+    @Override
+    public IComputeTask create() {
+        return new SpoolingTask(delegate.create());
+    }
+
+    @Override
+    public String getRawQuery() {
+        return delegate.getRawQuery();
+    }
+
+    @Override
+    public int getFetchSize() {
+        return delegate.getFetchSize();
+    }
+
+    @Override
+    public Object getQueryKey() {
+        return delegate.getQueryKey();
+    }
+
+    private final class SpoolingTask implements IComputeTask {
+
+        private final IComputeTask task;
+        private volatile ResultSpool spool;
+        private volatile boolean spooled;
+        private volatile boolean closed;
+        private boolean computed;
+
+        private SpoolingTask(IComputeTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public Cursor compute() {
+            if (computed) {
+                // next batch of a result which didn't fit into the spool
+                return task.compute();
+            }
+            computed = true;
+
+            Cursor source = task.compute();
+            List<ResponseMetadata> metadata = source.getMetadata();
+            ResultSpool resultSpool = new ResultSpool(memoryBytes, maxBytes, directory);
+            spool = resultSpool;
+            try {
+                while (true) {
+                    while (source.hasNext()) {
+                        if (closed) {
+                            throw new AsyncException("Task is closed while spooling");
+                        }
+                        Record record = source.next();
+                        if (!resultSpool.append(record)) {
+                            resultSpool.finish();
+                            return new SpoolCursor(metadata, resultSpool.reader(), record, source);
+                        }
+                    }
+                    if (!source.hasNextBatch()) {
+                        break;
+                    }
+                    source = task.compute();
+                }
+                resultSpool.finish();
+            } catch (RuntimeException e) {
+                resultSpool.close();
+                throw e;
+            }
+
+            spooled = true;
+            task.close();
+            return new SpoolCursor(metadata, resultSpool.reader(), null, null);
+        }
+
+        @Override
+        public double progress() {
+            return spooled ? 100 : task.progress();
+        }
+
+        @Override
+        public void cancel() {
+            if (!spooled) {
+                task.cancel();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            if (!spooled) {
+                task.close();
+            }
+            ResultSpool resultSpool = spool;
+            if (resultSpool != null) {
+                resultSpool.close();
+            }
+        }
+    }
+
+    /**
+     * Returns spooled records, then the record which didn't fit into the spool and the rest of the source.
+     */
+    private static final class SpoolCursor implements Cursor {
+
+        private final List<ResponseMetadata> metadata;
+        private final ResultSpool.Reader reader;
+        private Record pending;
+        private final Cursor source;
+
+        private SpoolCursor(List<ResponseMetadata> metadata, ResultSpool.Reader reader, Record pending,
+                            Cursor source) {
+            this.metadata = metadata;
+            this.reader = reader;
+            this.pending = pending;
+            this.source = source;
+        }
+
+        @Override
+        public List<ResponseMetadata> getMetadata() {
+            return metadata;
+        }
+
+        @Override
+        public boolean hasNextBatch() {
+            return source != null && source.hasNextBatch();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return reader.hasNext() || pending != null || source != null && source.hasNext();
+        }
+
+        @Override
+        public Record next() {
+            if (reader.hasNext()) {
+                return reader.next();
+            }
+            if (pending != null) {
+                Record record = pending;
+                pending = null;
+                return record;
+            }
+            return source.next();
+        }
+
+        @Override
+        public void setFetchSize(int rows) {
+            if (source != null) {
+                source.setFetchSize(rows);
+            }
+        }
+    }
+}
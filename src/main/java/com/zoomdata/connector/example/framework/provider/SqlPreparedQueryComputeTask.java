@@ -13,6 +13,11 @@ public class SqlPreparedQueryComputeTask extends AbstractSqlComputeTask {
         super(connection, statement, typesMapping);
     }
 
+    public SqlPreparedQueryComputeTask(Connection connection, PreparedStatement statement, ITypesMapping typesMapping,
+                                       QueryProgress queryProgress) {
+        super(connection, statement, typesMapping, queryProgress);
+    }
+
     @Override
     protected ResultSet execute(Statement statement) throws SQLException {
         return ((PreparedStatement) statement).executeQuery();
@@ -12,6 +12,7 @@ import com.zoomdata.connector.example.framework.common.sql.ParametrizedQuery;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Arrays;
 
 public class SqlPreparedQueryComputeTaskFactory implements IComputeTaskFactory {
 
@@ -54,4 +55,13 @@ public class SqlPreparedQueryComputeTaskFactory implements IComputeTaskFactory {
     public String getRawQuery() {
         return query.toString();
     }
+
+    @Override
+    public Object getQueryKey() {
+        return queryKey(query);
+    }
+
+    protected static Object queryKey(ParametrizedQuery query) {
+        return Arrays.asList(query.getSql(), query.getParameters());
+    }
 }
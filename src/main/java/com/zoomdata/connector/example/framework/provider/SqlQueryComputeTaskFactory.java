@@ -58,4 +58,9 @@ public class SqlQueryComputeTaskFactory implements IComputeTaskFactory {
     public int getFetchSize() {
         return fetchSize;
     }
+
+    @Override
+    public Object getQueryKey() {
+        return query;
+    }
 }
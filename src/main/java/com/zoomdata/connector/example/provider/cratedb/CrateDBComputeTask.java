@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.provider.cratedb;
+
+import com.zoomdata.connector.example.framework.api.ITypesMapping;
+import com.zoomdata.connector.example.framework.common.SQLConnectionPoolKey;
+import com.zoomdata.connector.example.framework.provider.QueryProgress;
+import com.zoomdata.connector.example.framework.provider.SqlPreparedQueryComputeTask;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+public class CrateDBComputeTask extends SqlPreparedQueryComputeTask {
+
+    private final CrateDBJobsMonitor jobsMonitor;
+    private final SQLConnectionPoolKey poolKey;
+    private final String tag;
+
+    public CrateDBComputeTask(Connection connection, PreparedStatement statement, ITypesMapping typesMapping,
+                              QueryProgress queryProgress, CrateDBJobsMonitor jobsMonitor,
+                              SQLConnectionPoolKey poolKey, String tag) {
+        super(connection, statement, typesMapping, queryProgress);
+        this.jobsMonitor = jobsMonitor;
+        this.poolKey = poolKey;
+        this.tag = tag;
+    }
+
+    /**
+     * Cancel of the statement doesn't reliably stop distributed execution, so the job is killed as well.
+     */
+    @Override
+    public void cancel() {
+        jobsMonitor.kill(poolKey, tag);
+        super.cancel();
+    }
+
+    @Override
+    public void close() {
+        jobsMonitor.untrack(poolKey, tag);
+        super.close();
+    }
+}
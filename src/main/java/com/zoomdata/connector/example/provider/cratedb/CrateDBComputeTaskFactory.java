@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.provider.cratedb;
+
+import com.google.common.base.Supplier;
+import com.zoomdata.connector.example.framework.api.ITypesMapping;
+import com.zoomdata.connector.example.framework.common.SQLConnectionPoolKey;
+import com.zoomdata.connector.example.framework.common.sql.ParametrizedQuery;
+import com.zoomdata.connector.example.framework.provider.QueryProgress;
+import com.zoomdata.connector.example.framework.provider.SqlPreparedQueryComputeTask;
+import com.zoomdata.connector.example.framework.provider.SqlPreparedQueryComputeTaskFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+/**
+ * Creates tasks with statements tagged by request id, which are tracked by {@link CrateDBJobsMonitor}.
+ */
+public class CrateDBComputeTaskFactory extends SqlPreparedQueryComputeTaskFactory {
+
+    private final ParametrizedQuery untaggedQuery;
+    private final CrateDBJobsMonitor jobsMonitor;
+    private final SQLConnectionPoolKey poolKey;
+    private final long maxRuntimeMillis;
+    private final String tag;
+    private final String schema;
+    private final String table;
+    private final long limit;
+
+    /**
+     * @param maxRuntimeMillis runtime ceiling of the datasource, 0 if not limited
+     * @param tag              tag of the statement, unique among running statements
+     * @param schema           schema of the queried table, <code>null</code> for default schema
+     * @param table            queried table, <code>null</code> if rows of the result can't be estimated by the table
+     * @param limit            limit of returned rows, 0 if not limited
+     */
+    public CrateDBComputeTaskFactory(Supplier<Connection> connectionSupplier, ParametrizedQuery query,
+                                     ITypesMapping typesMapping, int fetchSize, CrateDBJobsMonitor jobsMonitor,
+                                     SQLConnectionPoolKey poolKey, long maxRuntimeMillis, String tag,
+                                     String schema, String table, long limit) {
+        super(connectionSupplier,
+                new ParametrizedQuery(CrateDBJobsMonitor.tagStatement(query.getSql(), tag), query.getParameters()),
+                typesMapping, fetchSize);
+        this.untaggedQuery = query;
+        this.jobsMonitor = jobsMonitor;
+        this.poolKey = poolKey;
+        this.maxRuntimeMillis = maxRuntimeMillis;
+        this.tag = tag;
+        this.schema = schema;
+        this.table = table;
+        this.limit = limit;
+    }
+
+    /**
+     * Tag differs for every request, so identical queries are compared without it.
+     */
+    @Override
+    public Object getQueryKey() {
+        return queryKey(untaggedQuery);
+    }
+
+    @Override
+    protected SqlPreparedQueryComputeTask createComputeTask(Connection connection, PreparedStatement statement) {
+        QueryProgress queryProgress = new QueryProgress();
+        jobsMonitor.track(poolKey, maxRuntimeMillis, tag, queryProgress, schema, table, limit);
+        return new CrateDBComputeTask(connection, statement, typesMapping, queryProgress, jobsMonitor, poolKey, tag);
+    }
+}
@@ -3,35 +3,125 @@
  */
 package com.zoomdata.connector.example.provider.cratedb;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zoomdata.connector.example.framework.annotation.Connector;
 import com.zoomdata.connector.example.framework.api.IDescriptionProvider;
+import com.zoomdata.connector.example.framework.async.Deadline;
+import com.zoomdata.connector.example.framework.async.IComputeTaskFactory;
+import com.zoomdata.connector.example.framework.async.RequestContext;
+import com.zoomdata.connector.example.framework.common.SQLConnectionPoolKey;
+import com.zoomdata.connector.example.framework.common.sql.ParametrizedQuery;
 import com.zoomdata.connector.example.framework.common.sql.SQLQueryBuilder;
+import com.zoomdata.connector.example.framework.common.sql.StructuredToSQLTransformer;
 import com.zoomdata.connector.example.framework.provider.GenericSQLDataProvider;
+import com.zoomdata.connector.example.framework.provider.HistogramLabelingComputeTaskFactory;
 import com.zoomdata.connector.example.framework.provider.serverdescription.GenericDescriptionProvider;
 import com.zoomdata.connector.example.provider.cratedb.sql.CrateDBSQLQueryBuilder;
+import com.zoomdata.connector.example.provider.cratedb.sql.LastValueStrategy;
+import com.zoomdata.gen.edc.request.CollectionInfo;
+import com.zoomdata.gen.edc.request.DataReadRequest;
+import com.zoomdata.gen.edc.metric.MetricType;
 import com.zoomdata.gen.edc.request.MetaDescribeRequest;
+import com.zoomdata.gen.edc.request.RequestInfo;
+import com.zoomdata.gen.edc.request.RequestType;
+import com.zoomdata.gen.edc.request.StructuredRequest;
+import com.zoomdata.gen.edc.request.StructuredRequestType;
 import com.zoomdata.gen.edc.types.FieldMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+import static com.zoomdata.connector.example.framework.common.PropertiesExtractor.extractCustomParameter;
+import static com.zoomdata.connector.example.framework.common.sql.impl.Utils.isCustomSql;
+import static com.zoomdata.connector.example.framework.provider.serverdescription.connectionparameters.impl.IntegerConnectionParameter.IntegerConnectionParameterBuilder.intParameter;
 import static com.zoomdata.connector.example.framework.provider.serverdescription.connectionparameters.impl.PasswordConnectionParameter.PasswordConnectionParameterBuilder.passwordParameter;
 import static com.zoomdata.connector.example.framework.provider.serverdescription.connectionparameters.impl.StringConnectionParameter.StringConnectionParameterBuilder.stringParameter;
 import static com.zoomdata.connector.example.provider.cratedb.CrateDBDataProvider.CONNECTION_TYPE;
+import static java.util.Optional.ofNullable;
 
 @Connector(CONNECTION_TYPE)
 public class CrateDBDataProvider extends GenericSQLDataProvider {
 
+    @SuppressWarnings("checkstyle:constantname")
+    private static final Logger log = LoggerFactory.getLogger(CrateDBDataProvider.class);
+
     // The unique connection type that will be registered in Zoomdata
     protected final static String CONNECTION_TYPE = "CRATEDB";
 
+    // Feature of LAST_VALUE metrics, which depends on the server of the datasource
+    protected final static String LV_METRIC_FEATURE = "FEATURE.LV_METRIC";
+
+    // Parts of messages of errors of unknown functions and unsupported syntax
+    private static final Set<String> UNSUPPORTED_MESSAGES = ImmutableSet.of(
+            "unknown function", "cannot find function", "unsupportedfeature", "sqlparseexception",
+            "mismatched input", "no viable alternative");
+
+    // Connection parameter overriding cratedb.jobs.max.runtime.sec for the datasource
+    protected final static String MAX_QUERY_RUNTIME_SEC = "MAX_QUERY_RUNTIME_SEC";
+
+    // Request parameter forcing (true) or disabling (false) scatter-gather execution of AGG requests
+    protected final static String SCATTER_GATHER_REQUEST_PARAMETER = "scatter_gather";
+
     // This is how we'll assign special flags for Zoomdata such as PARTITION
     private final CrateDBMetaFlagsDetector metaFlagsDetector;
 
+    // Tracks running statements in sys.jobs to report progress of queries
+    private final CrateDBJobsMonitor jobsMonitor = new CrateDBJobsMonitor(this::monitorConnection);
+
+    @Value("${cratedb.jobs.monitor.interval.ms:1000}")
+    private long jobsMonitorIntervalMillis = 1000;
+
+    @Value("${cratedb.jobs.max.runtime.sec:0}")
+    private long jobsMaxRuntimeSec = 0;
+
+    @Value("${cratedb.partition.scan.parallelism:0}")
+    private int partitionScanParallelism = 0;
+
+    @Value("${cratedb.partition.scan.max.connections:8}")
+    private int partitionScanMaxConnections = 8;
+
+    @Value("${cratedb.scatter.gather.parallelism:8}")
+    private int scatterGatherParallelism = 8;
+
+    @Value("${cratedb.scatter.gather.min.docs:0}")
+    private long scatterGatherMinDocs = 0;
+
+    @Value("${cratedb.session.statement.timeout:false}")
+    private boolean sessionStatementTimeout = false;
+
+    @Value("${cratedb.last.value.strategy:auto}")
+    private String lastValueStrategy = "auto";
+
+    // LAST_VALUE strategies detected per datasource
+    private final Map<SQLConnectionPoolKey, LastValueStrategy> lastValueStrategies = new ConcurrentHashMap<>();
+
+    // Limits partition queries of all scans and scatter-gather aggregations per datasource
+    private final Map<SQLConnectionPoolKey, Semaphore> partitionScanPermits = new ConcurrentHashMap<>();
+
+    private final ExecutorService partitionScanExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("cratedb-partition-scan-%d").build());
+
     public CrateDBDataProvider() {
         super(
             new CrateDBSQLTemplates(),
@@ -41,6 +131,39 @@ public class CrateDBDataProvider extends GenericSQLDataProvider {
         metaFlagsDetector = new CrateDBMetaFlagsDetector(sqlTemplates);
     }
 
+    @PostConstruct
+    public void startJobsMonitor() {
+        jobsMonitor.start(jobsMonitorIntervalMillis);
+    }
+
+    @PreDestroy
+    public void stopJobsMonitor() {
+        jobsMonitor.shutdown();
+    }
+
+    // The jobs monitor connects outside of the pools and without deadlines of requests,
+    // so it can kill jobs when pools are exhausted by the queries it should stop
+    private Connection monitorConnection(SQLConnectionPoolKey key) throws SQLException {
+        try {
+            Class.forName(jdbcClassName());
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("JDBC driver is not found: " + jdbcClassName(), e);
+        }
+        Properties properties = new Properties();
+        if (key.getUsername() != null) {
+            properties.setProperty("user", key.getUsername());
+        }
+        if (key.getPassword() != null) {
+            properties.setProperty("password", key.getPassword());
+        }
+        return DriverManager.getConnection(key.getJdbcUrl(), properties);
+    }
+
+    @PreDestroy
+    public void stopPartitionScans() {
+        partitionScanExecutor.shutdownNow();
+    }
+
     @Override
     public SQLQueryBuilder createSqlQueryBuilder() {
         return new CrateDBSQLQueryBuilder();
@@ -81,12 +204,255 @@ public class CrateDBDataProvider extends GenericSQLDataProvider {
         metaFlagsDetector.populateMetaFlags(connection, request.getCollectionInfo(), metadata);
     }
 
+    // Servers supporting the statement_timeout session setting stop distributed execution of statements
+    // past the deadline themselves, the setting is reset before the connection returns to the pool
+    @Override
+    protected void applySessionDeadline(Connection connection, Deadline deadline) throws SQLException {
+        if (sessionStatementTimeout) {
+            setStatementTimeout(connection, Math.max(1, deadline.remainingMillis()));
+        }
+    }
+
+    @Override
+    protected void clearSessionDeadline(Connection connection) throws SQLException {
+        if (sessionStatementTimeout) {
+            setStatementTimeout(connection, 0);
+        }
+    }
+
+    // Statements are tagged by request id for the jobs monitor, so their SQL never repeats and pooled
+    // statements would never be reused. sys.jobs shows only the statement, so the tag can't move to the session
+    @Override
+    protected boolean poolPreparedStatements() {
+        return false;
+    }
+
+    private static void setStatementTimeout(Connection connection, long millis) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET SESSION statement_timeout = '" + millis + "ms'");
+        }
+    }
+
+    // Last values are computed by the best strategy the server supports, the strategy is a part of the plan key
+    // as datasources of different versions build different SQL for the same request
+    @Override
+    protected ParametrizedQuery createParametrizedQuery(DataReadRequest request) {
+        if (!hasLastValue(request)) {
+            return super.createParametrizedQuery(request);
+        }
+        LastValueStrategy strategy = lastValueStrategy(request.getRequestInfo());
+        return planCache.transform(request, strategy,
+                () -> new CrateDBSQLQueryBuilder().withLastValueStrategy(strategy).withBindParameters(bindParameters),
+                sqlTemplates);
+    }
+
+    private static boolean hasLastValue(DataReadRequest request) {
+        if (request.getType() != RequestType.STRUCTURED
+                || request.getStructured().getType() != StructuredRequestType.AGG) {
+            return false;
+        }
+        return ofNullable(request.getStructured().getAggDataRequest().getMetrics())
+                .map(metrics -> metrics.stream().anyMatch(metric -> metric.getType() == MetricType.LAST_VALUE))
+                .orElse(false);
+    }
+
+    // Detected strategies are cached per datasource, a detection failed for other reasons than an unsupported
+    // function falls back to JOIN without caching, so the next request detects again
+    private LastValueStrategy lastValueStrategy(RequestInfo requestInfo) {
+        if (!"auto".equalsIgnoreCase(lastValueStrategy)) {
+            return LastValueStrategy.valueOf(lastValueStrategy.toUpperCase());
+        }
+        SQLConnectionPoolKey key = keyFromRequestInfo(requestInfo);
+        LastValueStrategy strategy = lastValueStrategies.get(key);
+        if (strategy != null) {
+            return strategy;
+        }
+        try {
+            strategy = detectLastValueStrategy(requestInfo);
+        } catch (SQLException e) {
+            log.warn("Failed to detect LAST_VALUE strategy of " + key + ", join is used", e);
+            return LastValueStrategy.JOIN;
+        }
+        lastValueStrategies.put(key, strategy);
+        return strategy;
+    }
+
+    // max_by aggregate and window functions are supported by recent servers only, a failed statement
+    // doesn't affect later statements of the connection
+    private LastValueStrategy detectLastValueStrategy(RequestInfo requestInfo) throws SQLException {
+        try (Connection connection = createConnection(requestInfo)) {
+            if (isSupported(connection, "select max_by(name, name) from sys.cluster")) {
+                return LastValueStrategy.MAX_BY;
+            }
+            if (isSupported(connection,
+                    "select row_number() over (partition by name order by name desc nulls last) from sys.cluster")) {
+                return LastValueStrategy.WINDOW;
+            }
+            return LastValueStrategy.JOIN;
+        }
+    }
+
+    /**
+     * @throws SQLException if the statement failed for other reasons than unknown function or syntax,
+     *                      like a lost connection or a timeout
+     */
+    private static boolean isSupported(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeQuery(sql).close();
+            return true;
+        } catch (SQLException e) {
+            if (isUnsupported(e)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    // Syntax errors and unknown functions are reported with SQL states of classes 42 and 0A by the PostgreSQL
+    // protocol, and only by the message by the transport protocol of older drivers
+    private static boolean isUnsupported(SQLException e) {
+        String state = e.getSQLState();
+        if (state != null && (state.startsWith("42") || state.startsWith("0A"))) {
+            return true;
+        }
+        String message = String.valueOf(e.getMessage()).toLowerCase();
+        return UNSUPPORTED_MESSAGES.stream().anyMatch(message::contains);
+    }
+
+    // LAST_VALUE is offered only for datasources which compute it in the same scan as other metrics,
+    // the join of the whole table is too expensive
+    @Override
+    protected Map<String, String> features(RequestInfo requestInfo) {
+        Map<String, String> features = super.features(requestInfo);
+        boolean lastValue;
+        try {
+            lastValue = requestInfo != null && lastValueStrategy(requestInfo) != LastValueStrategy.JOIN;
+        } catch (RuntimeException e) {
+            log.debug("LAST_VALUE is not offered without a datasource", e);
+            lastValue = false;
+        }
+        if (Boolean.toString(lastValue).equals(features.get(LV_METRIC_FEATURE))) {
+            return features;
+        }
+        Map<String, String> datasourceFeatures = new HashMap<>(features);
+        datasourceFeatures.put(LV_METRIC_FEATURE, Boolean.toString(lastValue));
+        return datasourceFeatures;
+    }
+
+    // Every CrateDB table has the unique _id system column, custom SQL has no such column
+    @Override
+    protected String keysetTiebreaker(DataReadRequest request) {
+        if (request.getType() != RequestType.STRUCTURED || isCustomSql(request.getStructured().getCollectionInfo())) {
+            return null;
+        }
+        return "_id";
+    }
+
+    // Statements are tagged by request id so they can be found in sys.jobs. Rows of raw requests are estimated
+    // by documents count of the table, rows of aggregated requests can't be estimated that way.
+    // Statements of partition groups are tagged by request id and group number
+    @Override
+    protected IComputeTaskFactory newComputeTaskFactory(DataReadRequest request,
+                                                        Supplier<Connection> connectionSupplier,
+                                                        ParametrizedQuery query, int fetchSize,
+                                                        RequestContext context) {
+        String schema = null;
+        String table = null;
+        long limit = 0;
+        StructuredRequest structured = request.getStructured();
+        if (request.getType() == RequestType.STRUCTURED && structured.getType() == StructuredRequestType.RAW) {
+            CollectionInfo collectionInfo = structured.getCollectionInfo();
+            if (!isCustomSql(collectionInfo)) {
+                schema = collectionInfo.getSchema();
+                table = collectionInfo.getCollection();
+                limit = structured.getRawDataRequest().getLimit();
+            }
+        }
+        IComputeTaskFactory factory = tagged(request, connectionSupplier, query, fetchSize, context.getRequestId(),
+                schema, table, limit);
+        if (partitionScanParallelism > 1 && CrateDBPartitionScanFactory.isApplicable(request)
+                && isMultiPartitioned(request, connectionSupplier)) {
+            return new CrateDBPartitionScanFactory(connectionSupplier, request, factory, this::createParametrizedQuery,
+                    (groupQuery, group) -> tagged(request, connectionSupplier, groupQuery, fetchSize,
+                            context.getRequestId() + "-p" + group, null, null, 0),
+                    metaFlagsDetector, fetchSize, partitionScanParallelism, partitionPermits(request),
+                    partitionScanExecutor);
+        }
+        return HistogramLabelingComputeTaskFactory.labeled(request,
+                scatterGathered(request, connectionSupplier, factory, context));
+    }
+
+    // Windows are tagged by request id and window number, their rows are counted by the batched task itself
+    @Override
+    protected IComputeTaskFactory newKeysetWindowComputeTaskFactory(DataReadRequest request,
+                                                                    Supplier<Connection> connectionSupplier,
+                                                                    ParametrizedQuery windowQuery, int fetchSize,
+                                                                    RequestContext context, int window) {
+        return tagged(request, connectionSupplier, windowQuery, fetchSize, context.getRequestId() + "-w" + window,
+                null, null, 0);
+    }
+
+    private boolean isMultiPartitioned(DataReadRequest request, Supplier<Connection> connectionSupplier) {
+        CollectionInfo collectionInfo = request.getStructured().getCollectionInfo();
+        try (Connection connection = connectionSupplier.get()) {
+            return CrateDBPartitions.count(connection, collectionInfo) > 1;
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Failed to count partitions of " + collectionInfo.getCollection()
+                    + ", table is read by a single query", e);
+            return false;
+        }
+    }
+
+    private CrateDBComputeTaskFactory tagged(DataReadRequest request, Supplier<Connection> connectionSupplier,
+                                             ParametrizedQuery query, int fetchSize, String tag,
+                                             String schema, String table, long limit) {
+        return new CrateDBComputeTaskFactory(connectionSupplier, query, typesMapping, fetchSize, jobsMonitor,
+                keyFromRequestInfo(request.getRequestInfo()), maxRuntimeMillis(request), tag, schema, table, limit);
+    }
+
+    private long maxRuntimeMillis(DataReadRequest request) {
+        long maxRuntimeSec = extractCustomParameter(request.getRequestInfo(), MAX_QUERY_RUNTIME_SEC)
+                .map(Long::valueOf)
+                .orElse(jobsMaxRuntimeSec);
+        return TimeUnit.SECONDS.toMillis(maxRuntimeSec);
+    }
+
+    // AGG requests to partitioned tables above cratedb.scatter.gather.min.docs documents are split by partitions
+    // and merged in the connector, request parameter scatter_gather forces or disables it regardless of the size
+    private IComputeTaskFactory scatterGathered(DataReadRequest request, Supplier<Connection> connectionSupplier,
+                                                IComputeTaskFactory factory, RequestContext context) {
+        if (scatterGatherParallelism <= 1 || !CrateDBScatterGatherFactory.isApplicable(request)) {
+            return factory;
+        }
+        Optional<Boolean> forced = ofNullable(request.getRequestInfo().getParams())
+                .map(params -> params.get(SCATTER_GATHER_REQUEST_PARAMETER))
+                .map(Boolean::valueOf);
+        if (!forced.orElse(scatterGatherMinDocs > 0)) {
+            return factory;
+        }
+        long minDocs = forced.isPresent() ? 0 : scatterGatherMinDocs;
+        return new CrateDBScatterGatherFactory(connectionSupplier, request, factory,
+                partial -> StructuredToSQLTransformer.transform(partial,
+                        new CrateDBSQLQueryBuilder().withBindParameters(bindParameters),
+                        sqlTemplates),
+                metaFlagsDetector, typesMapping, scatterGatherParallelism, minDocs, partitionPermits(request),
+                partitionScanExecutor, context.getDeadline(), jobsMonitor,
+                keyFromRequestInfo(request.getRequestInfo()), maxRuntimeMillis(request), context.getRequestId());
+    }
+
+    private Semaphore partitionPermits(DataReadRequest request) {
+        return partitionScanPermits.computeIfAbsent(keyFromRequestInfo(request.getRequestInfo()),
+                key -> new Semaphore(partitionScanMaxConnections));
+    }
+
     @Override
     protected IDescriptionProvider createDescriptionProvider() {
         return new GenericDescriptionProvider(CONNECTION_TYPE)
             .addParameters(stringParameter("JDBC_URL").isRequired(true).description("Specify JDBC URL in the required format"))
             .addParameters(stringParameter("USER_NAME").description("Specify the user name if connecting to your database requires authentication"))
             .addParameters(passwordParameter("PASSWORD").description("Specify the password if connecting to your database requires authentication"))
+            .addParameters(intParameter(MAX_QUERY_RUNTIME_SEC).min(0).description("Specify the time in seconds after which running queries are killed, 0 disables the limit"))
+            .addParameters(intParameter(RESULT_CACHE_TTL_SEC).min(0).description("Specify the time in seconds query results are cached for, 0 disables caching"))
             .maxVersion("1.0")
             .minVersion("0.57")
             .svgIcon("/crateio_logo.svg");
@@ -40,10 +40,13 @@ public class CrateDBFeatures implements IFeatures {
                     .put("FEATURE.PAGING_AND_SORTING.AGGREGATED", "true")
                     // Not a real "feature" but this is required for Zoomdata to communicate
                     .put("REQUEST.TYPE", "STRUCTURED")
-                    // Crate doesn't support the necessary syntax for these features
+                    // Native percentile aggregate with a single fraction is supported since Crate 0.55,
+                    // so by all versions from the minimal supported 0.57
+                    .put("FEATURE.PERCENTILES", "true")
+                    // Enabled per datasource by CrateDBDataProvider when the server supports max_by or window functions
                     .put("FEATURE.LV_METRIC", "false")
-                    .put("FEATURE.PERCENTILES", "false")
-                    .put("FEATURE.HISTOGRAM", "false")
+                    // Buckets are computed arithmetically by the server and labeled by the connector
+                    .put("FEATURE.HISTOGRAM", "true")
                     .build();
 
     @Override
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.provider.cratedb;
+
+import com.zoomdata.connector.example.framework.common.SQLConnectionPoolKey;
+import com.zoomdata.connector.example.framework.provider.QueryProgress;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang3.StringUtils.substringBetween;
+
+/**
+ * Tracks queries running in CrateDB by tags put into their statements.
+ *
+ * Each tick runs a single query to <code>sys.jobs</code> and a single query to <code>sys.shards</code> per datasource
+ * with tracked queries, regardless of how many queries are tracked. Results are reported to {@link QueryProgress}
+ * of the queries.
+ *
+ * Since cancelling of a statement doesn't reliably stop distributed execution, jobs of cancelled queries are killed
+ * with <code>KILL</code> until they disappear from <code>sys.jobs</code>. Jobs running longer than the runtime
+ * ceiling of their datasource are killed too.
+ *
+ * The monitor keeps its own connection per datasource while it has tracked queries, so it neither waits for
+ * connections of the queries it should relieve nor depends on their deadlines.
+ */
+@Slf4j
+public class CrateDBJobsMonitor {
+
+    public static final String TAG_PREFIX = "/* zoomdata:";
+    public static final String TAG_SUFFIX = " */";
+
+    private static final String RUNNING_JOBS_QUERY =
+            "select id, stmt from sys.jobs where stmt like '" + TAG_PREFIX + "%'";
+    private static final String DOCS_COUNT_QUERY =
+            "select schema_name, table_name, sum(num_docs) from sys.shards where \"primary\" = true "
+                    + "group by schema_name, table_name";
+
+    /**
+     * How long jobs of a cancelled query are looked for, a job may appear in sys.jobs after the cancel.
+     */
+    private static final long KILL_RETRY_MILLIS = 60_000L;
+
+    private final ConnectionFactory connectionFactory;
+    private final Map<SQLConnectionPoolKey, Datasource> datasources = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param connectionFactory opens monitoring connections, which must not be taken from pools of requests
+     */
+    public CrateDBJobsMonitor(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    public void start(long intervalMillis) {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        datasources.values().forEach(Datasource::closeConnection);
+    }
+
+    /**
+     * @return SQL with the tag comment, so the statement can be found in <code>sys.jobs</code>
+     */
+    public static String tagStatement(String sql, String tag) {
+        return TAG_PREFIX + tag + TAG_SUFFIX + " " + sql;
+    }
+
+    /**
+     * @param maxRuntimeMillis runtime ceiling of jobs of the datasource, 0 if not limited
+     * @param schema           schema of the queried table, <code>null</code> if expected rows are unknown
+     * @param table            queried table, <code>null</code> if expected rows are unknown
+     * @param limit            limit of returned rows, 0 if not limited
+     */
+    public void track(SQLConnectionPoolKey key, long maxRuntimeMillis, String tag, QueryProgress progress,
+                      String schema, String table, long limit) {
+        Datasource datasource = datasources.computeIfAbsent(key, k -> new Datasource());
+        datasource.maxRuntimeMillis = maxRuntimeMillis;
+        datasource.queries.put(tag, new TrackedQuery(progress, schema, table, limit));
+    }
+
+    public void untrack(SQLConnectionPoolKey key, String tag) {
+        Datasource datasource = datasources.get(key);
+        if (datasource != null) {
+            datasource.queries.remove(tag);
+        }
+    }
+
+    /**
+     * Kills jobs of the query asynchronously.
+     */
+    public void kill(SQLConnectionPoolKey key, String tag) {
+        Datasource datasource = datasources.get(key);
+        if (datasource == null) {
+            return;
+        }
+        datasource.pendingKills.put(tag, System.currentTimeMillis() + KILL_RETRY_MILLIS);
+        if (executor != null) {
+            executor.execute(() -> check(key, datasource));
+        }
+    }
+
+    private void tick() {
+        datasources.forEach(this::check);
+    }
+
+    private void check(SQLConnectionPoolKey key, Datasource datasource) {
+        if (datasource.queries.isEmpty() && datasource.pendingKills.isEmpty()) {
+            datasource.closeConnection();
+            return;
+        }
+        try (Statement statement = datasource.connection(key).createStatement()) {
+            Map<String, List<String>> jobs = runningJobs(statement);
+            killJobs(key, datasource, statement, jobs);
+            Map<String, Long> docsCounts = datasource.queries.isEmpty() ? new HashMap<>() : docsCounts(statement);
+            datasource.queries.forEach((tag, query) -> query.update(jobs.containsKey(tag), docsCounts));
+        } catch (Exception e) {
+            log.warn("Failed to monitor queries of datasource {}", key, e);
+            datasource.closeConnection();
+        }
+    }
+
+    /**
+     * @return ids of running jobs by tags, a query may run several statements with the same tag
+     */
+    private Map<String, List<String>> runningJobs(Statement statement) throws SQLException {
+        Map<String, List<String>> jobs = new HashMap<>();
+        try (ResultSet rs = statement.executeQuery(RUNNING_JOBS_QUERY)) {
+            while (rs.next()) {
+                String tag = substringBetween(rs.getString(2), TAG_PREFIX, TAG_SUFFIX);
+                if (tag != null) {
+                    jobs.computeIfAbsent(tag, t -> new ArrayList<>()).add(rs.getString(1));
+                }
+            }
+        }
+        return jobs;
+    }
+
+    private void killJobs(SQLConnectionPoolKey key, Datasource datasource, Statement statement,
+                          Map<String, List<String>> jobs) throws SQLException {
+        long now = System.currentTimeMillis();
+        datasource.pendingKills.entrySet().removeIf(kill -> !jobs.containsKey(kill.getKey()) && kill.getValue() < now);
+        for (Map.Entry<String, List<String>> tagJobs : jobs.entrySet()) {
+            String tag = tagJobs.getKey();
+            TrackedQuery query = datasource.queries.get(tag);
+            if (datasource.pendingKills.containsKey(tag)) {
+                log.info("Kill jobs {} of cancelled query {}", tagJobs.getValue(), tag);
+            } else if (query != null && datasource.maxRuntimeMillis > 0
+                    && now - query.trackedSince > datasource.maxRuntimeMillis) {
+                log.warn("Kill jobs {} of query {} running longer than {} ms at {}",
+                        tagJobs.getValue(), tag, datasource.maxRuntimeMillis, key);
+            } else {
+                continue;
+            }
+            for (String jobId : tagJobs.getValue()) {
+                statement.execute("KILL '" + jobId + "'");
+            }
+        }
+    }
+
+    private Map<String, Long> docsCounts(Statement statement) throws SQLException {
+        Map<String, Long> counts = new HashMap<>();
+        try (ResultSet rs = statement.executeQuery(DOCS_COUNT_QUERY)) {
+            while (rs.next()) {
+                counts.put(tableKey(rs.getString(1), rs.getString(2)), rs.getLong(3));
+            }
+        }
+        return counts;
+    }
+
+    private static String tableKey(String schema, String table) {
+        return schema + "." + table;
+    }
+
+    /**
+     * Opens a connection to the datasource for monitoring queries.
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection connect(SQLConnectionPoolKey key) throws SQLException;
+    }
+
+    private final class Datasource {
+        private final Map<String, TrackedQuery> queries = new ConcurrentHashMap<>();
+        private final Map<String, Long> pendingKills = new ConcurrentHashMap<>();
+        private volatile long maxRuntimeMillis;
+        private Connection connection;
+
+        /**
+         * @return the monitoring connection, reopened if it was closed after a failure
+         */
+        private synchronized Connection connection(SQLConnectionPoolKey key) throws SQLException {
+            if (connection == null || connection.isClosed()) {
+                connection = connectionFactory.connect(key);
+            }
+            return connection;
+        }
+
+        private synchronized void closeConnection() {
+            if (connection == null) {
+                return;
+            }
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.debug("Failed to close monitoring connection", e);
+            }
+            connection = null;
+        }
+    }
+
+    private static final class TrackedQuery {
+        private final QueryProgress progress;
+        private final String tableKey;
+        private final long limit;
+        private final long trackedSince = System.currentTimeMillis();
+
+        private TrackedQuery(QueryProgress progress, String schema, String table, long limit) {
+            this.progress = progress;
+            this.tableKey = table == null ? null : tableKey(schema == null ? "doc" : schema, table);
+            this.limit = limit;
+        }
+
+        private void update(boolean running, Map<String, Long> docsCounts) {
+            progress.setRunning(running);
+            Long docs = tableKey == null ? null : docsCounts.get(tableKey);
+            if (docs != null) {
+                progress.setExpectedRows(limit > 0 ? Math.min(limit, docs) : docs);
+            }
+        }
+    }
+}
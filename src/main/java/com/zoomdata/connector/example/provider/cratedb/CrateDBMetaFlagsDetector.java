@@ -21,6 +21,7 @@ import java.util.function.Predicate;
 import static com.zoomdata.connector.example.common.utils.FieldMetaFlag.PLAYABLE;
 import static com.zoomdata.connector.example.common.utils.FieldMetaFlag.addFlags;
 import static com.zoomdata.connector.example.framework.common.PropertiesExtractor.tableName;
+import static java.util.Collections.emptySet;
 import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.toSet;
 import static java.util.stream.Stream.of;
@@ -45,6 +46,15 @@ public class CrateDBMetaFlagsDetector {
                 .ifPresent(partitionedFields -> assignMetaFlagsToFields(metadata, partitionedFields));
     }
 
+    /**
+     * @return lower case names of columns the table is partitioned by, empty if it isn't partitioned
+     */
+    public Set<String> partitionedFields(Connection connection, CollectionInfo collectionInfo) {
+        return getCreateTableStatement(connection, collectionInfo)
+                .map(this::extractPartitionedFields)
+                .orElse(emptySet());
+    }
+
     private Optional<String> getCreateTableStatement(Connection connection, CollectionInfo collectionInfo) {
         try (Statement ps = connection.createStatement();
              ResultSet rs = ps.executeQuery(showStatement(collectionInfo))) {
@@ -82,6 +92,8 @@ public class CrateDBMetaFlagsDetector {
         return of(partitionedByClause.split(","))
                 .map(String::trim)
                 .map(this::extractColumnName)
+                .filter(column -> !column.isEmpty())
+                .map(String::toLowerCase)
                 .collect(toSet());
     }
 
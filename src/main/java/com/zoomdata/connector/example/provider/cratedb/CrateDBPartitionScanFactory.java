@@ -0,0 +1,426 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.provider.cratedb;
+
+import com.google.common.base.Supplier;
+import com.zoomdata.connector.example.framework.async.AsyncException;
+import com.zoomdata.connector.example.framework.async.Cursor;
+import com.zoomdata.connector.example.framework.async.IComputeTask;
+import com.zoomdata.connector.example.framework.async.IComputeTaskFactory;
+import com.zoomdata.connector.example.framework.common.sql.ParametrizedQuery;
+import com.zoomdata.connector.example.framework.provider.QueryProgress;
+import com.zoomdata.gen.edc.filter.Filter;
+import com.zoomdata.gen.edc.request.CollectionInfo;
+import com.zoomdata.gen.edc.request.DataReadRequest;
+import com.zoomdata.gen.edc.request.RawDataRequest;
+import com.zoomdata.gen.edc.request.RequestType;
+import com.zoomdata.gen.edc.request.StructuredRequest;
+import com.zoomdata.gen.edc.request.StructuredRequestType;
+import com.zoomdata.gen.edc.sort.RawSort;
+import com.zoomdata.gen.edc.sort.SortDir;
+import com.zoomdata.gen.edc.types.FieldType;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.zoomdata.connector.example.framework.common.sql.impl.Utils.isCustomSql;
+import static java.util.Optional.ofNullable;
+
+/**
+ * Scans a partitioned table by one query per group of partitions, each on its own pooled connection.
+ *
+ * Partitions are enumerated from <code>information_schema.table_partitions</code> when the task computes.
+ * Unsorted requests return rows of all groups as they arrive. Requests sorted by the partition column
+ * return groups one after another in the sort order, later groups are read ahead into bounded buffers.
+ * Queries of all scans of a datasource are limited by shared permits. Tasks of the whole request and of groups
+ * are created by factories of the provider, so every statement is tagged and tracked on its own.
+ */
+@Slf4j
+public class CrateDBPartitionScanFactory implements IComputeTaskFactory {
+
+    private static final long POLL_MILLIS = 100;
+    private static final Object END = new Object();
+
+    private final Supplier<Connection> connectionSupplier;
+    private final DataReadRequest request;
+    private final IComputeTaskFactory single;
+    private final Function<DataReadRequest, ParametrizedQuery> queryBuilder;
+    private final GroupFactory groupFactory;
+    private final CrateDBMetaFlagsDetector metaFlagsDetector;
+    private final int fetchSize;
+    private final int parallelism;
+    private final Semaphore permits;
+    private final Executor executor;
+
+    /**
+     * @param connectionSupplier connections enumerating partitions
+     * @param single             factory of the whole request, used when the table can't be split
+     * @param queryBuilder       builds query of a request with filter of a partitions group
+     * @param groupFactory       creates factories of group queries
+     * @param parallelism        max number of partition groups
+     * @param permits            permits of partition queries of the datasource
+     * @param executor           executor of partition queries
+     */
+    public CrateDBPartitionScanFactory(Supplier<Connection> connectionSupplier, DataReadRequest request,
+                                       IComputeTaskFactory single,
+                                       Function<DataReadRequest, ParametrizedQuery> queryBuilder,
+                                       GroupFactory groupFactory, CrateDBMetaFlagsDetector metaFlagsDetector,
+                                       int fetchSize, int parallelism, Semaphore permits, Executor executor) {
+        this.connectionSupplier = connectionSupplier;
+        this.request = request;
+        this.single = single;
+        this.queryBuilder = queryBuilder;
+        this.groupFactory = groupFactory;
+        this.metaFlagsDetector = metaFlagsDetector;
+        this.fetchSize = fetchSize;
+        this.parallelism = parallelism;
+        this.permits = permits;
+        this.executor = executor;
+    }
+
+    /**
+     * RAW requests to a table without offset can be scanned by partitions. Whether the table is partitioned
+     * by the first sorted column for sorted requests is checked when the scan starts.
+     */
+    public static boolean isApplicable(DataReadRequest request) {
+        if (request.getType() != RequestType.STRUCTURED) {
+            return false;
+        }
+        StructuredRequest structured = request.getStructured();
+        if (structured.getType() != StructuredRequestType.RAW || isCustomSql(structured.getCollectionInfo())
+                || structured.getFieldMetadata() == null) {
+            return false;
+        }
+        return structured.getRawDataRequest().getOffset() <= 0;
+    }
+
+    @Override
+    public IComputeTask create() {
+        return new ScanTask();
+    }
+
+    @Override
+    public String getRawQuery() {
+        return single.getRawQuery();
+    }
+
+    @Override
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    @Override
+    public Object getQueryKey() {
+        return single.getQueryKey();
+    }
+
+    @FunctionalInterface
+    public interface GroupFactory {
+
+        /**
+         * @param groupQuery query of the group
+         * @param group      number of the group within the scan, starting from 0
+         */
+        IComputeTaskFactory create(ParametrizedQuery groupQuery, int group);
+    }
+
+    private static final class Failure {
+        private final RuntimeException exception;
+
+        private Failure(RuntimeException exception) {
+            this.exception = exception;
+        }
+    }
+
+    private static final class Group {
+        private final int number;
+        private final ParametrizedQuery query;
+        private final BlockingQueue<Object> queue;
+        private volatile IComputeTask task;
+
+        private Group(int number, ParametrizedQuery query, BlockingQueue<Object> queue) {
+            this.number = number;
+            this.query = query;
+            this.queue = queue;
+        }
+    }
+
+    private final class ScanTask implements IComputeTask {
+
+        private final QueryProgress queryProgress = new QueryProgress();
+        private final CompletableFuture<List<ResponseMetadata>> metadata = new CompletableFuture<>();
+        private final List<Group> groups = new ArrayList<>();
+        private volatile IComputeTask singleTask;
+        private volatile boolean stopped;
+        private boolean ordered;
+
+        @Override
+        public Cursor compute() {
+            queryProgress.markExecuting();
+            List<ParametrizedQuery> queries = groupQueries();
+            if (queries.isEmpty()) {
+                IComputeTask task = single.create();
+                singleTask = task;
+                return task.compute();
+            }
+
+            int capacity = Math.max(1, fetchSize);
+            BlockingQueue<Object> shared = ordered ? null : new ArrayBlockingQueue<>(capacity * queries.size());
+            for (ParametrizedQuery groupQuery : queries) {
+                groups.add(new Group(groups.size(), groupQuery,
+                        ordered ? new ArrayBlockingQueue<>(capacity) : shared));
+            }
+            try {
+                executor.execute(this::launch);
+            } catch (RejectedExecutionException e) {
+                throw new AsyncException("Partition scan is rejected", e);
+            }
+            return new MergingCursor();
+        }
+
+        /**
+         * Starts queries of groups in order as permits become available, so earlier groups never wait for
+         * permits held by later groups of the same scan.
+         */
+        private void launch() {
+            for (Group group : groups) {
+                try {
+                    while (!permits.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if (stopped) {
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (stopped) {
+                    permits.release();
+                    return;
+                }
+                try {
+                    executor.execute(() -> read(group));
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    put(group, new Failure(new AsyncException("Partition scan is rejected", e)));
+                    return;
+                }
+            }
+        }
+
+        private void read(Group group) {
+            try {
+                IComputeTask task = groupFactory.create(group.query, group.number).create();
+                group.task = task;
+                try {
+                    Cursor cursor = task.compute();
+                    metadata.complete(cursor.getMetadata());
+                    while (cursor.hasNext() && !stopped) {
+                        put(group, cursor.next());
+                    }
+                    put(group, END);
+                } finally {
+                    group.task = null;
+                    task.close();
+                }
+            } catch (RuntimeException e) {
+                metadata.completeExceptionally(e);
+                put(group, new Failure(e));
+            } finally {
+                permits.release();
+            }
+        }
+
+        private void put(Group group, Object item) {
+            try {
+                while (!stopped) {
+                    if (group.queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * @return queries of partition groups, empty if the table can't be split and the whole request is read
+         * by a single query
+         */
+        private List<ParametrizedQuery> groupQueries() {
+            StructuredRequest structured = request.getStructured();
+            CollectionInfo collectionInfo = structured.getCollectionInfo();
+            List<RawSort> sorts = ofNullable(structured.getRawDataRequest().getSorts()).orElse(Collections.emptyList());
+
+            List<Object> values;
+            String column;
+            try (Connection connection = connectionSupplier.get()) {
+                Set<String> partitioned = metaFlagsDetector.partitionedFields(connection, collectionInfo);
+                Optional<String> partitionColumn = sorts.isEmpty()
+                        ? structured.getFieldMetadata().keySet().stream()
+                                .filter(field -> partitioned.contains(field.toLowerCase()))
+                                .findFirst()
+                        : Optional.of(sorts.get(0).getField())
+                                .filter(field -> partitioned.contains(field.toLowerCase()));
+                if (!partitionColumn.isPresent()) {
+                    return Collections.emptyList();
+                }
+                column = partitionColumn.get();
+                values = CrateDBPartitions.values(connection, collectionInfo, column);
+            } catch (SQLException e) {
+                log.warn("Failed to enumerate partitions of {}, table is read by a single query",
+                        collectionInfo.getCollection(), e);
+                return Collections.emptyList();
+            }
+            if (values.size() <= 1) {
+                return Collections.emptyList();
+            }
+
+            ordered = !sorts.isEmpty();
+            boolean descending = ordered && SortDir.DESC == sorts.get(0).getDirection();
+            if (ordered) {
+                values.sort(CrateDBPartitions.order(descending));
+            }
+
+            FieldType type = structured.getFieldMetadata().get(column).getType();
+            List<ParametrizedQuery> queries = new ArrayList<>();
+            for (List<Object> groupValues : CrateDBPartitions.groups(values, parallelism)) {
+                queries.add(groupQuery(CrateDBPartitions.filter(column, type, groupValues)));
+            }
+            return queries;
+        }
+
+        private ParametrizedQuery groupQuery(Filter filter) {
+            DataReadRequest groupRequest = request.deepCopy();
+            RawDataRequest rawRequest = groupRequest.getStructured().getRawDataRequest();
+            List<Filter> filters = new ArrayList<>(ofNullable(rawRequest.getFilters()).orElse(Collections.emptyList()));
+            filters.add(filter);
+            rawRequest.setFilters(filters);
+            return queryBuilder.apply(groupRequest);
+        }
+
+        @Override
+        public double progress() {
+            IComputeTask task = singleTask;
+            return task != null ? task.progress() : queryProgress.progress();
+        }
+
+        @Override
+        public void cancel() {
+            IComputeTask task = singleTask;
+            if (task != null) {
+                task.cancel();
+            }
+            for (Group group : groups) {
+                IComputeTask groupTask = group.task;
+                if (groupTask != null) {
+                    groupTask.cancel();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            stopped = true;
+            IComputeTask task = singleTask;
+            if (task != null) {
+                task.close();
+            }
+        }
+
+        /**
+         * In ordered mode index of the finished groups is the group being read, in unordered mode all groups
+         * share the same queue.
+         */
+        private final class MergingCursor implements Cursor {
+
+            private final int limit = Math.max(0, request.getStructured().getRawDataRequest().getLimit());
+            private int finishedGroups;
+            private long returned;
+            private Record pending;
+
+            @Override
+            public List<ResponseMetadata> getMetadata() {
+                try {
+                    return metadata.join();
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof RuntimeException ? (RuntimeException) cause : new AsyncException(cause);
+                }
+            }
+
+            @Override
+            public boolean hasNextBatch() {
+                return false;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (limit > 0 && returned >= limit) {
+                    finish();
+                    return false;
+                }
+                while (pending == null && finishedGroups < groups.size()) {
+                    Object item = take(groups.get(ordered ? finishedGroups : 0).queue);
+                    if (item == END) {
+                        finishedGroups++;
+                    } else if (item instanceof Failure) {
+                        throw ((Failure) item).exception;
+                    } else {
+                        pending = (Record) item;
+                        queryProgress.markResultReady();
+                    }
+                }
+                if (pending == null) {
+                    finish();
+                }
+                return pending != null;
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Record record = pending;
+                pending = null;
+                returned++;
+                queryProgress.rowRead();
+                return record;
+            }
+
+            private Object take(BlockingQueue<Object> queue) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AsyncException(e);
+                }
+            }
+
+            private void finish() {
+                stopped = true;
+                queryProgress.markFinished();
+            }
+        }
+    }
+}
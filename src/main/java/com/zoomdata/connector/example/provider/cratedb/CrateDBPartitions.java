@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.provider.cratedb;
+
+import com.zoomdata.connector.example.framework.common.ThriftTypeFunction;
+import com.zoomdata.gen.edc.filter.Filter;
+import com.zoomdata.gen.edc.request.CollectionInfo;
+import com.zoomdata.gen.edc.types.FieldType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.in;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.isNull;
+import static com.zoomdata.connector.example.common.utils.metadatabuilders.Filters.or;
+
+/**
+ * Partitions of a table enumerated from <code>information_schema.table_partitions</code> and filters
+ * selecting groups of them.
+ */
+final class CrateDBPartitions {
+
+    private static final String PARTITION_VALUES_QUERY = "select distinct \"values\"['%s'] "
+            + "from information_schema.table_partitions where table_schema = ? and table_name = ?";
+
+    private static final String PARTITIONS_COUNT_QUERY = "select count(*) "
+            + "from information_schema.table_partitions where table_schema = ? and table_name = ?";
+
+    private static final String DOCS_COUNT_QUERY = "select sum(num_docs) from sys.shards "
+            + "where schema_name = ? and table_name = ? and \"primary\" = true";
+
+    private static final String DEFAULT_SCHEMA = "doc";
+
+    private CrateDBPartitions() {
+    }
+
+    /**
+     * @return distinct values of the partition column, <code>null</code> for partitions of null values
+     */
+    static List<Object> values(Connection connection, CollectionInfo collectionInfo, String column)
+            throws SQLException {
+        String sql = String.format(PARTITION_VALUES_QUERY, column.replace("'", "''"));
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, collectionInfo.isSetSchema() ? collectionInfo.getSchema() : DEFAULT_SCHEMA);
+            statement.setString(2, collectionInfo.getCollection());
+            List<Object> values = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    values.add(rs.getObject(1));
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * @return number of partitions of the table, 0 if it isn't partitioned
+     */
+    static long count(Connection connection, CollectionInfo collectionInfo) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(PARTITIONS_COUNT_QUERY)) {
+            statement.setString(1, collectionInfo.isSetSchema() ? collectionInfo.getSchema() : DEFAULT_SCHEMA);
+            statement.setString(2, collectionInfo.getCollection());
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * @return number of documents in primary shards of the table
+     */
+    static long docsCount(Connection connection, CollectionInfo collectionInfo) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(DOCS_COUNT_QUERY)) {
+            statement.setString(1, collectionInfo.isSetSchema() ? collectionInfo.getSchema() : DEFAULT_SCHEMA);
+            statement.setString(2, collectionInfo.getCollection());
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Splits values into at most the given number of contiguous groups of similar size.
+     */
+    static List<List<Object>> groups(List<Object> values, int count) {
+        int groupsCount = Math.min(count, values.size());
+        List<List<Object>> groups = new ArrayList<>(groupsCount);
+        for (int i = 0; i < groupsCount; i++) {
+            groups.add(values.subList(i * values.size() / groupsCount, (i + 1) * values.size() / groupsCount));
+        }
+        return groups;
+    }
+
+    /**
+     * @return filter selecting rows of partitions of the values
+     */
+    static Filter filter(String column, FieldType type, List<Object> values) {
+        String[] notNullValues = values.stream()
+                .filter(Objects::nonNull)
+                .map(value -> filterValue(value, type))
+                .toArray(String[]::new);
+        boolean hasNull = notNullValues.length < values.size();
+
+        if (notNullValues.length == 0) {
+            return isNull(column, type);
+        } else if (hasNull) {
+            return or(in(column, type, notNullValues), isNull(column, type));
+        }
+        return in(column, type, notNullValues);
+    }
+
+    /**
+     * Order of partition values matching ORDER BY of CrateDB: nulls last ascending and first descending.
+     */
+    static Comparator<Object> order(boolean descending) {
+        Comparator<Object> byValue = (left, right) -> left instanceof Number && right instanceof Number
+                ? Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue())
+                : left.toString().compareTo(right.toString());
+        Comparator<Object> ascending = Comparator.nullsLast(byValue);
+        return descending ? ascending.reversed() : ascending;
+    }
+
+    private static String filterValue(Object value, FieldType type) {
+        if (type == FieldType.DATE && value instanceof Number) {
+            return ThriftTypeFunction.DATE_TIME_FORMATTER.print(((Number) value).longValue());
+        }
+        return value.toString();
+    }
+}
@@ -9,14 +9,17 @@ import com.querydsl.sql.PostgreSQLTemplates;
 import com.zoomdata.connector.example.framework.common.sql.ops.ExtendedDateTimeOps;
 
 import java.sql.Types;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Set;
 
 // CrateDB mostly closely mimics MySQL dialect, so use the existing QueryDSL templates and modify as needed
 public class CrateDBSQLTemplates extends PostgreSQLTemplates {
 
-    private static final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    // immutable and thread safe, templates serialize literals of concurrent requests
+    private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
 
     public CrateDBSQLTemplates() {
         this('\\', false);
@@ -47,8 +50,9 @@ public class CrateDBSQLTemplates extends PostgreSQLTemplates {
             case Types.TIMESTAMP:
                 try {
                     // CrateDB expects time to cast in ISO format
-                    return "cast('" + dateFormatter.parse(literal).toInstant() + "' as timestamp)";
-                } catch (ParseException e) {
+                    return "cast('" + LocalDateTime.parse(literal, dateFormatter)
+                            .atZone(ZoneId.systemDefault()).toInstant() + "' as timestamp)";
+                } catch (DateTimeParseException e) {
                     throw new IllegalArgumentException("Could not parse " + literal + " to valid time format", e);
                 }
             default:
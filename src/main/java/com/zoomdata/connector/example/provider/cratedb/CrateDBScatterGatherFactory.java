@@ -0,0 +1,357 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.provider.cratedb;
+
+import com.google.common.base.Supplier;
+import com.zoomdata.connector.example.framework.api.ITypesMapping;
+import com.zoomdata.connector.example.framework.async.AsyncException;
+import com.zoomdata.connector.example.framework.async.Cursor;
+import com.zoomdata.connector.example.framework.async.Deadline;
+import com.zoomdata.connector.example.framework.async.DeadlineExceededException;
+import com.zoomdata.connector.example.framework.async.IComputeTask;
+import com.zoomdata.connector.example.framework.async.IComputeTaskFactory;
+import com.zoomdata.connector.example.framework.common.SQLConnectionPoolKey;
+import com.zoomdata.connector.example.framework.common.sql.ParametrizedQuery;
+import com.zoomdata.connector.example.framework.provider.PartialAggregation;
+import com.zoomdata.connector.example.framework.provider.QueryProgress;
+import com.zoomdata.gen.edc.request.CollectionInfo;
+import com.zoomdata.gen.edc.request.DataReadRequest;
+import com.zoomdata.gen.edc.request.RequestType;
+import com.zoomdata.gen.edc.request.StructuredRequest;
+import com.zoomdata.gen.edc.request.StructuredRequestType;
+import com.zoomdata.gen.edc.types.FieldType;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.zoomdata.connector.example.framework.common.sql.impl.Utils.isCustomSql;
+
+/**
+ * Executes an AGG request to a partitioned table as one query per group of partitions, each on its own pooled
+ * connection, and merges partial aggregates in the connector by {@link PartialAggregation}.
+ *
+ * A group by of high cardinality over the whole table may trip the memory circuit breaker of CrateDB, queries
+ * of partition groups need only a part of that memory each. Tables below the documents threshold and tables
+ * which aren't partitioned are read by the single query of the request. Statements of partition groups are tagged
+ * by the tag of the request and group number and tracked by {@link CrateDBJobsMonitor}, so they report progress,
+ * are killed when the task is cancelled and are subject to the runtime ceiling of the datasource.
+ */
+@Slf4j
+public class CrateDBScatterGatherFactory implements IComputeTaskFactory {
+
+    private final Supplier<Connection> connectionSupplier;
+    private final DataReadRequest request;
+    private final IComputeTaskFactory single;
+    private final Function<DataReadRequest, ParametrizedQuery> queryBuilder;
+    private final CrateDBMetaFlagsDetector metaFlagsDetector;
+    private final ITypesMapping typesMapping;
+    private final int parallelism;
+    private final long minDocs;
+    private final Semaphore permits;
+    private final Executor executor;
+    private final Deadline deadline;
+    private final CrateDBJobsMonitor jobsMonitor;
+    private final SQLConnectionPoolKey poolKey;
+    private final long maxRuntimeMillis;
+    private final String tag;
+
+    /**
+     * @param single       factory of the single query of the request
+     * @param queryBuilder builds query of a partial request, selecting distinct values for distinct counts
+     * @param parallelism  max number of partition groups
+     * @param minDocs      documents of the table above which it is split, 0 to split any partitioned table
+     * @param permits      permits of partition queries of the datasource
+     * @param executor         executor of partition queries
+     * @param deadline         deadline of the request, bounds waiting for permits
+     * @param maxRuntimeMillis runtime ceiling of the datasource, 0 if not limited
+     * @param tag              tag of the request, statements of groups are tagged by it and their number
+     */
+    public CrateDBScatterGatherFactory(Supplier<Connection> connectionSupplier, DataReadRequest request,
+                                       IComputeTaskFactory single,
+                                       Function<DataReadRequest, ParametrizedQuery> queryBuilder,
+                                       CrateDBMetaFlagsDetector metaFlagsDetector, ITypesMapping typesMapping,
+                                       int parallelism, long minDocs, Semaphore permits, Executor executor,
+                                       Deadline deadline, CrateDBJobsMonitor jobsMonitor, SQLConnectionPoolKey poolKey,
+                                       long maxRuntimeMillis, String tag) {
+        this.connectionSupplier = connectionSupplier;
+        this.request = request;
+        this.single = single;
+        this.queryBuilder = queryBuilder;
+        this.metaFlagsDetector = metaFlagsDetector;
+        this.typesMapping = typesMapping;
+        this.parallelism = parallelism;
+        this.minDocs = minDocs;
+        this.permits = permits;
+        this.executor = executor;
+        this.deadline = deadline;
+        this.jobsMonitor = jobsMonitor;
+        this.poolKey = poolKey;
+        this.maxRuntimeMillis = maxRuntimeMillis;
+        this.tag = tag;
+    }
+
+    /**
+     * AGG requests to a table with metrics which can be merged. Whether the table is partitioned and large
+     * enough is checked when the task computes.
+     */
+    public static boolean isApplicable(DataReadRequest request) {
+        if (request.getType() != RequestType.STRUCTURED) {
+            return false;
+        }
+        StructuredRequest structured = request.getStructured();
+        if (structured.getType() != StructuredRequestType.AGG || isCustomSql(structured.getCollectionInfo())
+                || structured.getFieldMetadata() == null) {
+            return false;
+        }
+        return PartialAggregation.isSupported(structured.getAggDataRequest());
+    }
+
+    @Override
+    public IComputeTask create() {
+        return new ScatterGatherTask();
+    }
+
+    @Override
+    public String getRawQuery() {
+        return single.getRawQuery();
+    }
+
+    @Override
+    public int getFetchSize() {
+        return single.getFetchSize();
+    }
+
+    @Override
+    public Object getQueryKey() {
+        return single.getQueryKey();
+    }
+
+    private final class ScatterGatherTask implements IComputeTask {
+
+        private final QueryProgress queryProgress = new QueryProgress();
+        private final PartialAggregation aggregation =
+                new PartialAggregation(request.getStructured().getAggDataRequest());
+        private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+        private final Set<String> tags = ConcurrentHashMap.newKeySet();
+        private volatile IComputeTask singleTask;
+        private volatile boolean stopped;
+
+        @Override
+        public Cursor compute() {
+            queryProgress.markExecuting();
+            List<ParametrizedQuery> queries = partialQueries();
+            if (queries.isEmpty()) {
+                IComputeTask task = single.create();
+                singleTask = task;
+                return task.compute();
+            }
+
+            List<CompletableFuture<Void>> futures = new ArrayList<>(queries.size());
+            try {
+                for (int i = 0; i < queries.size(); i++) {
+                    ParametrizedQuery query = queries.get(i);
+                    String partialTag = tag + "-s" + i;
+                    acquire();
+                    futures.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            read(query, partialTag);
+                        } finally {
+                            permits.release();
+                        }
+                    }, executor));
+                }
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                cancel();
+                throw new AsyncException("Scatter-gather aggregation is rejected", e);
+            } catch (AsyncException e) {
+                // no permit before the deadline, partials already started are killed
+                cancel();
+                throw e;
+            } catch (CompletionException e) {
+                cancel();
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new AsyncException(cause);
+            }
+
+            queryProgress.markResultReady();
+            List<Record> records = aggregation.result();
+            queryProgress.setExpectedRows(records.size());
+            return cursor(aggregation.getMetadata(), records);
+        }
+
+        /**
+         * @return queries of partition groups, empty if the request is executed by the single query
+         */
+        private List<ParametrizedQuery> partialQueries() {
+            StructuredRequest structured = request.getStructured();
+            CollectionInfo collectionInfo = structured.getCollectionInfo();
+
+            List<Object> values;
+            String column;
+            try (Connection connection = connectionSupplier.get()) {
+                Set<String> partitioned = metaFlagsDetector.partitionedFields(connection, collectionInfo);
+                Optional<String> partitionColumn = structured.getFieldMetadata().keySet().stream()
+                        .filter(field -> partitioned.contains(field.toLowerCase()))
+                        .findFirst();
+                if (!partitionColumn.isPresent()
+                        || minDocs > 0 && CrateDBPartitions.docsCount(connection, collectionInfo) < minDocs) {
+                    return Collections.emptyList();
+                }
+                column = partitionColumn.get();
+                values = CrateDBPartitions.values(connection, collectionInfo, column);
+            } catch (SQLException e) {
+                log.warn("Failed to enumerate partitions of {}, request is executed by a single query",
+                        collectionInfo.getCollection(), e);
+                return Collections.emptyList();
+            }
+            if (values.size() <= 1) {
+                return Collections.emptyList();
+            }
+
+            FieldType type = structured.getFieldMetadata().get(column).getType();
+            List<ParametrizedQuery> queries = new ArrayList<>();
+            for (List<Object> groupValues : CrateDBPartitions.groups(values, parallelism)) {
+                queries.add(queryBuilder.apply(
+                        aggregation.partialRequest(request, CrateDBPartitions.filter(column, type, groupValues))));
+            }
+            return queries;
+        }
+
+        /**
+         * Waits for a permit until the deadline of the request, permits are released as partition queries
+         * of the datasource finish.
+         */
+        private void acquire() {
+            try {
+                if (!permits.tryAcquire(deadline.remainingMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new DeadlineExceededException("Deadline exceeded while waiting for partition queries");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AsyncException(e);
+            }
+            if (stopped) {
+                permits.release();
+                throw new AsyncException("Task is closed while waiting for partition queries");
+            }
+        }
+
+        private void read(ParametrizedQuery query, String partialTag) {
+            if (stopped) {
+                throw new AsyncException("Task is closed");
+            }
+            jobsMonitor.track(poolKey, maxRuntimeMillis, partialTag, new QueryProgress(), null, null, 0);
+            tags.add(partialTag);
+            try (Connection connection = connectionSupplier.get();
+                 PreparedStatement statement = connection.prepareStatement(
+                         CrateDBJobsMonitor.tagStatement(query.getSql(), partialTag))) {
+                query.applyParameters(statement);
+                statements.add(statement);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    aggregation.add(resultSet, typesMapping);
+                } finally {
+                    statements.remove(statement);
+                }
+            } catch (SQLException e) {
+                throw new AsyncException(e);
+            } finally {
+                tags.remove(partialTag);
+                jobsMonitor.untrack(poolKey, partialTag);
+            }
+        }
+
+        private Cursor cursor(List<ResponseMetadata> metadata, List<Record> records) {
+            Iterator<Record> iterator = records.iterator();
+            if (!iterator.hasNext()) {
+                queryProgress.markFinished();
+            }
+            return new Cursor() {
+                @Override
+                public List<ResponseMetadata> getMetadata() {
+                    return metadata;
+                }
+
+                @Override
+                public boolean hasNextBatch() {
+                    return false;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Record next() {
+                    Record record = iterator.next();
+                    queryProgress.rowRead();
+                    if (!iterator.hasNext()) {
+                        queryProgress.markFinished();
+                    }
+                    return record;
+                }
+            };
+        }
+
+        @Override
+        public double progress() {
+            IComputeTask task = singleTask;
+            return task != null ? task.progress() : queryProgress.progress();
+        }
+
+        /**
+         * Cancel of statements doesn't reliably stop distributed execution, so jobs of groups are killed as well.
+         */
+        @Override
+        public void cancel() {
+            IComputeTask task = singleTask;
+            if (task != null) {
+                task.cancel();
+            }
+            for (String partialTag : tags) {
+                jobsMonitor.kill(poolKey, partialTag);
+            }
+            for (Statement statement : statements) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    log.warn("Failed to cancel partition query", e);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            stopped = true;
+            IComputeTask task = singleTask;
+            if (task != null) {
+                task.close();
+            } else {
+                cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.provider.cratedb.sql;
+
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.ComparableExpressionBase;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.sql.SQLExpressions;
+import com.zoomdata.connector.example.framework.common.sql.impl.AliasedSimpleExpression;
+import com.zoomdata.connector.example.framework.common.sql.impl.DefaultMetricsProcessor;
+import com.zoomdata.gen.edc.metric.Metric;
+import com.zoomdata.gen.edc.metric.MetricLastValue;
+import com.zoomdata.gen.edc.metric.MetricPercentile;
+import com.zoomdata.gen.edc.types.FieldMetadata;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static com.querydsl.core.types.dsl.Expressions.cases;
+import static com.querydsl.core.types.dsl.Expressions.constant;
+import static com.querydsl.core.types.dsl.Expressions.dateTimePath;
+import static com.querydsl.core.types.dsl.Expressions.nullExpression;
+import static com.querydsl.core.types.dsl.Expressions.numberPath;
+import static com.querydsl.core.types.dsl.Expressions.stringPath;
+
+public class CrateDBMetricsProcessor extends DefaultMetricsProcessor {
+
+    public static final String LAST_VALUE_ROW_NUMBER_ALIAS_PREFIX = "lv_rn_";
+
+    private final LastValueStrategy lastValueStrategy;
+
+    // row number aliases of last values computed by WINDOW strategy, keyed by time field and field
+    private final Map<List<String>, String> lastValueRowNumbers = new LinkedHashMap<>();
+
+    public CrateDBMetricsProcessor(Map<String, FieldMetadata> fieldMetadata, AliasedSimpleExpression fromClause,
+                                   LastValueStrategy lastValueStrategy) {
+        super(fieldMetadata, fromClause);
+        this.lastValueStrategy = lastValueStrategy;
+    }
+
+    /**
+     * Native <code>percentile</code> aggregate, computed in a single pass without sorting the table.
+     * Each margin is a scalar aggregate of its own: <code>percentile(field, 0.9)</code>, since subscripts
+     * of function results are not in the grammar of the supported servers.
+     */
+    @Override
+    protected ComparableExpressionBase processPERCENTILES(Metric m) {
+        MetricPercentile percentile = m.getPercentile();
+        return Expressions.numberTemplate(Double.class, "percentile({0}, {1})",
+                numberPath(Double.class, table, percentile.getField()), constant(fraction(percentile)));
+    }
+
+    /**
+     * Last value is computed in the same scan as other metrics unless the strategy is {@link LastValueStrategy#JOIN}.
+     * Of rows with the same latest time the greatest value is taken by WINDOW strategy and any by MAX_BY.
+     */
+    @Override
+    protected ComparableExpressionBase processLAST_VALUE(Metric m) {
+        MetricLastValue lastValue = m.getLastValue();
+        switch (lastValueStrategy) {
+            case MAX_BY:
+                return Expressions.comparableTemplate(String.class, "max_by({0}, {1})",
+                        stringPath(table, lastValue.getField()),
+                        dateTimePath(Date.class, table, lastValue.getTimeField()));
+            case WINDOW:
+                String rowNumberAlias = lastValueRowNumbers.computeIfAbsent(
+                        Arrays.asList(lastValue.getTimeField(), lastValue.getField()),
+                        key -> LAST_VALUE_ROW_NUMBER_ALIAS_PREFIX + (lastValueRowNumbers.size() + 1));
+                return cases()
+                        .when(numberPath(Long.class, table, rowNumberAlias).eq(1L))
+                        .then(stringPath(table, lastValue.getField()))
+                        .otherwise(nullExpression())
+                        .max();
+            default:
+                return super.processLAST_VALUE(m);
+        }
+    }
+
+    /**
+     * @param partitionBy group by expressions of the query
+     * @return row numbers of rows by descending time within groups, selected by the subselect of WINDOW strategy
+     */
+    public Stream<Expression<?>> createLastValueWindows(Expression<?>[] partitionBy) {
+        return lastValueRowNumbers.entrySet().stream()
+                .map(entry -> SQLExpressions.rowNumber().over()
+                        .partitionBy(partitionBy)
+                        .orderBy(dateTimePath(Date.class, entry.getKey().get(0)).desc().nullsLast(),
+                                stringPath(entry.getKey().get(1)).desc().nullsLast())
+                        .as(entry.getValue()));
+    }
+
+    private static BigDecimal fraction(MetricPercentile percentile) {
+        // margin is in percents, the exact decimal keeps fractions like 0.999 readable in the SQL
+        return BigDecimal.valueOf(percentile.getMargin()).movePointLeft(2).stripTrailingZeros();
+    }
+}
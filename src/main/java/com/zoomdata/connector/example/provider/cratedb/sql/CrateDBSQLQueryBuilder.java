@@ -3,24 +3,73 @@
  */
 package com.zoomdata.connector.example.provider.cratedb.sql;
 
+import com.querydsl.core.types.Expression;
 import com.querydsl.core.types.Path;
 import com.zoomdata.connector.example.framework.common.sql.FiltersProcessor;
-import com.zoomdata.connector.example.framework.common.sql.filter.type.DefaultFilterTypeService;
-import com.zoomdata.connector.example.framework.common.sql.filter.type.FilterTypeService;
+import com.zoomdata.connector.example.framework.common.sql.IGroupExpressionProducer;
+import com.zoomdata.connector.example.framework.common.sql.MetricsProcessor;
 import com.zoomdata.connector.example.framework.common.sql.impl.DefaultSQLQueryBuilder;
+import com.zoomdata.connector.example.framework.common.sql.impl.GroupExpressionProducer;
+import com.zoomdata.gen.edc.metric.MetricType;
 
 import java.util.Collections;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static com.zoomdata.connector.example.common.utils.CollectionUtils.streamOfNullable;
 
 public class CrateDBSQLQueryBuilder extends DefaultSQLQueryBuilder {
 
+    private LastValueStrategy lastValueStrategy = LastValueStrategy.JOIN;
+
+    /**
+     * @param lastValueStrategy computation of LAST_VALUE metrics supported by the server
+     */
+    public CrateDBSQLQueryBuilder withLastValueStrategy(LastValueStrategy lastValueStrategy) {
+        this.lastValueStrategy = lastValueStrategy;
+        return this;
+    }
+
+    @Override
+    public MetricsProcessor createMetricProcessor() {
+        return new CrateDBMetricsProcessor(fieldMetadata, fromClause, lastValueStrategy);
+    }
+
+    /**
+     * Last values of WINDOW strategy are aggregated over rows ranked by a subselect.
+     */
+    @Override
+    protected boolean useSubSelect() {
+        return lastValueStrategy == LastValueStrategy.WINDOW
+                && streamOfNullable(thriftMetrics).anyMatch(metric -> metric.getType() == MetricType.LAST_VALUE);
+    }
+
+    @Override
+    protected Stream<Expression<?>> createSubSelectWindows(MetricsProcessor metricsProcessor,
+                                                           Expression<?>[] partitionBy) {
+        return Stream.concat(super.createSubSelectWindows(metricsProcessor, partitionBy),
+                ((CrateDBMetricsProcessor) metricsProcessor).createLastValueWindows(partitionBy));
+    }
+
+    /**
+     * Histogram groups are selected as bucket indexes, labels are set by HistogramLabelingComputeTaskFactory.
+     */
+    @Override
+    public IGroupExpressionProducer createGroupsProcessor() {
+        return new GroupExpressionProducer().useArithmeticHistogram();
+    }
+
+    /**
+     * Percentiles are computed by the native aggregate of CrateDB, see {@link CrateDBMetricsProcessor}.
+     */
+    @Override
+    protected boolean useSubSelectForPercentiles() {
+        return false;
+    }
+
     @Override
     public FiltersProcessor createFiltersProcessor(Path<?> table) {
         return new CrateDBFiltersProcessor(table, Optional.ofNullable(fieldMetadata).orElse(Collections.emptyMap()),
                 createFilterTypeService());
     }
-
-    protected FilterTypeService createFilterTypeService() {
-        return new DefaultFilterTypeService();
-    }
 }
@@ -0,0 +1,25 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.provider.cratedb.sql;
+
+/**
+ * How LAST_VALUE metrics are computed, depends on functions supported by the server.
+ */
+public enum LastValueStrategy {
+
+    /**
+     * <code>max_by(field, time)</code> aggregate in the same scan as other metrics.
+     */
+    MAX_BY,
+
+    /**
+     * Rows ranked by <code>row_number()</code> over groups in a subselect, the top row of a group is aggregated.
+     */
+    WINDOW,
+
+    /**
+     * Join with a subquery of maximum time per group, supported by every server.
+     */
+    JOIN
+}
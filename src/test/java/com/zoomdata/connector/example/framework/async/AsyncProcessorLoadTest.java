@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import com.zoomdata.gen.edc.request.DataResponse;
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.FieldType;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load of 1000 concurrent prepared queries to a few datasources, each waiting on a simulated JDBC socket.
+ * Compares the scheduler limiting queries by datasource permits with a cached thread pool, which opens
+ * a connection for every query at once. Throughput, peak threads and heap growth are logged for comparison only,
+ * as they depend on the machine.
+ */
+public class AsyncProcessorLoadTest {
+
+    @SuppressWarnings("checkstyle:constantname")
+    private static final Logger log = LoggerFactory.getLogger(AsyncProcessorLoadTest.class);
+
+    private static final int QUERIES = 1000;
+    private static final int DATASOURCES = 4;
+    private static final int PERMITS = 8;
+    private static final int ROWS = 100;
+    private static final int FETCH_SIZE = 50;
+    private static final long QUERY_MILLIS = 20;
+    private static final int CLIENTS = 32;
+
+    @Test(timeout = 120_000)
+    public void limitsOpenQueriesByDatasourcePermits() throws Exception {
+        Result limited = run(new DatasourceLimitedTaskScheduler("load", PERMITS, QUERIES, 8));
+        Result cached = run(new CachedPoolScheduler());
+        log.info("Datasource limited: {}", limited);
+        log.info("Cached pool: {}", cached);
+
+        assertEquals(QUERIES * ROWS, limited.rows);
+        assertEquals(QUERIES * ROWS, cached.rows);
+        assertTrue("Open queries of a datasource above permits: " + limited.maxOpen, limited.maxOpen <= PERMITS);
+        assertTrue("Cached pool didn't open queries above permits: " + cached.maxOpen, cached.maxOpen > PERMITS);
+    }
+
+    private static Result run(ITaskScheduler scheduler) throws Exception {
+        AsyncProcessor processor = new AsyncProcessor();
+        processor.initialize("load", scheduler);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        Map<Object, AtomicInteger> open = new ConcurrentHashMap<>();
+        AtomicInteger maxOpen = new AtomicInteger();
+        try {
+            System.gc();
+            long heapBefore = usedHeap();
+            threads.resetPeakThreadCount();
+            long startedAt = System.nanoTime();
+
+            for (int i = 0; i < QUERIES; i++) {
+                Object datasource = "datasource-" + i % DATASOURCES;
+                processor.put("query-" + i, new SimulatedQueryFactory(open.computeIfAbsent(datasource,
+                        key -> new AtomicInteger()), maxOpen), ComputeTaskOptions.newComputeTaskOptions()
+                        .datasourceKey(datasource)
+                        .build());
+            }
+            // the first fetch executes the query, so all of them are started at once as by concurrent clients
+            for (int i = 0; i < QUERIES; i++) {
+                try {
+                    processor.fetch("query-" + i, 1);
+                } catch (TimeoutException e) {
+                    // the query is executing
+                }
+            }
+            List<Future<Long>> fetched = new ArrayList<>(QUERIES);
+            for (int i = 0; i < QUERIES; i++) {
+                String id = "query-" + i;
+                fetched.add(clients.submit(() -> fetchAll(processor, id)));
+            }
+            long rows = 0;
+            for (Future<Long> future : fetched) {
+                rows += future.get();
+            }
+
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+            return new Result(rows, elapsedMillis, threads.getPeakThreadCount(), maxOpen.get(),
+                    usedHeap() - heapBefore);
+        } finally {
+            clients.shutdownNow();
+            processor.shutdown();
+        }
+    }
+
+    private static long fetchAll(AsyncProcessor processor, String id) throws Exception {
+        long rows = 0;
+        DataResponse response;
+        do {
+            response = processor.fetch(id, TimeUnit.SECONDS.toMillis(30));
+            rows += response.getRecords() == null ? 0 : response.getRecords().size();
+        } while (response.isHasNext());
+        return rows;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class Result {
+        private final long rows;
+        private final long elapsedMillis;
+        private final int peakThreads;
+        private final int maxOpen;
+        private final long heapGrowthBytes;
+
+        private Result(long rows, long elapsedMillis, int peakThreads, int maxOpen, long heapGrowthBytes) {
+            this.rows = rows;
+            this.elapsedMillis = elapsedMillis;
+            this.peakThreads = peakThreads;
+            this.maxOpen = maxOpen;
+            this.heapGrowthBytes = heapGrowthBytes;
+        }
+
+        @Override
+        public String toString() {
+            return rows + " rows in " + elapsedMillis + " ms, " + (QUERIES * 1000L / Math.max(1, elapsedMillis))
+                    + " queries/s, peak threads " + peakThreads + ", max open queries of a datasource " + maxOpen
+                    + ", heap growth " + heapGrowthBytes / 1024 + " KB";
+        }
+    }
+
+    /**
+     * Scheduler running every query on a thread of its own, as the cached thread pool did.
+     */
+    private static final class CachedPoolScheduler implements ITaskScheduler {
+
+        private final ExecutorService pool = Executors.newCachedThreadPool();
+
+        @Override
+        public Executor executorFor(Object key) {
+            return pool;
+        }
+
+        @Override
+        public Executor continuationExecutor() {
+            return pool;
+        }
+
+        @Override
+        public void shutdown() {
+            pool.shutdown();
+        }
+
+        @Override
+        public int getWorkersCount() {
+            return 0;
+        }
+
+        @Override
+        public int getActiveCount() {
+            return 0;
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return 0;
+        }
+
+        @Override
+        public int getQueueDepth(Object key) {
+            return 0;
+        }
+
+        @Override
+        public long getRejectedCount() {
+            return 0;
+        }
+
+        @Override
+        public long getAverageWaitMillis() {
+            return 0;
+        }
+
+        @Override
+        public long getMaxWaitMillis() {
+            return 0;
+        }
+    }
+
+    /**
+     * Query holding its simulated connection from compute until close, execution waits on the socket.
+     */
+    private static final class SimulatedQueryFactory implements IComputeTaskFactory {
+
+        private final AtomicInteger open;
+        private final AtomicInteger maxOpen;
+
+        private SimulatedQueryFactory(AtomicInteger open, AtomicInteger maxOpen) {
+            this.open = open;
+            this.maxOpen = maxOpen;
+        }
+
+        @Override
+        public IComputeTask create() {
+            AtomicLong returned = new AtomicLong();
+            AtomicInteger closed = new AtomicInteger();
+            return new IComputeTask() {
+                @Override
+                public Cursor compute() {
+                    maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(QUERY_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new AsyncException(e);
+                    }
+                    return new Cursor() {
+                        @Override
+                        public List<ResponseMetadata> getMetadata() {
+                            return Collections.singletonList(new ResponseMetadata("value", FieldType.INTEGER));
+                        }
+
+                        @Override
+                        public boolean hasNextBatch() {
+                            return false;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return returned.get() < ROWS;
+                        }
+
+                        @Override
+                        public Record next() {
+                            long value = returned.incrementAndGet();
+                            return new Record(Collections.singletonList(new Field().setValue(Long.toString(value))));
+                        }
+                    };
+                }
+
+                @Override
+                public double progress() {
+                    return returned.get() * 100.0 / ROWS;
+                }
+
+                @Override
+                public void cancel() {
+                }
+
+                @Override
+                public void close() {
+                    if (closed.compareAndSet(0, 1)) {
+                        open.decrementAndGet();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public String getRawQuery() {
+            return "select value from simulated";
+        }
+
+        @Override
+        public int getFetchSize() {
+            return FETCH_SIZE;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FairTaskSchedulerTest {
+
+    private FairTaskScheduler scheduler;
+    private CountDownLatch started;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new FairTaskScheduler("test", 1, 3);
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        // occupies the only worker, so following tasks are queued
+        scheduler.executorFor("blocker").execute(() -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void takesTasksOfDatasourcesInRoundRobin() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        for (String name : Arrays.asList("a1", "a2", "b1")) {
+            scheduler.executorFor(name.substring(0, 1)).execute(() -> {
+                order.add(name);
+                done.countDown();
+            });
+        }
+
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a1", "b1", "a2"), order);
+    }
+
+    @Test
+    public void runsContinuationsBeforeQueuedTasks() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+        scheduler.executorFor("a").execute(() -> {
+            order.add("task");
+            done.countDown();
+        });
+        scheduler.continuationExecutor().execute(() -> {
+            order.add("continuation");
+            done.countDown();
+        });
+
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("continuation", "task"), order);
+    }
+
+    @Test
+    public void rejectsTasksWhenQueueIsFull() {
+        scheduler.executorFor("a").execute(() -> { });
+        scheduler.executorFor("a").execute(() -> { });
+        scheduler.executorFor("b").execute(() -> { });
+        try {
+            scheduler.executorFor("b").execute(() -> { });
+            fail("Task above the queue limit was admitted");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        assertEquals(3, scheduler.getQueueDepth());
+        assertEquals(2, scheduler.getQueueDepth("a"));
+        assertEquals(1, scheduler.getQueueDepth("b"));
+        assertEquals(1, scheduler.getRejectedCount());
+        assertEquals(1, scheduler.getActiveCount());
+    }
+
+    @Test
+    public void neverRejectsContinuations() throws Exception {
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            scheduler.continuationExecutor().execute(done::countDown);
+        }
+
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectsTasksAfterShutdown() {
+        scheduler.shutdown();
+        scheduler.executorFor("a").execute(() -> { });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IdleTimerWheelTest {
+
+    private static final long TICK_MILLIS = 10;
+    private static final int BUCKETS = 8;
+
+    private final List<ComputeTaskHolder> expired = new CopyOnWriteArrayList<>();
+    private IdleTimerWheel wheel;
+
+    @Before
+    public void setUp() {
+        wheel = new IdleTimerWheel(TICK_MILLIS, BUCKETS, expired::add);
+    }
+
+    @Test
+    public void closesQueryIdleLongerThanItsTimeout() throws Exception {
+        ComputeTaskHolder holder = holder("idle", 50);
+        wheel.schedule(holder);
+
+        Thread.sleep(50 + 2 * TICK_MILLIS);
+        wheel.advance();
+
+        assertEquals(1, expired.size());
+        assertTrue(expired.contains(holder));
+        assertTrue(holder.isClosed());
+    }
+
+    @Test
+    public void keepsQueryBeforeItsTimeout() throws Exception {
+        ComputeTaskHolder holder = holder("active", 10_000);
+        wheel.schedule(holder);
+
+        Thread.sleep(3 * TICK_MILLIS);
+        wheel.advance();
+
+        assertTrue(expired.isEmpty());
+        assertFalse(holder.isClosed());
+    }
+
+    @Test
+    public void keepsQueryWithTimeoutLongerThanRevolutionUntilItsRound() throws Exception {
+        long timeoutMillis = 2 * BUCKETS * TICK_MILLIS;
+        ComputeTaskHolder holder = holder("long", timeoutMillis);
+        wheel.schedule(holder);
+
+        Thread.sleep(BUCKETS * TICK_MILLIS + 2 * TICK_MILLIS);
+        wheel.advance();
+        assertTrue(expired.isEmpty());
+        assertFalse(holder.isClosed());
+
+        Thread.sleep(timeoutMillis);
+        wheel.advance();
+        assertEquals(1, expired.size());
+        assertTrue(holder.isClosed());
+    }
+
+    @Test
+    public void forgetsQueryClosedOtherwise() throws Exception {
+        ComputeTaskHolder holder = holder("closed", 50);
+        wheel.schedule(holder);
+        holder.close(false);
+
+        Thread.sleep(50 + 2 * TICK_MILLIS);
+        wheel.advance();
+
+        assertEquals(1, expired.size());
+        assertTrue(expired.contains(holder));
+
+        Thread.sleep(BUCKETS * TICK_MILLIS);
+        wheel.advance();
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void expiresOnlyQueriesPastTheirTimeout() throws Exception {
+        ComputeTaskHolder idle = holder("idle", 30);
+        ComputeTaskHolder active = holder("active", 10_000);
+        wheel.schedule(idle);
+        wheel.schedule(active);
+
+        Thread.sleep(30 + 2 * TICK_MILLIS);
+        wheel.advance();
+
+        assertEquals(1, expired.size());
+        assertTrue(expired.contains(idle));
+        assertFalse(active.isClosed());
+    }
+
+    private static ComputeTaskHolder holder(String queryId, long idleTimeoutMillis) {
+        return new ComputeTaskHolder(queryId, Runnable::run, Runnable::run, new IdleFactory(),
+                ComputeTaskOptions.newComputeTaskOptions()
+                        .idleTimeoutMillis(idleTimeoutMillis)
+                        .build());
+    }
+
+    private static final class IdleFactory implements IComputeTaskFactory {
+
+        @Override
+        public IComputeTask create() {
+            throw new AssertionError("Idle query is never computed");
+        }
+
+        @Override
+        public String getRawQuery() {
+            return "select 1";
+        }
+
+        @Override
+        public int getFetchSize() {
+            return 1;
+        }
+    }
+}
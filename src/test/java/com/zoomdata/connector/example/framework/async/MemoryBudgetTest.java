@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void reservesBytesWithinBudget() {
+        MemoryBudget budget = new MemoryBudget(100);
+
+        assertTrue(budget.tryAcquire(60, () -> { }));
+        assertTrue(budget.tryAcquire(40, () -> { }));
+
+        assertEquals(100, budget.getUsedBytes());
+        assertEquals(0, budget.getWaitingCount());
+    }
+
+    @Test
+    public void resumesWaitingProducerOnceOnRelease() {
+        MemoryBudget budget = new MemoryBudget(100);
+        AtomicInteger resumed = new AtomicInteger();
+        budget.tryAcquire(60, () -> { });
+
+        assertFalse(budget.tryAcquire(50, resumed::incrementAndGet));
+        assertEquals(60, budget.getUsedBytes());
+        assertEquals(1, budget.getWaitingCount());
+
+        budget.release(10);
+        budget.release(10);
+
+        assertEquals(1, resumed.get());
+        assertEquals(40, budget.getUsedBytes());
+        assertEquals(0, budget.getWaitingCount());
+    }
+
+    @Test
+    public void admitsOversizedPageWhenNothingIsReserved() {
+        MemoryBudget budget = new MemoryBudget(10);
+
+        assertTrue(budget.tryAcquire(50, () -> { }));
+        assertFalse(budget.tryAcquire(1, () -> { }));
+
+        budget.release(50);
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    public void releaseDoesNotGoBelowZero() {
+        MemoryBudget budget = new MemoryBudget(100);
+        budget.tryAcquire(30, () -> { });
+
+        budget.release(50);
+        budget.release(0);
+        budget.release(-5);
+
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    public void nonPositiveLimitIsUnlimited() {
+        MemoryBudget budget = new MemoryBudget(0);
+
+        assertEquals(Long.MAX_VALUE, budget.getMaxBytes());
+        assertTrue(budget.tryAcquire(Long.MAX_VALUE / 2, () -> { }));
+        assertTrue(budget.tryAcquire(Long.MAX_VALUE / 2, () -> { }));
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import com.zoomdata.gen.edc.request.DataResponse;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PageBufferTest {
+
+    private static final Runnable NONE = () -> { };
+
+    @Test
+    public void returnsPagesInOrder() throws Exception {
+        PageBuffer buffer = new PageBuffer(4, 1000);
+        DataPage first = page(10);
+        DataPage second = page(20);
+
+        assertEquals(PageBuffer.Offer.ADDED, buffer.offer(first, NONE));
+        assertEquals(PageBuffer.Offer.ADDED, buffer.offer(second, NONE));
+
+        assertSame(first, buffer.take(0));
+        assertSame(second, buffer.take(0));
+    }
+
+    @Test
+    public void acceptsFirstPageLargerThanByteLimit() {
+        PageBuffer buffer = new PageBuffer(4, 100);
+
+        assertEquals(PageBuffer.Offer.ADDED, buffer.offer(page(500), NONE));
+        assertEquals(PageBuffer.Offer.FULL, buffer.offer(page(1), NONE));
+    }
+
+    @Test
+    public void isFullByNumberOfPages() throws Exception {
+        PageBuffer buffer = new PageBuffer(2, 1000);
+        AtomicInteger resumed = new AtomicInteger();
+        buffer.offer(page(1), NONE);
+        buffer.offer(page(1), NONE);
+
+        assertEquals(PageBuffer.Offer.FULL, buffer.offer(page(1), resumed::incrementAndGet));
+        assertEquals(0, resumed.get());
+
+        buffer.take(0);
+        assertEquals(1, resumed.get());
+        assertEquals(PageBuffer.Offer.ADDED, buffer.offer(page(1), NONE));
+    }
+
+    @Test
+    public void isFullByBytesOfPages() throws Exception {
+        PageBuffer buffer = new PageBuffer(10, 100);
+        AtomicInteger resumed = new AtomicInteger();
+        buffer.offer(page(70), NONE);
+
+        assertEquals(PageBuffer.Offer.FULL, buffer.offer(page(40), resumed::incrementAndGet));
+
+        buffer.take(0);
+        assertEquals(1, resumed.get());
+        assertEquals(PageBuffer.Offer.ADDED, buffer.offer(page(40), NONE));
+        assertEquals(PageBuffer.Offer.ADDED, buffer.offer(page(60), NONE));
+        assertEquals(PageBuffer.Offer.FULL, buffer.offer(page(1), NONE));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void takeTimesOutWhenEmpty() throws Exception {
+        new PageBuffer(2, 100).take(10);
+    }
+
+    @Test
+    public void closeResumesProducerAndRejectsPages() throws Exception {
+        PageBuffer buffer = new PageBuffer(1, 100);
+        AtomicInteger resumed = new AtomicInteger();
+        buffer.offer(page(1), NONE);
+        buffer.offer(page(1), resumed::incrementAndGet);
+
+        buffer.close();
+
+        assertEquals(1, resumed.get());
+        assertEquals(PageBuffer.Offer.CLOSED, buffer.offer(page(1), NONE));
+        try {
+            buffer.take(0);
+            fail("Closed buffer returned a page");
+        } catch (AsyncException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void failureIsThrownAfterBufferedPages() throws Exception {
+        PageBuffer buffer = new PageBuffer(2, 100);
+        DataPage page = page(1);
+        buffer.offer(page, NONE);
+        IllegalStateException failure = new IllegalStateException("query failed");
+
+        buffer.fail(failure);
+
+        assertSame(page, buffer.take(0));
+        try {
+            buffer.take(0);
+            fail("Failed buffer returned a page");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    private static DataPage page(long size) {
+        return new DataPage(new DataResponse(), size);
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.async;
+
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.FieldType;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharedExecutionTest {
+
+    private static final int ROWS = SharedExecution.MAX_BUFFERED * 2;
+
+    private final AtomicInteger finished = new AtomicInteger();
+
+    @Test
+    public void readersShareSingleExecution() {
+        CountingFactory first = new CountingFactory(ROWS);
+        CountingFactory second = new CountingFactory(ROWS);
+        SharedExecution execution = execution(first);
+
+        IComputeTask firstReader = execution.join(first).create();
+        IComputeTask secondReader = execution.join(second).create();
+        Cursor firstCursor = firstReader.compute();
+        Cursor secondCursor = secondReader.compute();
+
+        // readers alternate within the buffer, so neither is detached
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(i, value(firstCursor.next()));
+            assertEquals(i, value(secondCursor.next()));
+        }
+        assertFalse(firstCursor.hasNext());
+        assertFalse(secondCursor.hasNext());
+        assertEquals(1, first.created.get());
+        assertEquals(0, second.created.get());
+        // the underlying task is closed as soon as it is read through
+        assertEquals(1, first.closed.get());
+
+        firstReader.close();
+        secondReader.close();
+        assertEquals(1, first.closed.get());
+    }
+
+    @Test
+    public void requestJoiningAfterRecordsWereDroppedExecutesOwnQuery() {
+        CountingFactory first = new CountingFactory(ROWS);
+        CountingFactory second = new CountingFactory(ROWS);
+        SharedExecution execution = execution(first);
+
+        IComputeTask firstReader = execution.join(first).create();
+        Cursor firstCursor = firstReader.compute();
+        // more than the chunk of passed records dropped at once
+        for (int i = 0; i < SharedExecution.MAX_BUFFERED / 8; i++) {
+            firstCursor.next();
+        }
+        assertEquals(1, finished.get());
+
+        IComputeTask secondReader = execution.join(second).create();
+        assertEquals(1, second.created.get());
+        assertEquals(ROWS, readAll(secondReader.compute()));
+
+        firstReader.close();
+        secondReader.close();
+    }
+
+    @Test
+    public void detachedReaderWithoutRecordsExecutesOwnQuery() {
+        CountingFactory first = new CountingFactory(ROWS);
+        CountingFactory second = new CountingFactory(ROWS);
+        SharedExecution execution = execution(first);
+
+        IComputeTask firstReader = execution.join(first).create();
+        IComputeTask secondReader = execution.join(second).create();
+        assertEquals(ROWS, readAll(firstReader.compute()));
+        assertEquals(0, second.created.get());
+
+        Cursor secondCursor = secondReader.compute();
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(i, value(secondCursor.next()));
+        }
+        assertFalse(secondCursor.hasNext());
+        assertEquals(1, second.created.get());
+
+        firstReader.close();
+        secondReader.close();
+        assertEquals(1, first.closed.get());
+        assertEquals(1, second.closed.get());
+    }
+
+    @Test
+    public void detachedReaderWithRecordsFails() {
+        CountingFactory first = new CountingFactory(ROWS);
+        CountingFactory second = new CountingFactory(ROWS);
+        SharedExecution execution = execution(first);
+
+        IComputeTask firstReader = execution.join(first).create();
+        IComputeTask secondReader = execution.join(second).create();
+        Cursor firstCursor = firstReader.compute();
+        Cursor secondCursor = secondReader.compute();
+        assertEquals(0, value(secondCursor.next()));
+        assertEquals(ROWS, readAll(firstCursor));
+
+        try {
+            secondCursor.hasNext();
+            fail("Detached reader with records read continued");
+        } catch (AsyncException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("after reading 1 records"));
+        }
+        assertEquals(0, second.created.get());
+
+        firstReader.close();
+        secondReader.close();
+        assertEquals(1, first.closed.get());
+    }
+
+    @Test
+    public void closingLastReaderCancelsRunningExecution() {
+        CountingFactory first = new CountingFactory(ROWS);
+        SharedExecution execution = execution(first);
+
+        IComputeTask firstReader = execution.join(first).create();
+        IComputeTask secondReader = execution.join(new CountingFactory(ROWS)).create();
+        firstReader.compute().next();
+
+        firstReader.close();
+        assertEquals(0, first.closed.get());
+        secondReader.close();
+        assertEquals(1, first.closed.get());
+        assertEquals(1, finished.get());
+    }
+
+    private SharedExecution execution(IComputeTaskFactory delegate) {
+        return new SharedExecution(delegate, Deadline.NONE, execution -> finished.incrementAndGet());
+    }
+
+    private static int readAll(Cursor cursor) {
+        int read = 0;
+        while (cursor.hasNext()) {
+            assertEquals(read, value(cursor.next()));
+            read++;
+        }
+        return read;
+    }
+
+    private static int value(Record record) {
+        return Integer.parseInt(record.getRecord().get(0).getValue());
+    }
+
+    private static final class CountingFactory implements IComputeTaskFactory {
+
+        private final int rows;
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger closed = new AtomicInteger();
+
+        private CountingFactory(int rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public IComputeTask create() {
+            created.incrementAndGet();
+            return new IComputeTask() {
+                private int returned;
+
+                @Override
+                public Cursor compute() {
+                    return new Cursor() {
+                        @Override
+                        public List<ResponseMetadata> getMetadata() {
+                            return Collections.singletonList(new ResponseMetadata("value", FieldType.INTEGER));
+                        }
+
+                        @Override
+                        public boolean hasNextBatch() {
+                            return false;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return returned < rows;
+                        }
+
+                        @Override
+                        public Record next() {
+                            return new Record().setRecord(Collections.singletonList(
+                                    new Field().setValue(Integer.toString(returned++))));
+                        }
+                    };
+                }
+
+                @Override
+                public double progress() {
+                    return returned * 100.0 / rows;
+                }
+
+                @Override
+                public void cancel() {
+                }
+
+                @Override
+                public void close() {
+                    closed.incrementAndGet();
+                }
+            };
+        }
+
+        @Override
+        public String getRawQuery() {
+            return "select value from shared";
+        }
+
+        @Override
+        public int getFetchSize() {
+            return 100;
+        }
+
+        @Override
+        public Object getQueryKey() {
+            return getRawQuery();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.common.sql;
+
+import com.google.common.collect.ImmutableMap;
+import com.querydsl.sql.PostgreSQLTemplates;
+import com.querydsl.sql.SQLTemplates;
+import com.zoomdata.connector.example.framework.common.sql.impl.DefaultSQLQueryBuilder;
+import com.zoomdata.gen.edc.request.CollectionInfo;
+import com.zoomdata.gen.edc.request.DataReadRequest;
+import com.zoomdata.gen.edc.request.RawDataRequest;
+import com.zoomdata.gen.edc.request.RequestType;
+import com.zoomdata.gen.edc.request.StructuredRequest;
+import com.zoomdata.gen.edc.request.StructuredRequestType;
+import com.zoomdata.gen.edc.sort.RawSort;
+import com.zoomdata.gen.edc.sort.SortDir;
+import com.zoomdata.gen.edc.types.Field;
+import com.zoomdata.gen.edc.types.FieldMetadata;
+import com.zoomdata.gen.edc.types.FieldType;
+import com.zoomdata.gen.edc.types.Record;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeysetBatchesTest {
+
+    private static final SQLTemplates TEMPLATES = new PostgreSQLTemplates();
+
+    @Test
+    public void unsortedRequestIsNotSplit() {
+        assertFalse(batches().isPresent());
+    }
+
+    @Test
+    public void requestWithoutTiebreakerIsNotSplit() {
+        assertFalse(KeysetBatches.of(request(new RawSort("price", SortDir.ASC)), null, DefaultSQLQueryBuilder::new,
+                TEMPLATES).isPresent());
+    }
+
+    @Test
+    public void firstWindowIsSortedByTiebreakerToo() {
+        String sql = batches(new RawSort("price", SortDir.ASC)).get().query(null, 10).get().getSql();
+
+        assertTrue(sql, sql.contains("select ds.name, ds.price, ds.id"));
+        assertFalse(sql, sql.contains("where"));
+        assertTrue(sql, sql.contains("order by ds.price asc, ds.id asc"));
+        assertTrue(sql, sql.contains("limit 10"));
+    }
+
+    @Test
+    public void ascendingWindowFollowsLastKeyWithNullsLast() {
+        String sql = batches(new RawSort("price", SortDir.ASC)).get().query(key("5", "a"), 10).get().getSql();
+
+        assertTrue(sql, sql.contains(
+                "where ds.price > 5 or ds.price is null or ds.price = 5 and (ds.id > 'a' or ds.id is null)"));
+    }
+
+    @Test
+    public void ascendingWindowAfterNullKeyStaysWithinNulls() {
+        String sql = batches(new RawSort("price", SortDir.ASC)).get().query(key(null, "a"), 10).get().getSql();
+
+        assertTrue(sql, sql.contains("where ds.price is null and (ds.id > 'a' or ds.id is null)"));
+    }
+
+    @Test
+    public void descendingWindowFollowsLastKeyWithNullsFirst() {
+        KeysetBatches batches = batches(new RawSort("price", SortDir.DESC)).get();
+
+        String sql = batches.query(key("5", "a"), 10).get().getSql();
+        assertTrue(sql, sql.contains("where ds.price < 5 or ds.price = 5 and (ds.id > 'a' or ds.id is null)"));
+        assertTrue(sql, sql.contains("order by ds.price desc, ds.id asc"));
+
+        sql = batches.query(key(null, "a"), 10).get().getSql();
+        assertTrue(sql, sql.contains(
+                "where not ds.price is null or ds.price is null and (ds.id > 'a' or ds.id is null)"));
+    }
+
+    @Test
+    public void noWindowFollowsLastKeyOfNulls() {
+        assertFalse(batches(new RawSort("price", SortDir.ASC)).get().query(key(null, null), 10).isPresent());
+    }
+
+    @Test
+    public void keyColumnsNotRequestedAreStripped() {
+        KeysetBatches batches = batches(new RawSort("price", SortDir.ASC)).get();
+        Record record = new Record(Arrays.asList(new Field().setValue("pen"), new Field().setValue("5"),
+                new Field().setValue("a")));
+
+        assertEquals(Arrays.asList("5", "a"), values(batches.key(record)));
+        assertEquals(Arrays.asList("pen", "5"), values(batches.strip(record).getRecord()));
+    }
+
+    private static Optional<KeysetBatches> batches(RawSort... sorts) {
+        return KeysetBatches.of(request(sorts), "id", DefaultSQLQueryBuilder::new, TEMPLATES);
+    }
+
+    private static DataReadRequest request(RawSort... sorts) {
+        RawDataRequest raw = new RawDataRequest()
+                .setFields(Arrays.asList("name", "price"))
+                .setSorts(sorts.length == 0 ? null : Arrays.asList(sorts))
+                .setLimit(100);
+        return new DataReadRequest()
+                .setType(RequestType.STRUCTURED)
+                .setStructured(new StructuredRequest()
+                        .setType(StructuredRequestType.RAW)
+                        .setCollectionInfo(new CollectionInfo("doc", "products"))
+                        .setFieldMetadata(ImmutableMap.of(
+                                "name", new FieldMetadata().setName("name").setType(FieldType.STRING),
+                                "price", new FieldMetadata().setName("price").setType(FieldType.INTEGER)))
+                        .setRawDataRequest(raw));
+    }
+
+    private static List<Field> key(String... values) {
+        Field[] fields = new Field[values.length];
+        for (int i = 0; i < values.length; i++) {
+            fields[i] = values[i] == null ? new Field().setIsNull(true) : new Field().setValue(values[i]);
+        }
+        return Arrays.asList(fields);
+    }
+
+    private static List<String> values(List<Field> fields) {
+        return fields.stream().map(Field::getValue).collect(Collectors.toList());
+    }
+}
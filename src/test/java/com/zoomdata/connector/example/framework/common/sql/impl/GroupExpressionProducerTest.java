@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.common.sql.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.PostgreSQLTemplates;
+import com.querydsl.sql.SQLSerializer;
+import com.zoomdata.gen.edc.group.Group;
+import com.zoomdata.gen.edc.group.GroupType;
+import com.zoomdata.gen.edc.group.HistogramGroup;
+import com.zoomdata.gen.edc.types.FieldMetadata;
+import com.zoomdata.gen.edc.types.FieldType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GroupExpressionProducerTest {
+
+    private static final String FIELD = "price";
+
+    @Test
+    public void arithmeticHistogramPlacesValuesAtBoundsIntoLowerBucket() {
+        assertBucketIndexes(0.1, 0.1, 1);
+        assertBucketIndexes(0.3, 0.7, 50);
+        assertBucketIndexes(-5.25, 0.05, 3);
+        assertBucketIndexes(1000.1, 0.3, 2000);
+    }
+
+    @Test
+    public void arithmeticHistogramComputesIndexOfExactlyScaledBuckets() {
+        String sql = histogramSql(0.1, 0.1, 1);
+
+        assertTrue(sql, sql.contains("ceil((ds.price - 0.1) / 0.1)"));
+        assertTrue(sql, sql.contains(") / 10.0"));
+        assertFalse(sql, sql.contains(" and "));
+    }
+
+    @Test
+    public void arithmeticHistogramFallsBackToBranchPerBucketIfNotScaledExactly() {
+        String sql = histogramSql(0.1234567890123456, 0.1, 0.9);
+
+        assertFalse(sql, sql.contains("ceil("));
+        assertBucketIndexes(0.1234567890123456, 0.1, 0.9);
+
+        sql = histogramSql(8e15, 1e15, 1.2e16);
+
+        assertFalse(sql, sql.contains("ceil("));
+        assertBucketIndexes(8e15, 1e15, 1.2e16);
+    }
+
+    /**
+     * Evaluates the SQL at every point, next to it and between points, bucket p is (p - 1 point; p point],
+     * the first bucket is (-inf; first point] and the last one (last point; +inf).
+     */
+    private static void assertBucketIndexes(double start, double size, double end) {
+        HistogramGroup group = histogram(start, size, end);
+        double[] points = GroupExpressionProducer.getHistogramGroupPoints(group);
+        SqlExpression expression = new SqlExpression(histogramSql(start, size, end));
+
+        List<Double> values = new ArrayList<>();
+        for (int p = 0; p < points.length; p++) {
+            values.add(points[p]);
+            values.add(Math.nextUp(points[p]));
+            values.add(Math.nextDown(points[p]));
+            if (p > 0) {
+                values.add((points[p - 1] + points[p]) / 2);
+            }
+        }
+        values.add(points[0] - size);
+        values.add(points[points.length - 1] + size);
+
+        for (double value : values) {
+            int expected = points.length;
+            for (int p = 0; p < points.length; p++) {
+                if (value <= points[p]) {
+                    expected = p;
+                    break;
+                }
+            }
+            assertEquals("Bucket of " + value + " in " + start + ", " + size + ", " + end,
+                    expected, (long) expression.evaluate(value));
+        }
+    }
+
+    private static String histogramSql(double start, double size, double end) {
+        Group group = new Group(GroupType.HISTOGRAM_GROUP).setHistogramGroup(histogram(start, size, end));
+        GroupExpressionProducer producer = new GroupExpressionProducer()
+                .useArithmeticHistogram()
+                .process(Expressions.path(Object.class, "ds"), Collections.singletonList(group),
+                        ImmutableMap.of(FIELD, new FieldMetadata().setName(FIELD).setType(FieldType.DOUBLE)));
+        SQLSerializer serializer = new SQLSerializer(new Configuration(new PostgreSQLTemplates()));
+        serializer.handle(producer.getExpressionsForSelect().get(0));
+        return serializer.toString();
+    }
+
+    private static HistogramGroup histogram(double start, double size, double end) {
+        return new HistogramGroup()
+                .setField(FIELD)
+                .setStartPoint(start)
+                .setBucketSize(size)
+                .setEndPoint(end);
+    }
+
+    /**
+     * Evaluator of the numeric SQL of histogram groups in double precision, as the database computes it:
+     * CASE, AND, comparisons, arithmetic, ceil and the field, aliases are ignored.
+     */
+    private static final class SqlExpression {
+
+        private static final Pattern TOKEN = Pattern.compile(
+                "\\s*(\\d+(?:\\.\\d+)?(?:E[+-]?\\d+)?|[a-z_][a-z_.]*|<=|>=|[-+*/()<>=])", Pattern.CASE_INSENSITIVE);
+
+        private final List<String> tokens = new ArrayList<>();
+        private double field;
+        private int position;
+
+        private SqlExpression(String sql) {
+            String expression = sql.replaceAll("\\s+as\\s+\\w+$", "");
+            Matcher matcher = TOKEN.matcher(expression);
+            int at = 0;
+            while (at < expression.length() && matcher.find(at) && matcher.start() == at) {
+                tokens.add(matcher.group(1).toLowerCase());
+                at = matcher.end();
+            }
+            if (at != expression.length()) {
+                throw new IllegalArgumentException("Unexpected SQL at " + at + ": " + expression);
+            }
+        }
+
+        private double evaluate(double value) {
+            field = value;
+            position = 0;
+            double result = expression();
+            if (position != tokens.size()) {
+                throw new IllegalStateException("Unexpected " + tokens.get(position));
+            }
+            return result;
+        }
+
+        private double expression() {
+            double left = comparison();
+            while (accept("and")) {
+                double right = comparison();
+                left = left != 0 && right != 0 ? 1 : 0;
+            }
+            return left;
+        }
+
+        private double comparison() {
+            double left = sum();
+            if (accept("<=")) {
+                return left <= sum() ? 1 : 0;
+            } else if (accept(">=")) {
+                return left >= sum() ? 1 : 0;
+            } else if (accept("<")) {
+                return left < sum() ? 1 : 0;
+            } else if (accept(">")) {
+                return left > sum() ? 1 : 0;
+            } else if (accept("=")) {
+                return left == sum() ? 1 : 0;
+            }
+            return left;
+        }
+
+        private double sum() {
+            double left = product();
+            while (true) {
+                if (accept("+")) {
+                    left += product();
+                } else if (accept("-")) {
+                    left -= product();
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private double product() {
+            double left = unary();
+            while (true) {
+                if (accept("*")) {
+                    left *= unary();
+                } else if (accept("/")) {
+                    left /= unary();
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private double unary() {
+            if (accept("-")) {
+                return -unary();
+            }
+            if (accept("(")) {
+                double value = expression();
+                expect(")");
+                return value;
+            }
+            if (accept("ceil")) {
+                expect("(");
+                double value = Math.ceil(expression());
+                expect(")");
+                return value;
+            }
+            if (accept("case")) {
+                Double result = null;
+                while (accept("when")) {
+                    double condition = expression();
+                    expect("then");
+                    double value = expression();
+                    if (result == null && condition != 0) {
+                        result = value;
+                    }
+                }
+                expect("else");
+                double otherwise = expression();
+                expect("end");
+                return result != null ? result : otherwise;
+            }
+            String token = tokens.get(position++);
+            return token.equals("ds." + FIELD) ? field : Double.parseDouble(token);
+        }
+
+        private boolean accept(String token) {
+            if (position < tokens.size() && tokens.get(position).equals(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw new IllegalStateException("Expected " + token + " at " + position + " of " + tokens);
+            }
+        }
+    }
+}
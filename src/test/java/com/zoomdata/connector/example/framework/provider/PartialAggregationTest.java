@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) Zoomdata, Inc. 2012-2017. All rights reserved.
+ */
+package com.zoomdata.connector.example.framework.provider;
+
+import com.zoomdata.connector.example.framework.api.ITypesMapping;
+import com.zoomdata.gen.edc.filter.Filter;
+import com.zoomdata.gen.edc.filter.FilterFunction;
+import com.zoomdata.gen.edc.group.AttributeGroup;
+import com.zoomdata.gen.edc.group.Group;
+import com.zoomdata.gen.edc.group.GroupType;
+import com.zoomdata.gen.edc.metric.Metric;
+import com.zoomdata.gen.edc.metric.MetricAvg;
+import com.zoomdata.gen.edc.metric.MetricCount;
+import com.zoomdata.gen.edc.metric.MetricDistinctCount;
+import com.zoomdata.gen.edc.metric.MetricMax;
+import com.zoomdata.gen.edc.metric.MetricMin;
+import com.zoomdata.gen.edc.metric.MetricSum;
+import com.zoomdata.gen.edc.metric.MetricType;
+import com.zoomdata.gen.edc.request.AggDataRequest;
+import com.zoomdata.gen.edc.request.DataReadRequest;
+import com.zoomdata.gen.edc.request.StructuredRequest;
+import com.zoomdata.gen.edc.sort.AggSort;
+import com.zoomdata.gen.edc.sort.SortDir;
+import com.zoomdata.gen.edc.sort.SortType;
+import com.zoomdata.gen.edc.types.FieldType;
+import com.zoomdata.gen.edc.types.Record;
+import com.zoomdata.gen.edc.types.ResponseMetadata;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PartialAggregationTest {
+
+    private static final ITypesMapping TYPES_MAPPING = new GenericTypesMapping();
+
+    /**
+     * Columns of partial queries: the group, sum(qty), count(qty), min(price), max(price), and sum(price)
+     * with count(price) of avg(price).
+     */
+    private static final List<String> PARTIAL_TYPES = Arrays.asList("VARCHAR", "BIGINT", "BIGINT", "DOUBLE", "DOUBLE",
+            "DOUBLE", "BIGINT");
+
+    private static final Group CATEGORY = new Group(GroupType.ATTRIBUTE_GROUP)
+            .setAttributeGroup(new AttributeGroup().setField("category"));
+    private static final Metric SUM = new Metric(MetricType.SUM).setSum(new MetricSum().setField("qty"));
+    private static final Metric COUNT = new Metric(MetricType.COUNT).setCount(new MetricCount().setField("qty"));
+    private static final Metric MIN = new Metric(MetricType.MIN).setMin(new MetricMin().setField("price"));
+    private static final Metric MAX = new Metric(MetricType.MAX).setMax(new MetricMax().setField("price"));
+    private static final Metric AVG = new Metric(MetricType.AVG).setAvg(new MetricAvg().setField("price"));
+
+    @Test
+    public void mergesPartialRowsOfSameGroup() throws Exception {
+        PartialAggregation aggregation = merged(aggRequest());
+
+        Map<String, List<String>> rows = new HashMap<>();
+        for (Record record : aggregation.result()) {
+            List<String> values = values(record);
+            rows.put(values.get(0), values.subList(1, values.size()));
+        }
+
+        assertEquals(3, rows.size());
+        assertEquals(Arrays.asList("15", "5", "0.5", "4.0", "2.3"), rows.get("a"));
+        assertEquals(Arrays.asList("3", "1", "2.0", "2.0", "2.0"), rows.get("b"));
+        assertEquals(Arrays.asList("7", "1", "9.0", "9.0", "9.0"), rows.get(null));
+    }
+
+    @Test
+    public void reportsMetadataOfRequestedMetrics() throws Exception {
+        List<ResponseMetadata> metadata = merged(aggRequest()).getMetadata();
+
+        assertEquals(6, metadata.size());
+        assertEquals(FieldType.STRING, metadata.get(0).getType());
+        assertEquals(FieldType.INTEGER, metadata.get(1).getType());
+        assertEquals(FieldType.DOUBLE, metadata.get(3).getType());
+        assertEquals("avg(price)", metadata.get(5).getName());
+        assertEquals(FieldType.DOUBLE, metadata.get(5).getType());
+    }
+
+    @Test
+    public void sortsMergedRowsByMetricAndLimits() throws Exception {
+        AggDataRequest aggRequest = aggRequest()
+                .setSorts(Collections.singletonList(new AggSort(SortType.METRIC).setMetric(SUM)
+                        .setDirection(SortDir.DESC)))
+                .setLimit(2);
+
+        assertEquals(Arrays.asList("a", null), groups(merged(aggRequest).result()));
+
+        aggRequest.setOffset(1).setLimit(1);
+        assertEquals(Collections.singletonList(null), groups(merged(aggRequest).result()));
+    }
+
+    @Test
+    public void sortsNullGroupsLastInAscendingOrder() throws Exception {
+        AggDataRequest aggRequest = aggRequest()
+                .setSorts(Collections.singletonList(new AggSort(SortType.GROUP).setGroup(CATEGORY)
+                        .setDirection(SortDir.ASC)));
+
+        assertEquals(Arrays.asList("a", "b", null), groups(merged(aggRequest).result()));
+    }
+
+    @Test
+    public void countOfGroupMissingInPartialsIsZero() throws Exception {
+        PartialAggregation aggregation = new PartialAggregation(aggRequest());
+        aggregation.add(resultSet(new Object[][]{{"a", null, 0L, null, null, null, 0L}}), TYPES_MAPPING);
+
+        List<String> values = values(aggregation.result().get(0));
+        assertEquals("0", values.get(2));
+        assertNull(values.get(1));
+        assertNull(values.get(5));
+    }
+
+    @Test
+    public void partialRequestSelectsPartialMetricsOfSubset() {
+        DataReadRequest request = new DataReadRequest().setStructured(new StructuredRequest()
+                .setAggDataRequest(aggRequest()
+                        .setSorts(Collections.singletonList(new AggSort(SortType.METRIC).setMetric(SUM)
+                                .setDirection(SortDir.DESC)))
+                        .setLimit(10)));
+        Filter subset = new Filter(FilterFunction.EQ);
+
+        AggDataRequest partial = new PartialAggregation(request.getStructured().getAggDataRequest())
+                .partialRequest(request, subset).getStructured().getAggDataRequest();
+
+        assertEquals(Arrays.asList(MetricType.SUM, MetricType.COUNT, MetricType.MIN, MetricType.MAX, MetricType.SUM,
+                MetricType.COUNT), partial.getMetrics().stream().map(Metric::getType).collect(Collectors.toList()));
+        assertEquals(Collections.singletonList(subset), partial.getFilters());
+        assertNull(partial.getSorts());
+        assertEquals(0, partial.getLimit());
+    }
+
+    @Test
+    public void distinctCountIsNotMerged() {
+        Metric distinctCount = new Metric(MetricType.DISTINCT_COUNT)
+                .setDistinctCount(new MetricDistinctCount().setField("qty"));
+
+        assertTrue(PartialAggregation.isSupported(aggRequest()));
+        assertFalse(PartialAggregation.isSupported(aggRequest().setMetrics(Arrays.asList(SUM, distinctCount))));
+        try {
+            new PartialAggregation(aggRequest().setMetrics(Collections.singletonList(distinctCount)));
+            fail("DISTINCT_COUNT was merged");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static AggDataRequest aggRequest() {
+        return new AggDataRequest()
+                .setGroups(Collections.singletonList(CATEGORY))
+                .setMetrics(Arrays.asList(SUM, COUNT, MIN, MAX, AVG));
+    }
+
+    private static PartialAggregation merged(AggDataRequest aggRequest) throws Exception {
+        PartialAggregation aggregation = new PartialAggregation(aggRequest);
+        aggregation.add(resultSet(new Object[][]{
+                {"a", 10L, 2L, 1.5, 4.0, 5.5, 2L},
+                {"b", 3L, 1L, 2.0, 2.0, 2.0, 1L}}), TYPES_MAPPING);
+        aggregation.add(resultSet(new Object[][]{
+                {"a", 5L, 3L, 0.5, 3.0, 6.0, 3L},
+                {null, 7L, 1L, 9.0, 9.0, 9.0, 1L}}), TYPES_MAPPING);
+        return aggregation;
+    }
+
+    private static List<String> values(Record record) {
+        return record.getRecord().stream()
+                .map(field -> field.isIsNull() ? null : field.getValue())
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> groups(List<Record> records) {
+        return records.stream().map(record -> values(record).get(0)).collect(Collectors.toList());
+    }
+
+    /**
+     * Result set of a partial query over the rows, reading columns with any getter.
+     */
+    private static ResultSet resultSet(Object[][] rows) {
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+                ResultSetMetaData.class.getClassLoader(), new Class<?>[]{ResultSetMetaData.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return PARTIAL_TYPES.size();
+                        case "getColumnTypeName":
+                            return PARTIAL_TYPES.get((Integer) args[0] - 1);
+                        case "getColumnLabel":
+                        case "getColumnName":
+                            return "column" + args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        int[] row = {-1};
+        boolean[] wasNull = new boolean[1];
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMetaData":
+                            return metaData;
+                        case "next":
+                            return ++row[0] < rows.length;
+                        case "wasNull":
+                            return wasNull[0];
+                        default:
+                            break;
+                    }
+                    Object value = rows[row[0]][(Integer) args[0] - 1];
+                    wasNull[0] = value == null;
+                    switch (method.getName()) {
+                        case "getLong":
+                            return value == null ? 0L : ((Number) value).longValue();
+                        case "getDouble":
+                            return value == null ? 0D : ((Number) value).doubleValue();
+                        case "getString":
+                            return value == null ? null : value.toString();
+                        default:
+                            return value;
+                    }
+                });
+    }
+}